@@ -0,0 +1,56 @@
+/**
+ * This class is the Adam optimizer (Kingma and Ba, 2015) used for ascent:
+ * M = beta1 * M + (1 - beta1) * gradient
+ * V = beta2 * V + (1 - beta2) * gradient^2
+ * W = W + eta * M' / (sqrt(V') + epsilon)
+ * where M' and V' are M and V corrected for starting at zero.
+ * Every weight gets its own step size, so rare words learn as fast as common ones.
+ */
+public class AdamOptimizer implements Optimizer {
+    private final double eta;
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+    private final double[] firstMoment;
+    private final double[] secondMoment;
+    private int step = 0;
+    //bias corrections of the current step
+    private double firstCorrection;
+    private double secondCorrection;
+
+    /**
+     * Constructor for the AdamOptimizer class
+     * @param eta the learning rate
+     * @param beta1 the decay of the first moment, usually 0.9
+     * @param beta2 the decay of the second moment, usually 0.999
+     * @param epsilon added to the denominator so it is never 0, usually 1e-8
+     * @param size the number of weights
+     */
+    public AdamOptimizer(double eta, double beta1, double beta2, double epsilon, int size) {
+        this.eta = eta;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+        this.firstMoment = new double[size];
+        this.secondMoment = new double[size];
+    }
+
+    @Override
+    public void startStep() {
+        step++;
+        firstCorrection = 1 - Math.pow(beta1, step);
+        secondCorrection = 1 - Math.pow(beta2, step);
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradient, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double g = gradient[i];
+            firstMoment[i] = beta1 * firstMoment[i] + (1 - beta1) * g;
+            secondMoment[i] = beta2 * secondMoment[i] + (1 - beta2) * g * g;
+            double m = firstMoment[i] / firstCorrection;
+            double v = secondMoment[i] / secondCorrection;
+            weights[i] += eta * m / (Math.sqrt(v) + epsilon);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * This interface scores one document at a time with a trained model.
+ * A document is given as the sparse vector of its word counts: the indices (0 based, word i
+ * is line i+1 of vocabulary.txt) of the words that appear in it and their counts.
+ * It is implemented by NaiveBayes, LogisticRegression and ModelFile (a model loaded from a file).
+ * Implementations only read the trained model, so a document can be scored from many threads at once.
+ */
+public interface Classifier {
+
+    /**
+     * @return the number of classes
+     */
+    int getNumClasses();
+
+    /**
+     * @return the number of words in the vocabulary, word indices must be smaller than this
+     */
+    int getVocabularySize();
+
+    /**
+     * This method calculates the score of a document for every class,
+     * the class with the highest score is the prediction
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param scores the array the score of every class (0 based) is written to
+     */
+    void classScores(int[] indices, int[] counts, int start, int end, double[] scores);
+
+    /**
+     * The scores are log probabilities up to a constant, by default natural logs.
+     * Models whose scores are in another base override this.
+     * @return the factor that turns a score into a natural log, ln(2) for log2 scores
+     */
+    default double scoreScale() {
+        return 1;
+    }
+
+    /**
+     * This method calculates P(Y|X) of a document for every class, the scores are turned
+     * into probabilities with a softmax
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param probabilities the array the probability of every class (0 based) is written to
+     */
+    default void classProbabilities(int[] indices, int[] counts, int start, int end, double[] probabilities) {
+        classScores(indices, counts, start, end, probabilities);
+        softmax(probabilities, scoreScale());
+    }
+
+    /**
+     * This method calculates ln P(Y|X) of a document for every class as scale * score - logsumexp(scale * scores).
+     * Unlike the log of classProbabilities, a class far below the best one gets a large negative number
+     * instead of log(0) = -Infinity.
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param logProbabilities the array the natural log probability of every class (0 based) is written to
+     */
+    default void classLogProbabilities(int[] indices, int[] counts, int start, int end, double[] logProbabilities) {
+        classScores(indices, counts, start, end, logProbabilities);
+        double scale = scoreScale();
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : logProbabilities) {
+            max = Math.max(max, score);
+        }
+        double sum = 0;
+        for (double score : logProbabilities) {
+            sum += Math.exp(scale * (score - max));
+        }
+        double logSum = scale * max + Math.log(sum);
+        for (int j = 0; j < logProbabilities.length; j++) {
+            logProbabilities[j] = scale * logProbabilities[j] - logSum;
+        }
+    }
+
+    /**
+     * This method turns scores into probabilities in place: P(j) = e^(scale * score j) / Sigma_k e^(scale * score k).
+     * The largest score is subtracted first so the exponentials never overflow.
+     * @param scores the scores, replaced by the probabilities
+     * @param scale the factor that turns a score into a natural log, ln(2) for log2 scores
+     */
+    static void softmax(double[] scores, double scale) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            max = Math.max(max, score);
+        }
+        double sum = 0;
+        for (int j = 0; j < scores.length; j++) {
+            scores[j] = Math.exp(scale * (scores[j] - max));
+            sum += scores[j];
+        }
+        for (int j = 0; j < scores.length; j++) {
+            scores[j] /= sum;
+        }
+    }
+
+    /**
+     * This method predicts the class of a document,
+     * if two classes have the same score the first one is chosen
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @return the class prediction (1 based)
+     */
+    default int predictClass(int[] indices, int[] counts, int start, int end) {
+        double[] scores = new double[getNumClasses()];
+        classScores(indices, counts, start, end, scores);
+        int max = 0;
+        for (int j = 1; j < scores.length; j++) {
+            if (scores[j] > scores[max]) {
+                max = j;
+            }
+        }
+        return max + 1;
+    }
+}
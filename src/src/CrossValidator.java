@@ -0,0 +1,312 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class estimates how well an algorithm does with k-fold cross validation over every document of
+ * the training file. The documents are shuffled with a seed and dealt into k folds, with stratification
+ * every fold gets the same share of every class. Every fold is held out once: a model is trained on the
+ * other folds and scored on it through the Classifier interface.
+ * The training file is read once and the folds train in parallel on a fork-join pool:
+ *      NB: the words of every document are counted once, a fold's model copies those counts and takes
+ *          away the counts of its held out documents (see NaiveBayes(NaiveBayes, int[]))
+ *      LR: every document is scaled once into one training matrix, a fold trains its own weights on its
+ *          rows of that matrix (see LogisticRegression(LogisticRegression, RunConfig, int[], int[])).
+ *          The scaling statistics come from every document, they do not use the labels. The held out
+ *          fold is the validation set of the fold, so early stopping (if it is on) watches that fold.
+ * A feature selection is learned from every document too, so only one that does not use the labels (df:k) is allowed.
+ * The result is the accuracy of every fold, their mean and variance and the confusion matrix of all folds.
+ */
+public class CrossValidator {
+    private final RunConfig config;
+    private final int folds;
+    private final boolean stratified;
+
+    /**
+     * The result of a cross validation
+     */
+    public static final class Result {
+        private final double[] accuracies;
+        private final int[][] confusionMatrix;
+        private final long millis;
+
+        private Result(double[] accuracies, int[][] confusionMatrix, long millis) {
+            this.accuracies = accuracies;
+            this.confusionMatrix = confusionMatrix;
+            this.millis = millis;
+        }
+
+        /**
+         * @return the accuracy of every fold
+         */
+        public double[] getAccuracies() {
+            return accuracies.clone();
+        }
+
+        /**
+         * @return the mean accuracy of the folds
+         */
+        public double getMean() {
+            double sum = 0;
+            for (double accuracy : accuracies) {
+                sum += accuracy;
+            }
+            return sum / accuracies.length;
+        }
+
+        /**
+         * @return the sample variance of the accuracy of the folds
+         */
+        public double getVariance() {
+            double mean = getMean();
+            double sum = 0;
+            for (double accuracy : accuracies) {
+                sum += (accuracy - mean) * (accuracy - mean);
+            }
+            return sum / (accuracies.length - 1);
+        }
+
+        /**
+         * @return the confusion matrix of every fold added together, [actual class][predicted class] (0 based)
+         */
+        public int[][] getConfusionMatrix() {
+            return confusionMatrix;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * This method prints the accuracy of every fold, the mean and variance and the confusion matrix
+         * @param out the stream to print to
+         */
+        public void print(PrintStream out) {
+            for (int f = 0; f < accuracies.length; f++) {
+                out.println("Fold " + f + " accuracy: " + accuracies[f]);
+            }
+            out.println("Mean accuracy: " + getMean());
+            out.println("Accuracy variance: " + getVariance());
+            out.println("Confusion Matrix:");
+            for (int[] row : confusionMatrix) {
+                out.println(Arrays.toString(row));
+            }
+        }
+    }
+
+    /**
+     * Constructor for the CrossValidator class
+     * @param config the algorithm, its settings, the training file, the threads and the seed of the shuffle
+     * @param folds the number of folds, at least 2
+     * @param stratified true to give every fold the same share of every class
+     * @throws IllegalArgumentException if there are less than 2 folds or the feature selection uses the labels,
+     *                                  it would be learned from the held out documents too
+     */
+    public CrossValidator(RunConfig config, int folds, boolean stratified) {
+        if (folds < 2) {
+            throw new IllegalArgumentException("folds must be at least 2, got " + folds);
+        }
+        FeatureSelector selector = config.getFeatureSelector();
+        if (selector != null && selector.usesLabels()) {
+            throw new IllegalArgumentException("cross validation can not use " + selector
+                    + " feature selection, it would rank the words with the labels of the held out folds");
+        }
+        this.config = config;
+        this.folds = folds;
+        this.stratified = stratified;
+    }
+
+    /**
+     * This method reads the training file and runs the cross validation
+     * @return the result
+     * @throws FileNotFoundException if the training file does not exist
+     * @throws IllegalArgumentException if there are more folds than documents
+     */
+    public Result run() throws FileNotFoundException {
+        SparseDataset dataset;
+        try {
+            //the folds are given the hashed documents, like the models hash the files they read
+            FeatureHasher hasher = config.getFeatureHasher();
+            if (TextCorpus.isText(config.getTrainingFile())) {
+                return run(TextCorpus.load(config.getTrainingFile(), true, config.getVocabularyFile(),
+                        config.getClassificationFile(), hasher, config.getThreads()));
+            }
+            dataset = SparseDatasetCache.load(config.getTrainingFile(), true);
+            if (hasher != null) {
+                hasher.readVocabulary(config.getVocabularyFile());
+                dataset = hasher.transform(dataset);
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return run(dataset);
+    }
+
+    /**
+     * This method runs the cross validation on a dataset that was already read
+     * @param dataset the labeled documents
+     * @return the result
+     * @throws IllegalArgumentException if there are more folds than documents
+     */
+    public Result run(SparseDataset dataset) {
+        if (folds > dataset.getRows()) {
+            throw new IllegalArgumentException("can not split " + dataset.getRows() + " documents into "
+                    + folds + " folds");
+        }
+        long start = System.currentTimeMillis();
+        int[] fold = assignFolds(dataset, folds, stratified, config.getSeed());
+        int[][] heldOut = new int[folds][];
+        int[][] training = new int[folds][];
+        int[] sizes = new int[folds];
+        for (int f : fold) {
+            sizes[f]++;
+        }
+        for (int f = 0; f < folds; f++) {
+            heldOut[f] = new int[sizes[f]];
+            training[f] = new int[dataset.getRows() - sizes[f]];
+        }
+        int[] heldOutNext = new int[folds];
+        int[] trainingNext = new int[folds];
+        for (int row = 0; row < fold.length; row++) {
+            for (int f = 0; f < folds; f++) {
+                if (fold[row] == f) {
+                    heldOut[f][heldOutNext[f]++] = row;
+                }
+                else {
+                    training[f][trainingNext[f]++] = row;
+                }
+            }
+        }
+
+        //the folds run in parallel, so every fold trains on one thread
+        RunConfig foldConfig = config.copy();
+        foldConfig.set("threads", "1");
+        NaiveBayes naiveBayes = null;
+        LogisticRegression logisticRegression = null;
+        if (config.getAlgorithm().equals("nb")) {
+            naiveBayes = new NaiveBayes(foldConfig);
+            naiveBayes.createDataSet(dataset, identity(dataset.getRows()));
+        }
+        else {
+            logisticRegression = new LogisticRegression(foldConfig);
+            logisticRegression.createDataSet(dataset);
+        }
+
+        ForkJoinPool pool = Parallel.newPool(config.getThreads());
+        try {
+            List<ForkJoinTask<int[][]>> tasks = new ArrayList<>(folds);
+            for (int f = 0; f < folds; f++) {
+                int f2 = f;
+                NaiveBayes counts = naiveBayes;
+                LogisticRegression data = logisticRegression;
+                tasks.add(pool.submit(() -> {
+                    Classifier model;
+                    if (counts != null) {
+                        model = new NaiveBayes(counts, heldOut[f2]);
+                    }
+                    else {
+                        LogisticRegression job = new LogisticRegression(data, foldConfig, training[f2], heldOut[f2]);
+                        job.setVerbose(false);
+                        job.train();
+                        model = job;
+                    }
+                    return confusionMatrix(model, dataset, heldOut[f2]);
+                }));
+            }
+            double[] accuracies = new double[folds];
+            int[][] confusionMatrix = null;
+            for (int f = 0; f < folds; f++) {
+                int[][] foldMatrix = tasks.get(f).join();
+                if (confusionMatrix == null) {
+                    confusionMatrix = new int[foldMatrix.length][foldMatrix.length];
+                }
+                int correct = 0;
+                for (int i = 0; i < foldMatrix.length; i++) {
+                    correct += foldMatrix[i][i];
+                    for (int j = 0; j < foldMatrix.length; j++) {
+                        confusionMatrix[i][j] += foldMatrix[i][j];
+                    }
+                }
+                accuracies[f] = (double) correct / heldOut[f].length;
+            }
+            return new Result(accuracies, confusionMatrix, System.currentTimeMillis() - start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method deals the documents into folds. The documents are shuffled with the seed and then
+     * dealt one at a time to fold 0, 1, ..., k-1, 0, 1, ... With stratification the shuffled documents
+     * are first sorted by class (keeping the shuffled order within a class), so every class is dealt
+     * evenly over the folds. Either way the folds differ in size by at most one document.
+     * @param dataset the labeled documents
+     * @param folds the number of folds
+     * @param stratified true to give every fold the same share of every class
+     * @param seed the seed of the shuffle, so a cross validation can be repeated
+     * @return the fold (0 based) of every row of the dataset
+     */
+    public static int[] assignFolds(SparseDataset dataset, int folds, boolean stratified, long seed) {
+        int rows = dataset.getRows();
+        int[] order = identity(rows);
+        LogisticRegression.shuffle(order, new Random(seed));
+        if (stratified) {
+            //counting sort on the class, it keeps the shuffled order of the documents of a class
+            int maxLabel = 0;
+            for (int row = 0; row < rows; row++) {
+                maxLabel = Math.max(maxLabel, dataset.getLabel(row));
+            }
+            int[] next = new int[maxLabel + 2];
+            for (int row = 0; row < rows; row++) {
+                next[dataset.getLabel(row) + 1]++;
+            }
+            for (int label = 0; label <= maxLabel; label++) {
+                next[label + 1] += next[label];
+            }
+            int[] sorted = new int[rows];
+            for (int row : order) {
+                sorted[next[dataset.getLabel(row)]++] = row;
+            }
+            order = sorted;
+        }
+        int[] fold = new int[rows];
+        for (int s = 0; s < rows; s++) {
+            fold[order[s]] = s % folds;
+        }
+        return fold;
+    }
+
+    /**
+     * This method scores the held out documents of a fold
+     * @return the confusion matrix of the fold, [actual class][predicted class] (0 based)
+     */
+    private static int[][] confusionMatrix(Classifier model, SparseDataset dataset, int[] rows) {
+        int[] indices = dataset.getIndices();
+        int[] counts = dataset.getCounts();
+        int[][] confusionMatrix = new int[model.getNumClasses()][model.getNumClasses()];
+        for (int row : rows) {
+            int prediction = model.predictClass(indices, counts, dataset.rowStart(row), dataset.rowEnd(row));
+            confusionMatrix[dataset.getLabel(row) - 1][prediction - 1]++;
+        }
+        return confusionMatrix;
+    }
+
+    /**
+     * @return the rows 0 to rows-1
+     */
+    private static int[] identity(int rows) {
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+
+/**
+ * This class is a sparse matrix of doubles in compressed sparse row (CSR) format.
+ * The values of row r are stored in columnIndices/values from rowPointers[r] (inclusive)
+ * to rowPointers[r+1] (exclusive), so a row is one contiguous block of memory.
+ * The transpose of a CSR matrix is the same matrix in compressed sparse column format,
+ * which is used to compute X^T * (something) one column of X at a time.
+ * Dense matrices used with this class are flat double arrays stored row by row
+ * with "width" values per row, which is the same layout as an MTJ DenseMatrix of
+ * size width x rows, so DenseMatrix.getData() can be passed in directly.
+ */
+public class CsrMatrix {
+    private final int rows;
+    private final int columns;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+
+    /**
+     * Constructor for the CsrMatrix class
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param rowPointers the start of every row in columnIndices/values, has rows+1 elements
+     * @param columnIndices the column of every value
+     * @param values the non-zero values
+     */
+    public CsrMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices, double[] values) {
+        this.rows = rows;
+        this.columns = columns;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * This method builds a CSR matrix from the rows from-to of a dataset.
+     * Column 0 of the matrix is the bias and is set to 1 for every row,
+     * word i of the dataset is stored in column i+1.
+     * @param dataset the dataset
+     * @param from the first row
+     * @param to the row after the last row
+     * @return the matrix
+     */
+    public static CsrMatrix fromDataset(SparseDataset dataset, int from, int to) {
+        return fromDataset(dataset, from, to, null);
+    }
+
+    /**
+     * This method builds a CSR matrix from the rows from-to of a dataset with only the selected words.
+     * Column 0 of the matrix is the bias and is set to 1 for every row, the word of column c of the
+     * selector is stored in column c+1 and the words that were not selected are left out.
+     * @param dataset the dataset
+     * @param from the first row
+     * @param to the row after the last row
+     * @param selector the fitted selector, null to store every word (word i in column i+1)
+     * @return the matrix
+     */
+    public static CsrMatrix fromDataset(SparseDataset dataset, int from, int to, FeatureSelector selector) {
+        int rows = to - from;
+        int[] indices = dataset.getIndices();
+        int[] counts = dataset.getCounts();
+        int first = dataset.rowStart(from);
+        int nonZeros = dataset.rowStart(to) - first + rows;
+        if (selector != null) {
+            nonZeros = rows;
+            for (int n = first; n < dataset.rowStart(to); n++) {
+                if (selector.column(indices[n]) >= 0) {
+                    nonZeros++;
+                }
+            }
+        }
+        int[] rowPointers = new int[rows + 1];
+        int[] columnIndices = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int position = 0;
+        for (int r = 0; r < rows; r++) {
+            columnIndices[position] = 0;
+            values[position] = 1;
+            position++;
+            for (int n = dataset.rowStart(from + r); n < dataset.rowEnd(from + r); n++) {
+                int column = selector == null ? indices[n] : selector.column(indices[n]);
+                if (column < 0) {
+                    continue;
+                }
+                columnIndices[position] = column + 1;
+                values[position] = counts[n];
+                position++;
+            }
+            rowPointers[r + 1] = position;
+        }
+        int columns = selector == null ? dataset.getColumns() : selector.getColumns();
+        return new CsrMatrix(rows, columns + 1, rowPointers, columnIndices, values);
+    }
+
+    /**
+     * This method copies some rows of the matrix into a new matrix
+     * @param selected the rows to copy, in the order they are stored in the new matrix
+     * @return the matrix
+     */
+    public CsrMatrix selectRows(int[] selected) {
+        int[] selectedPointers = new int[selected.length + 1];
+        for (int s = 0; s < selected.length; s++) {
+            int r = selected[s];
+            selectedPointers[s + 1] = selectedPointers[s] + rowPointers[r + 1] - rowPointers[r];
+        }
+        int[] selectedIndices = new int[selectedPointers[selected.length]];
+        double[] selectedValues = new double[selectedPointers[selected.length]];
+        for (int s = 0; s < selected.length; s++) {
+            int r = selected[s];
+            int length = rowPointers[r + 1] - rowPointers[r];
+            System.arraycopy(columnIndices, rowPointers[r], selectedIndices, selectedPointers[s], length);
+            System.arraycopy(values, rowPointers[r], selectedValues, selectedPointers[s], length);
+        }
+        return new CsrMatrix(selected.length, columns, selectedPointers, selectedIndices, selectedValues);
+    }
+
+    /**
+     * This method builds the transpose of the matrix with a counting sort on the columns.
+     * The result is also the compressed sparse column format of this matrix.
+     * @return the transposed matrix
+     */
+    public CsrMatrix transpose() {
+        int nonZeros = rowPointers[rows];
+        int[] transposedPointers = new int[columns + 1];
+        for (int k = 0; k < nonZeros; k++) {
+            transposedPointers[columnIndices[k] + 1]++;
+        }
+        for (int c = 0; c < columns; c++) {
+            transposedPointers[c + 1] += transposedPointers[c];
+        }
+        int[] next = Arrays.copyOf(transposedPointers, columns);
+        int[] transposedIndices = new int[nonZeros];
+        double[] transposedValues = new double[nonZeros];
+        for (int r = 0; r < rows; r++) {
+            for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+                int position = next[columnIndices[k]]++;
+                transposedIndices[position] = r;
+                transposedValues[position] = values[k];
+            }
+        }
+        return new CsrMatrix(columns, rows, transposedPointers, transposedIndices, transposedValues);
+    }
+
+    /**
+     * This method multiplies this matrix by a dense matrix: result = this * right.
+     * right has one row of width values for every column of this matrix and result
+     * gets one row of width values for every row of this matrix.
+     * @param right the dense matrix, stored row by row
+     * @param width the number of columns of the dense matrix
+     * @param result the array the product is written to, stored row by row
+     */
+    public void multiply(double[] right, int width, double[] result) {
+        multiplyRows(0, rows, right, width, result);
+    }
+
+    /**
+     * This method computes the rows from-to of this * right, see multiply
+     * @param from the first row
+     * @param to the row after the last row
+     * @param right the dense matrix, stored row by row
+     * @param width the number of columns of the dense matrix
+     * @param result the array the product is written to, stored row by row
+     */
+    public void multiplyRows(int from, int to, double[] right, int width, double[] result) {
+        for (int r = from; r < to; r++) {
+            int out = r * width;
+            Arrays.fill(result, out, out + width, 0);
+            //every stored value adds a multiple of one contiguous row of right to the result row
+            for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+                double value = values[k];
+                int in = columnIndices[k] * width;
+                for (int c = 0; c < width; c++) {
+                    result[out + c] += value * right[in + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * This method adds the product of the transpose of the rows from-to of this matrix and the
+     * same rows of a dense matrix to result: result += this[from:to]^T * left[from:to].
+     * It is used to add up X^T * D one block of documents at a time, result has one row of
+     * width values for every column of this matrix and is not cleared first.
+     * @param from the first row
+     * @param to the row after the last row
+     * @param left the dense matrix with one row of width values for every row of this matrix
+     * @param width the number of columns of the dense matrix
+     * @param result the array the product is added to, stored row by row
+     */
+    public void transposeMultiplyRows(int from, int to, double[] left, int width, double[] result) {
+        for (int r = from; r < to; r++) {
+            int in = r * width;
+            //every stored value adds a multiple of the row of left to one contiguous row of the result
+            for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+                double value = values[k];
+                int out = columnIndices[k] * width;
+                for (int c = 0; c < width; c++) {
+                    result[out + c] += value * left[in + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * This method computes the rows selected[from] to selected[to-1] of this * right, see multiply.
+     * Every result row is written to the position of its row in this matrix.
+     * @param selected the rows of this matrix, for example a shuffled order of the rows
+     * @param from the first position in selected
+     * @param to the position after the last position in selected
+     * @param right the dense matrix, stored row by row
+     * @param width the number of columns of the dense matrix
+     * @param result the array the product is written to, stored row by row
+     */
+    public void multiplySelectedRows(int[] selected, int from, int to, double[] right, int width, double[] result) {
+        for (int s = from; s < to; s++) {
+            int r = selected[s];
+            multiplyRows(r, r + 1, right, width, result);
+        }
+    }
+
+    /**
+     * This method adds this[selected]^T * left[selected] to result for the rows
+     * selected[from] to selected[to-1], see transposeMultiplyRows
+     * @param selected the rows of this matrix, for example a shuffled order of the rows
+     * @param from the first position in selected
+     * @param to the position after the last position in selected
+     * @param left the dense matrix with one row of width values for every row of this matrix
+     * @param width the number of columns of the dense matrix
+     * @param result the array the product is added to, stored row by row
+     */
+    public void transposeMultiplySelectedRows(int[] selected, int from, int to, double[] left, int width,
+                                              double[] result) {
+        for (int s = from; s < to; s++) {
+            int r = selected[s];
+            transposeMultiplyRows(r, r + 1, left, width, result);
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getNonZeros() {
+        return rowPointers[rows];
+    }
+
+    public int[] getRowPointers() {
+        return rowPointers;
+    }
+
+    public int[] getColumnIndices() {
+        return columnIndices;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+}
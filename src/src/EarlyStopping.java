@@ -0,0 +1,96 @@
+/**
+ * This class decides when LogisticRegression should stop training before it has run all its iterations.
+ * There are three criteria, each one is turned off by setting it to 0:
+ *      tolerance: stop when the log conditional data likelihood changes by less than this fraction
+ *                 of its previous value between two iterations
+ *      patience: stop when the validation accuracy has not improved for this many iterations
+ *      max millis: stop when training has run for this many milliseconds
+ * The class also remembers the iteration with the best validation accuracy so the model
+ * can roll back to those weights when training stops.
+ */
+public class EarlyStopping {
+    private final double tolerance;
+    private final int patience;
+    private final long maxMillis;
+    private long startTime;
+    private double lastLikelihood;
+    private double bestAccuracy;
+    private int bestIteration;
+    private int iterationsSinceBest;
+
+    /**
+     * Constructor for the EarlyStopping class
+     * @param tolerance the smallest relative change of the log likelihood that keeps training going, 0 to turn off
+     * @param patience the number of iterations without a better validation accuracy before stopping, 0 to turn off
+     * @param maxMillis the wall-clock budget of training in milliseconds, 0 to turn off
+     */
+    public EarlyStopping(double tolerance, int patience, long maxMillis) {
+        this.tolerance = tolerance;
+        this.patience = patience;
+        this.maxMillis = maxMillis;
+        start();
+    }
+
+    /**
+     * This method resets the criteria, it is called when training starts
+     */
+    public void start() {
+        startTime = System.currentTimeMillis();
+        lastLikelihood = Double.NaN;
+        bestAccuracy = Double.NEGATIVE_INFINITY;
+        bestIteration = -1;
+        iterationsSinceBest = 0;
+    }
+
+    /**
+     * This method records the validation accuracy of an iteration
+     * @param iteration the iteration number
+     * @param accuracy the validation accuracy of the iteration
+     * @return true if this is the best accuracy so far, so the weights should be saved
+     */
+    public boolean improved(int iteration, double accuracy) {
+        if (accuracy > bestAccuracy) {
+            bestAccuracy = accuracy;
+            bestIteration = iteration;
+            iterationsSinceBest = 0;
+            return true;
+        }
+        iterationsSinceBest++;
+        return false;
+    }
+
+    /**
+     * This method checks the criteria after an iteration
+     * @param likelihood the log conditional data likelihood of the iteration
+     * @return the reason to stop, or null if training should go on
+     */
+    public String shouldStop(double likelihood) {
+        double previous = lastLikelihood;
+        lastLikelihood = likelihood;
+        if (tolerance > 0 && !Double.isNaN(previous)
+                && Math.abs(likelihood - previous) <= tolerance * Math.abs(previous)) {
+            return "log likelihood changed by less than " + tolerance + " of its value";
+        }
+        if (patience > 0 && iterationsSinceBest >= patience) {
+            return "validation accuracy did not improve for " + patience + " iterations";
+        }
+        if (maxMillis > 0 && System.currentTimeMillis() - startTime >= maxMillis) {
+            return "training time reached " + maxMillis + " ms";
+        }
+        return null;
+    }
+
+    /**
+     * @return the best validation accuracy seen
+     */
+    public double getBestAccuracy() {
+        return bestAccuracy;
+    }
+
+    /**
+     * @return the iteration with the best validation accuracy
+     */
+    public int getBestIteration() {
+        return bestIteration;
+    }
+}
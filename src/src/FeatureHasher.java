@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * This class maps words to a fixed number of columns with the hashing trick, so a model does not need
+ * a vocabulary: a word that was never seen before still has a column and the size of the model only
+ * depends on the number of columns, 2^bits. The column of a word is a hash of its characters, so it is
+ * the same on every machine and in every run:
+ *      column = mix(Sigma_i c_i * 31^(n-1-i)) & (2^bits - 1)
+ * where the sum is the hash of a java String and mix is the finalizer of murmur3, which spreads every bit
+ * of the hash over the low bits that pick the column. Words that hash to the same column share it,
+ * their counts are added up.
+ * Raw documents are hashed token by token (see addDocument). The documents of a csv file are hashed
+ * through the vocabulary file: word i of a row is the word on line i of the vocabulary, so a model trained
+ * on the csv files scores raw text the same way.
+ */
+public class FeatureHasher {
+    private final int bits;
+    private final int mask;
+    //the column of every word of the vocabulary file, set by setVocabulary
+    private int[] wordColumns;
+
+    /**
+     * Constructor for the FeatureHasher class
+     * @param bits the log2 of the number of columns, from 1 to 30
+     * @throws IllegalArgumentException if bits is out of range
+     */
+    public FeatureHasher(int bits) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("hashing bits must be from 1 to 30, got " + bits);
+        }
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+    }
+
+    /**
+     * This method hashes a word
+     * @param token the word
+     * @return the column of the word
+     */
+    public int column(CharSequence token) {
+        int hash = 0;
+        for (int i = 0; i < token.length(); i++) {
+            hash = 31 * hash + token.charAt(i);
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash & mask;
+    }
+
+    /**
+     * This method hashes the tokens of a raw document straight into a row of a dataset
+     * @param builder the dataset, with getColumns() columns
+     * @param tokens the tokens of the document, a token that repeats is counted every time
+     * @param label the class of the document, 0 if it has none
+     * @param documentId the document id
+     */
+    public void addDocument(SparseDataset.Builder builder, Iterable<? extends CharSequence> tokens, int label,
+                            int documentId) {
+        int[] columns = new int[16];
+        int length = 0;
+        for (CharSequence token : tokens) {
+            if (length == columns.length) {
+                columns = java.util.Arrays.copyOf(columns, length * 2);
+            }
+            columns[length++] = column(token);
+        }
+        builder.addRow(columns, null, length, label, documentId);
+    }
+
+    /**
+     * This method sets the words of the vocabulary file, which csv documents are hashed with
+     * @param words the word of every word index (0 based)
+     */
+    public void setVocabulary(String[] words) {
+        int[] columns = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            columns[i] = column(words[i]);
+        }
+        wordColumns = columns;
+    }
+
+    /**
+     * This method reads the vocabulary file (one word per line) if it was not read yet
+     * @param fileName the vocabulary file
+     * @throws java.io.FileNotFoundException if the file does not exist
+     * @throws IOException if the file can not be read
+     */
+    public void readVocabulary(String fileName) throws IOException {
+        if (wordColumns == null) {
+            setVocabulary(MutualInformation.readVocabulary(fileName, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * This method hashes the documents of a dataset whose columns are word indices of the vocabulary.
+     * A word index without a line in the vocabulary file has no word to hash and is left out.
+     * @param dataset the documents
+     * @return the same documents with getColumns() hashed columns
+     * @throws IllegalStateException if the vocabulary was not set
+     */
+    public SparseDataset transform(SparseDataset dataset) {
+        if (wordColumns == null) {
+            throw new IllegalStateException("the vocabulary must be read before word indices can be hashed");
+        }
+        SparseDataset.Builder builder = new SparseDataset.Builder(getColumns());
+        int[] indices = dataset.getIndices();
+        int[] counts = dataset.getCounts();
+        int[] rowColumns = new int[16];
+        int[] rowCounts = new int[16];
+        for (int row = 0; row < dataset.getRows(); row++) {
+            int size = dataset.rowEnd(row) - dataset.rowStart(row);
+            if (rowColumns.length < size) {
+                rowColumns = new int[size];
+                rowCounts = new int[size];
+            }
+            int length = 0;
+            for (int n = dataset.rowStart(row); n < dataset.rowEnd(row); n++) {
+                if (indices[n] < wordColumns.length) {
+                    rowColumns[length] = wordColumns[indices[n]];
+                    rowCounts[length] = counts[n];
+                    length++;
+                }
+            }
+            builder.addRow(rowColumns, rowCounts, length, dataset.getLabel(row), dataset.getDocumentId(row));
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method hashes the chunks of a training set that is read a chunk at a time, see transform
+     * @param chunks the chunks with word indices of the vocabulary
+     * @return the chunks with hashed columns, every chunk is hashed when it is read
+     */
+    public Iterable<SparseDataset> transform(Iterable<SparseDataset> chunks) {
+        return () -> {
+            Iterator<SparseDataset> iterator = chunks.iterator();
+            return new Iterator<SparseDataset>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public SparseDataset next() {
+                    return transform(iterator.next());
+                }
+            };
+        };
+    }
+
+    /**
+     * @return the number of columns, 2^bits
+     */
+    public int getColumns() {
+        return mask + 1;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+}
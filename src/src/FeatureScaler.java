@@ -0,0 +1,317 @@
+import java.util.Arrays;
+
+/**
+ * This class scales the columns of a CsrMatrix in place, directly on its value array.
+ * It replaces the TfIdfScaling, NormalizeMatrix and MinMaxNormalize methods that
+ * called get/set on every entry of a linked sparse matrix.
+ * The scaling methods run in the order they are given:
+ *      TFIDF: each value is divided by the sum of its row and multiplied by log((N+1)/(df+1)),
+ *             where N is the number of training documents and df the number of documents the word appears in
+ *      NORMALIZE: each value is divided by the sum of its column, so every column adds up to 1
+ *      MINMAX: each value becomes (value - column min)/(column max - column min), 0 if max = min
+ * Column 0 is the bias and is never scaled.
+ * fitTransform learns the statistics of each method from the training matrix while scaling it.
+ * The statistics a method needs are gathered in the same pass that applies the method before it
+ * (the first method's statistics take one extra pass over the stored values), so every method costs
+ * one sequential pass over the value array. transform then applies exactly the same scaling to the
+ * validation and testing matrices. fit learns the same statistics from a training matrix read in chunks.
+ * The statistics are not gathered while the csv file is parsed: the CsrMatrix is built first and the
+ * first method's statistics are computed in a separate pass over its stored values. That pass walks the
+ * whole value array once in row order and is not split into cache-sized blocks, the column statistics
+ * are small arrays that stay in the cache while it runs.
+ */
+public class FeatureScaler {
+    public enum Method { TFIDF, NORMALIZE, MINMAX }
+
+    private final Method[] methods;
+    //the statistics learned by fitTransform, only the ones used by the methods are set
+    private double[] inverseDocumentFrequency;
+    private double[] columnSums;
+    private double[] columnMin;
+    private double[] columnMax;
+
+    /**
+     * Constructor for the FeatureScaler class
+     * @param methods the scaling methods, in the order they are applied
+     */
+    public FeatureScaler(Method... methods) {
+        this.methods = methods.clone();
+    }
+
+    /**
+     * Constructor for a FeatureScaler that was already fitted, for example one read from a model file
+     * @param methods the scaling methods, in the order they are applied
+     * @param inverseDocumentFrequency the statistics of TFIDF, null if it is not used
+     * @param columnSums the statistics of NORMALIZE, null if it is not used
+     * @param columnMin the column mins of MINMAX, null if it is not used
+     * @param columnMax the column maxes of MINMAX, null if it is not used
+     */
+    public FeatureScaler(Method[] methods, double[] inverseDocumentFrequency, double[] columnSums,
+                         double[] columnMin, double[] columnMax) {
+        this.methods = methods.clone();
+        this.inverseDocumentFrequency = inverseDocumentFrequency;
+        this.columnSums = columnSums;
+        this.columnMin = columnMin;
+        this.columnMax = columnMax;
+    }
+
+    /**
+     * This method learns the statistics of every method from the training matrix and scales it in place
+     * @param matrix the training matrix
+     */
+    public void fitTransform(CsrMatrix matrix) {
+        if (methods.length == 0) {
+            return;
+        }
+        ColumnStatistics statistics = ColumnStatistics.of(matrix);
+        for (int m = 0; m < methods.length; m++) {
+            learn(methods[m], statistics);
+            //gather the statistics of the next method while applying this one
+            boolean last = m == methods.length - 1;
+            statistics = apply(methods[m], matrix, last ? null : new ColumnStatistics(matrix.getRows(), matrix.getColumns()));
+        }
+    }
+
+    /**
+     * This method learns the statistics of every method from a training set that is read in chunks,
+     * for training sets that do not fit in memory. Every method takes one pass over the chunks:
+     * a chunk is scaled with the methods that were already learned and the statistics of the next
+     * method are gathered from it. The statistics are the same as fitTransform's on the whole matrix.
+     * The chunks are not scaled, they can be read again and scaled with transform.
+     * @param chunks the chunks of the training matrix, every iteration reads them from the start
+     */
+    public void fit(Iterable<CsrMatrix> chunks) {
+        for (int m = 0; m < methods.length; m++) {
+            ColumnStatistics statistics = null;
+            for (CsrMatrix chunk : chunks) {
+                for (int done = 0; done < m; done++) {
+                    apply(methods[done], chunk, null);
+                }
+                if (statistics == null) {
+                    statistics = new ColumnStatistics(0, chunk.getColumns());
+                }
+                statistics.addAll(chunk);
+            }
+            if (statistics == null) {
+                throw new IllegalArgumentException("can not fit the scaling of an empty training set");
+            }
+            learn(methods[m], statistics);
+        }
+    }
+
+    /**
+     * This method sets the statistics one method scales with
+     * @param method the method
+     * @param statistics the statistics of the values the method is applied to
+     */
+    private void learn(Method method, ColumnStatistics statistics) {
+        int columns = statistics.sums.length;
+        switch (method) {
+            case TFIDF -> {
+                inverseDocumentFrequency = new double[columns];
+                for (int c = 0; c < columns; c++) {
+                    inverseDocumentFrequency[c] = Math.log((statistics.rows + 1.0) / (statistics.documents[c] + 1.0));
+                }
+            }
+            case NORMALIZE -> columnSums = statistics.sums;
+            case MINMAX -> {
+                columnMin = new double[columns];
+                columnMax = new double[columns];
+                for (int c = 0; c < columns; c++) {
+                    columnMin[c] = statistics.min(c);
+                    columnMax[c] = statistics.max(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method scales a matrix in place with the statistics learned by fitTransform
+     * @param matrix the matrix to scale, with the same columns as the training matrix
+     */
+    public void transform(CsrMatrix matrix) {
+        for (Method method : methods) {
+            apply(method, matrix, null);
+        }
+    }
+
+    /**
+     * This method scales the stored values of one document in place with the statistics learned by fitTransform,
+     * it is used to score documents one at a time without building a matrix
+     * @param columnIndices the columns of the values, column 0 is the bias
+     * @param values the values to scale
+     * @param start the position of the document's first value
+     * @param end the position after the document's last value
+     */
+    public void transformRow(int[] columnIndices, double[] values, int start, int end) {
+        for (Method method : methods) {
+            applyRow(method, columnIndices, values, start, end, null);
+        }
+    }
+
+    /**
+     * This method applies one scaling method to every stored value of a matrix
+     * @param method the method
+     * @param matrix the matrix
+     * @param statistics the statistics of the scaled values are added to this, can be null
+     * @return statistics
+     */
+    private ColumnStatistics apply(Method method, CsrMatrix matrix, ColumnStatistics statistics) {
+        int[] rowPointers = matrix.getRowPointers();
+        for (int r = 0; r < matrix.getRows(); r++) {
+            applyRow(method, matrix.getColumnIndices(), matrix.getValues(), rowPointers[r], rowPointers[r + 1],
+                    statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * This method applies one scaling method to the stored values of one row
+     * @param method the method
+     * @param columnIndices the columns of the values
+     * @param values the values
+     * @param start the position of the row's first value
+     * @param end the position after the row's last value
+     * @param statistics the statistics of the scaled values are added to this, can be null
+     */
+    private void applyRow(Method method, int[] columnIndices, double[] values, int start, int end,
+                          ColumnStatistics statistics) {
+        int columns = statisticsColumns(method);
+        double rowSum = 0;
+        if (method == Method.TFIDF) {
+            for (int k = start; k < end; k++) {
+                if (columnIndices[k] != 0) {
+                    rowSum += values[k];
+                }
+            }
+        }
+        for (int k = start; k < end; k++) {
+            int c = columnIndices[k];
+            if (c == 0) {
+                continue;
+            }
+            double value = values[k];
+            if (c >= columns) {
+                //a word that never appeared in the training set has no statistics
+                value = 0;
+            }
+            else if (method == Method.TFIDF) {
+                value = rowSum == 0 ? 0 : value / rowSum * inverseDocumentFrequency[c];
+            }
+            else if (method == Method.NORMALIZE) {
+                value = columnSums[c] == 0 ? 0 : value / columnSums[c];
+            }
+            else {
+                double range = columnMax[c] - columnMin[c];
+                value = range == 0 ? 0 : (value - columnMin[c]) / range;
+            }
+            values[k] = value;
+            if (statistics != null) {
+                statistics.add(c, value);
+            }
+        }
+    }
+
+    /**
+     * @return the number of columns the statistics of a method were learned for
+     */
+    private int statisticsColumns(Method method) {
+        return switch (method) {
+            case TFIDF -> inverseDocumentFrequency.length;
+            case NORMALIZE -> columnSums.length;
+            case MINMAX -> columnMin.length;
+        };
+    }
+
+    public Method[] getMethods() {
+        return methods.clone();
+    }
+
+    public double[] getInverseDocumentFrequency() {
+        return inverseDocumentFrequency;
+    }
+
+    public double[] getColumnSums() {
+        return columnSums;
+    }
+
+    public double[] getColumnMin() {
+        return columnMin;
+    }
+
+    public double[] getColumnMax() {
+        return columnMax;
+    }
+
+    /**
+     * The column statistics of the stored values of a matrix
+     */
+    private static final class ColumnStatistics {
+        private int rows;
+        private final double[] sums;
+        private final int[] documents;
+        private final double[] smallest;
+        private final double[] largest;
+
+        private ColumnStatistics(int rows, int columns) {
+            this.rows = rows;
+            this.sums = new double[columns];
+            this.documents = new int[columns];
+            this.smallest = new double[columns];
+            this.largest = new double[columns];
+            Arrays.fill(smallest, Double.POSITIVE_INFINITY);
+            Arrays.fill(largest, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * This method gathers the statistics of a matrix in one pass over its stored values
+         */
+        private static ColumnStatistics of(CsrMatrix matrix) {
+            ColumnStatistics statistics = new ColumnStatistics(0, matrix.getColumns());
+            statistics.addAll(matrix);
+            return statistics;
+        }
+
+        /**
+         * This method adds the rows and stored values of a matrix to the statistics
+         */
+        private void addAll(CsrMatrix matrix) {
+            rows += matrix.getRows();
+            int[] columnIndices = matrix.getColumnIndices();
+            double[] values = matrix.getValues();
+            for (int k = 0; k < matrix.getNonZeros(); k++) {
+                add(columnIndices[k], values[k]);
+            }
+        }
+
+        private void add(int column, double value) {
+            if (value == 0) {
+                return;
+            }
+            sums[column] += value;
+            documents[column]++;
+            smallest[column] = Math.min(smallest[column], value);
+            largest[column] = Math.max(largest[column], value);
+        }
+
+        /**
+         * @return the min of a column, which is 0 if the column is missing from at least one row
+         */
+        private double min(int column) {
+            if (documents[column] == 0) {
+                return 0;
+            }
+            return documents[column] < rows ? Math.min(0, smallest[column]) : smallest[column];
+        }
+
+        /**
+         * @return the max of a column, which is at least 0 if the column is missing from at least one row
+         */
+        private double max(int column) {
+            if (documents[column] == 0) {
+                return 0;
+            }
+            return documents[column] < rows ? Math.max(0, largest[column]) : largest[column];
+        }
+    }
+}
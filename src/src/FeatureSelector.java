@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class picks the words a model is trained on before it is trained, so the NB tables and the LR
+ * weights only have a column for the words that carry signal and every gradient step and prediction
+ * only visits those columns. The methods are:
+ *      MI: the k words with the highest mutual information with the class (see MutualInformation)
+ *      CHI2: the k words with the highest chi-square statistic, averaged over the classes with weights P(Y)
+ *      DF: every word that occurs in at least k training documents, it does not use the labels
+ * fit learns the words from the training documents, the selected words keep their order and become the
+ * columns 0 to getColumns()-1 of the model. Words that were not selected, or that are past the training
+ * vocabulary, have no column and are skipped when a document is counted or scored, so documents are
+ * always given to a model with the indices of the vocabulary file.
+ * A selector is written as "method:k", for example "mi:5000", "chi2:5000" or "df:3", and "none" is no selection.
+ */
+public class FeatureSelector {
+    public enum Method { MI, CHI2, DF }
+
+    private final Method method;
+    private final int value;
+    //learned by fit, the word of every column and the column of every word (-1 if it was not selected)
+    private int[] selectedWords;
+    private int[] columnMap;
+
+    /**
+     * Constructor for the FeatureSelector class
+     * @param method the method
+     * @param value the number of words to keep for MI and CHI2, the least documents a word occurs in for DF
+     * @throws IllegalArgumentException if value is not positive
+     */
+    public FeatureSelector(Method method, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("the value of " + method + " feature selection must be positive, got "
+                    + value);
+        }
+        this.method = method;
+        this.value = value;
+    }
+
+    /**
+     * Constructor for a FeatureSelector that was already fitted, for example one read from a model file
+     * @param selectedWords the word of every column, in increasing order
+     * @param words the number of words of the vocabulary the words were selected from
+     */
+    public FeatureSelector(int[] selectedWords, int words) {
+        this.method = null;
+        this.value = selectedWords.length;
+        setSelectedWords(selectedWords, words);
+    }
+
+    /**
+     * This method reads a selector from its setting
+     * @param spec "none", or the method and its value as "mi:k", "chi2:k" or "df:k"
+     * @return the selector, null for "none"
+     * @throws IllegalArgumentException if the setting is malformed
+     */
+    public static FeatureSelector parse(String spec) {
+        if (spec == null || spec.equals("none")) {
+            return null;
+        }
+        int colon = spec.indexOf(':');
+        String usage = "feature selection must be none, mi:k, chi2:k or df:k, got " + spec;
+        if (colon < 0) {
+            throw new IllegalArgumentException(usage);
+        }
+        Method method = switch (spec.substring(0, colon)) {
+            case "mi" -> Method.MI;
+            case "chi2" -> Method.CHI2;
+            case "df" -> Method.DF;
+            default -> throw new IllegalArgumentException(usage);
+        };
+        try {
+            return new FeatureSelector(method, Integer.parseInt(spec.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(usage);
+        }
+    }
+
+    /**
+     * This method learns the words to keep from some documents of a dataset
+     * @param dataset the labeled documents
+     * @param from the first training row
+     * @param to the row after the last training row
+     * @param threads the number of threads scoring the words with MI, 0 means one per core
+     */
+    public void fit(SparseDataset dataset, int from, int to, int threads) {
+        DocumentCounts counts = new DocumentCounts(dataset.getColumns(), dataset.getNumClasses());
+        for (int row = from; row < to; row++) {
+            counts.add(dataset, row);
+        }
+        fit(counts, threads);
+    }
+
+    /**
+     * This method learns the words to keep from some documents of a dataset
+     * @param dataset the labeled documents
+     * @param rows the training rows
+     * @param threads the number of threads scoring the words with MI, 0 means one per core
+     */
+    public void fit(SparseDataset dataset, int[] rows, int threads) {
+        DocumentCounts counts = new DocumentCounts(dataset.getColumns(), dataset.getNumClasses());
+        for (int row : rows) {
+            counts.add(dataset, row);
+        }
+        fit(counts, threads);
+    }
+
+    /**
+     * This method learns the words to keep from a training set that is read a chunk at a time
+     * @param training the reader of the training documents
+     * @param threads the number of threads scoring the words with MI, 0 means one per core
+     */
+    public void fit(SparseChunkReader training, int threads) {
+        try {
+            fit(training.chunks(), training.getColumns(), training.getNumClasses(), threads);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * This method learns the words to keep from a training set that is read a chunk at a time,
+     * for chunks that are changed while they are read (for example hashed, see FeatureHasher)
+     * @param chunks the chunks of the training documents
+     * @param words the number of columns of the chunks
+     * @param classes the number of classes
+     * @param threads the number of threads scoring the words with MI, 0 means one per core
+     */
+    public void fit(Iterable<SparseDataset> chunks, int words, int classes, int threads) {
+        DocumentCounts counts = new DocumentCounts(words, classes);
+        for (SparseDataset chunk : chunks) {
+            for (int row = 0; row < chunk.getRows(); row++) {
+                counts.add(chunk, row);
+            }
+        }
+        fit(counts, threads);
+    }
+
+    /**
+     * This method ranks the words with the method and keeps the best ones
+     */
+    private void fit(DocumentCounts counts, int threads) {
+        int words = counts.words;
+        int[] selected;
+        if (method == Method.DF) {
+            int kept = 0;
+            selected = new int[words];
+            for (int i = 0; i < words; i++) {
+                int documents = 0;
+                for (int j = 0; j < counts.classes; j++) {
+                    documents += counts.documentCounts[i * counts.classes + j];
+                }
+                if (documents >= value) {
+                    selected[kept++] = i;
+                }
+            }
+            selected = Arrays.copyOf(selected, kept);
+        }
+        else {
+            double[] scores = method == Method.MI
+                    ? MutualInformation.scores(counts.classTotals, counts.documentCounts, 1.0 / words, threads)
+                    : chiSquare(counts.classTotals, counts.documentCounts);
+            selected = MutualInformation.top(scores, value);
+            //the columns keep the order of the vocabulary
+            Arrays.sort(selected);
+        }
+        if (selected.length == 0) {
+            throw new IllegalArgumentException(this + " feature selection kept no words");
+        }
+        setSelectedWords(selected, words);
+    }
+
+    /**
+     * This method calculates the chi-square statistic of every word, for class j it is
+     * N(AD-BC)^2/((A+B)(C+D)(A+C)(B+D)) where A and B are the documents of class j and of the other classes
+     * the word occurs in and C and D the documents of class j and of the other classes it does not occur in.
+     * The statistic of a word is the average over the classes weighted by P(Y).
+     * @param classTotals the number of documents of every class
+     * @param documentCounts the number of documents of class j word i occurs in, at [i * classes + j]
+     * @return the statistic of every word
+     */
+    public static double[] chiSquare(int[] classTotals, int[] documentCounts) {
+        int classes = classTotals.length;
+        int words = documentCounts.length / classes;
+        double documents = 0;
+        for (int total : classTotals) {
+            documents += total;
+        }
+        double[] scores = new double[words];
+        for (int i = 0; i < words; i++) {
+            int offset = i * classes;
+            double occurs = 0;
+            for (int j = 0; j < classes; j++) {
+                occurs += documentCounts[offset + j];
+            }
+            double score = 0;
+            for (int j = 0; j < classes; j++) {
+                double a = documentCounts[offset + j];
+                double b = occurs - a;
+                double c = classTotals[j] - a;
+                double d = documents - occurs - c;
+                double denominator = (a + b) * (c + d) * (a + c) * (b + d);
+                if (denominator > 0) {
+                    double difference = a * d - b * c;
+                    score += classTotals[j] / documents * (documents * difference * difference / denominator);
+                }
+            }
+            scores[i] = score;
+        }
+        return scores;
+    }
+
+    private void setSelectedWords(int[] selected, int words) {
+        selectedWords = selected;
+        columnMap = new int[words];
+        Arrays.fill(columnMap, -1);
+        for (int c = 0; c < selected.length; c++) {
+            columnMap[selected[c]] = c;
+        }
+    }
+
+    /**
+     * @param word the index of a word (0 based)
+     * @return the column of the word, -1 if it was not selected
+     */
+    public int column(int word) {
+        return word < columnMap.length ? columnMap[word] : -1;
+    }
+
+    /**
+     * @return true if the method ranks the words with the labels of the documents
+     */
+    public boolean usesLabels() {
+        return method == Method.MI || method == Method.CHI2;
+    }
+
+    /**
+     * @return the column of every word (-1 if it was not selected), null before fit
+     */
+    public int[] getColumnMap() {
+        return columnMap;
+    }
+
+    /**
+     * @return the word of every column, null before fit
+     */
+    public int[] getSelectedWords() {
+        return selectedWords;
+    }
+
+    /**
+     * @return the number of selected words, the columns of a model
+     */
+    public int getColumns() {
+        return selectedWords.length;
+    }
+
+    /**
+     * @return the number of words of the vocabulary the words were selected from
+     */
+    public int getWords() {
+        return columnMap.length;
+    }
+
+    @Override
+    public String toString() {
+        return method == null ? "fitted" : method.name().toLowerCase(Locale.ROOT) + ":" + value;
+    }
+
+    /**
+     * The number of documents of every class and of every class a word occurs in
+     */
+    private static final class DocumentCounts {
+        private final int words;
+        private final int classes;
+        private final int[] classTotals;
+        private final int[] documentCounts;
+
+        private DocumentCounts(int words, int classes) {
+            this.words = words;
+            this.classes = classes;
+            this.classTotals = new int[classes];
+            this.documentCounts = new int[words * classes];
+        }
+
+        private void add(SparseDataset dataset, int row) {
+            int classification = dataset.getLabel(row) - 1;
+            classTotals[classification]++;
+            int[] indices = dataset.getIndices();
+            for (int n = dataset.rowStart(row); n < dataset.rowEnd(row); n++) {
+                documentCounts[indices[n] * classes + classification]++;
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * This class holds the weights a Logistic Regression model predicts with, at [feature * classes + class]
+ * (feature 0 is the bias), in one of three precisions:
+ *      DOUBLE: the trained weights, 8 bytes a weight
+ *      FLOAT: rounded to float32, 4 bytes a weight
+ *      INT8: quantized to a byte with one scale per class, 1 byte a weight
+ * A quantized weight is q_ij = round(w_ij / s_j) where s_j = max_i |w_ij| / 127 is the scale of class j, so
+ * every class keeps its own range. The logit of class j is s_j * Sigma_i x_i * q_ij, the bytes are added up
+ * in float and multiplied by the scale once per class.
+ * The weights are read through a buffer of their precision, so they can stay in the memory map of a model file
+ * (see ModelFile), and every precision has its own loop, so the precision is only checked once per document.
+ * Smaller weights mean more of a model stays in the cache while documents are scored and more models fit in
+ * memory side by side. The accuracy they lose is checked against the double weights before a
+ * model is saved (see LogisticRegression.checkPrecision).
+ */
+public final class InferenceWeights {
+    public enum Precision { DOUBLE, FLOAT, INT8 }
+
+    private final Precision precision;
+    private final int classes;
+    private final int columns;
+    //only the buffer of the precision is set
+    private final DoubleBuffer doubles;
+    private final FloatBuffer floats;
+    private final ByteBuffer bytes;
+    //the scale of every class of INT8 weights
+    private final double[] scales;
+
+    private InferenceWeights(Precision precision, int classes, int columns, DoubleBuffer doubles,
+                             FloatBuffer floats, ByteBuffer bytes, double[] scales) {
+        this.precision = precision;
+        this.classes = classes;
+        this.columns = columns;
+        this.doubles = doubles;
+        this.floats = floats;
+        this.bytes = bytes;
+        this.scales = scales;
+    }
+
+    /**
+     * @param weights the double weights at [feature * classes + class]
+     * @param classes the number of classes
+     * @param columns the number of features, including the bias
+     * @return the weights
+     */
+    public static InferenceWeights ofDoubles(DoubleBuffer weights, int classes, int columns) {
+        return new InferenceWeights(Precision.DOUBLE, classes, columns, weights, null, null, null);
+    }
+
+    /**
+     * @param weights the float32 weights at [feature * classes + class]
+     * @param classes the number of classes
+     * @param columns the number of features, including the bias
+     * @return the weights
+     */
+    public static InferenceWeights ofFloats(FloatBuffer weights, int classes, int columns) {
+        return new InferenceWeights(Precision.FLOAT, classes, columns, null, weights, null, null);
+    }
+
+    /**
+     * @param weights the quantized weights at [feature * classes + class]
+     * @param scales the scale of every class
+     * @param classes the number of classes
+     * @param columns the number of features, including the bias
+     * @return the weights
+     */
+    public static InferenceWeights ofBytes(ByteBuffer weights, double[] scales, int classes, int columns) {
+        return new InferenceWeights(Precision.INT8, classes, columns, null, null, weights, scales);
+    }
+
+    /**
+     * This method converts double weights to another precision
+     * @param weights the weights at [feature * classes + class]
+     * @param classes the number of classes
+     * @param columns the number of features, including the bias
+     * @param precision the precision of the new weights
+     * @return the weights in the precision, the same weights for DOUBLE
+     */
+    public static InferenceWeights convert(double[] weights, int classes, int columns, Precision precision) {
+        int size = classes * columns;
+        switch (precision) {
+            case FLOAT -> {
+                float[] values = new float[size];
+                for (int k = 0; k < size; k++) {
+                    values[k] = (float) weights[k];
+                }
+                return ofFloats(FloatBuffer.wrap(values), classes, columns);
+            }
+            case INT8 -> {
+                double[] scales = new double[classes];
+                for (int k = 0; k < size; k++) {
+                    scales[k % classes] = Math.max(scales[k % classes], Math.abs(weights[k]));
+                }
+                for (int j = 0; j < classes; j++) {
+                    //a class whose weights are all 0 keeps a scale of 1 so nothing is divided by 0
+                    scales[j] = scales[j] == 0 ? 1 : scales[j] / 127;
+                }
+                byte[] values = new byte[size];
+                for (int k = 0; k < size; k++) {
+                    long quantized = Math.round(weights[k] / scales[k % classes]);
+                    values[k] = (byte) Math.max(-127, Math.min(127, quantized));
+                }
+                return ofBytes(ByteBuffer.wrap(values), scales, classes, columns);
+            }
+            default -> {
+                return ofDoubles(DoubleBuffer.wrap(weights), classes, columns);
+            }
+        }
+    }
+
+    /**
+     * This method reads a precision from its setting
+     * @param name double, float or int8
+     * @return the precision
+     * @throws IllegalArgumentException if the name is not a precision
+     */
+    public static Precision parse(String name) {
+        return switch (name) {
+            case "double" -> Precision.DOUBLE;
+            case "float" -> Precision.FLOAT;
+            case "int8" -> Precision.INT8;
+            default -> throw new IllegalArgumentException("weights must be double, float or int8, got " + name);
+        };
+    }
+
+    /**
+     * This method calculates the logits of a scaled document, words outside of the weights are skipped
+     * @param columnIndices the features of the document, feature 0 is the bias
+     * @param values the scaled values of the features
+     * @param length the number of features
+     * @param scores the array the logit of every class (0 based) is written to
+     */
+    public void logits(int[] columnIndices, double[] values, int length, double[] scores) {
+        switch (precision) {
+            case DOUBLE -> doubleLogits(columnIndices, values, length, scores);
+            case FLOAT -> floatLogits(columnIndices, values, length, scores);
+            case INT8 -> byteLogits(columnIndices, values, length, scores);
+        }
+    }
+
+    private void doubleLogits(int[] columnIndices, double[] values, int length, double[] scores) {
+        Arrays.fill(scores, 0, classes, 0);
+        for (int k = 0; k < length; k++) {
+            if (columnIndices[k] >= columns || values[k] == 0) {
+                continue;
+            }
+            int offset = columnIndices[k] * classes;
+            double value = values[k];
+            for (int j = 0; j < classes; j++) {
+                scores[j] += value * doubles.get(offset + j);
+            }
+        }
+    }
+
+    private void floatLogits(int[] columnIndices, double[] values, int length, double[] scores) {
+        Arrays.fill(scores, 0, classes, 0);
+        for (int k = 0; k < length; k++) {
+            if (columnIndices[k] >= columns || values[k] == 0) {
+                continue;
+            }
+            int offset = columnIndices[k] * classes;
+            double value = values[k];
+            for (int j = 0; j < classes; j++) {
+                scores[j] += value * floats.get(offset + j);
+            }
+        }
+    }
+
+    private void byteLogits(int[] columnIndices, double[] values, int length, double[] scores) {
+        //the bytes are added up in float, the scale of every class is only applied at the end
+        float[] sums = new float[classes];
+        for (int k = 0; k < length; k++) {
+            if (columnIndices[k] >= columns || values[k] == 0) {
+                continue;
+            }
+            int offset = columnIndices[k] * classes;
+            float value = (float) values[k];
+            for (int j = 0; j < classes; j++) {
+                sums[j] += value * bytes.get(offset + j);
+            }
+        }
+        for (int j = 0; j < classes; j++) {
+            scores[j] = sums[j] * scales[j];
+        }
+    }
+
+    /**
+     * @return the bytes the weights take, without the scales
+     */
+    public long getWeightBytes() {
+        long size = (long) classes * columns;
+        return switch (precision) {
+            case DOUBLE -> size * Double.BYTES;
+            case FLOAT -> size * Float.BYTES;
+            case INT8 -> size;
+        };
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    DoubleBuffer getDoubles() {
+        return doubles;
+    }
+
+    FloatBuffer getFloats() {
+        return floats;
+    }
+
+    ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    double[] getScales() {
+        return scales;
+    }
+}
@@ -1,28 +1,28 @@
 import no.uib.cipr.matrix.DenseMatrix;
-import no.uib.cipr.matrix.MatrixEntry;
-import no.uib.cipr.matrix.sparse.LinkedSparseMatrix;
-import org.ojalgo.array.Array2D;
-import org.ojalgo.data.DataProcessors;
 
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Consumer;
-
-import static no.uib.cipr.matrix.Matrices.getArray;
-import static org.ojalgo.function.constant.PrimitiveMath.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class trains a Logistic Regression model for the
  * 20newsgroups data set. It uses matrix linear algebra operations
- * from libraries ojAlgo (https://search.maven.org/artifact/org.ojalgo/ojalgo/52.0.1/jar?eh=)
- * and matrix-toolkits-java (https://search.maven.org/artifact/com.googlecode.matrix-toolkits-java/mtj/1.0.4/jar?eh=)
+ * from matrix-toolkits-java (https://search.maven.org/artifact/com.googlecode.matrix-toolkits-java/mtj/1.0.4/jar?eh=)
+ * and the sparse matrix kernels of CsrMatrix.
  * Every iteration, the iteration number, the training data accuracy, testing data accuracy
  * and conditional data likelihood are printed in the console.
- * This class uses matrices instead of standard Java structures because they are more efficient
- * and this code can perform ~2-3 iterations of gradient descent per second or ~9000 iterations per hour.
+ * This class uses matrices instead of standard Java structures because they are more efficient.
+ * With a feature selection (see FeatureSelector) the matrices and weights only have columns for
+ * the selected words, documents are still given with the word indices of the vocabulary.
+ * With feature hashing (see FeatureHasher) the words are hashed into a fixed number of columns when the
+ * files are read, so the weights have 2^bits+1 columns and documents are given with the hashed columns.
+ * The matrices used by gradient descent are allocated once, so the heap stays the same size
+ * no matter how many iterations are run.
  */
-public class LogisticRegression {
+public class LogisticRegression implements Classifier {
     //set the file names
     private String vocabularyFile = "vocabulary.txt";
     private String trainingFile = "training.csv";
@@ -30,26 +30,47 @@ public class LogisticRegression {
     private String testingFile = "testing.csv";
     /*
     create the matrices necessary
-    the training and validation matrices are using matrix-toolkits-java's sparse
-    matrix implementation to improve efficiency. The rest of the matrices are
+    the training and validation matrices are stored as CsrMatrix (compressed sparse rows)
+    which is scaled in place and is what training multiplies with. The training matrix is also kept transposed
+    (compressed sparse columns) for the gradient. The rest of the matrices are
     dense since there are not many 0 values in them. Using sparse matrices
     also improved memory usage and algorithm speed by a lot.
      */
-    private LinkedSparseMatrix xMatrix = new LinkedSparseMatrix(10000,61189);
-    private DenseMatrix classificationsMatrix = new DenseMatrix(12000,1);
-    private DenseMatrix weightsMatrix = new DenseMatrix(20,61189);
-    private DenseMatrix probabilities = new DenseMatrix(20,10000);
-    private DenseMatrix deltaMatrix = new DenseMatrix(20,10000);
-    private DenseMatrix lineVector = new DenseMatrix(1,61189);
-    private DenseMatrix columnMax = new DenseMatrix(61189, 1);
-    private DenseMatrix columnMin = new DenseMatrix(61189, 1);
-    private DenseMatrix columnMeans;
-    private DenseMatrix columnSD;
-    private LinkedSparseMatrix testMatrix = new LinkedSparseMatrix(2000,61189);
+    private CsrMatrix xRows;
+    private CsrMatrix xColumns;
+    private CsrMatrix testRows;
+    //the training file, the first documents are the training set and the rest the validation set
+    private SparseDataset trainingSet;
+    //the share of the training file's documents kept for validation
+    private double validation = RunConfig.DEFAULT_VALIDATION;
+    //the number of classes, read from the training set
+    private int numClasses;
+    //the class (0 based) of every training and validation document
+    private int[] trainingLabels;
+    private int[] validationLabels;
+    //the predicted class (0 based) of every training and validation document
+    private int[] trainingPredictions;
+    private int[] validationPredictions;
+    //one row per class and one column per word plus the bias, sized when the training matrix is built
+    private DenseMatrix weightsMatrix;
+    //the double weights of weightsMatrix that single documents are scored with (see classScores)
+    private InferenceWeights inferenceWeights;
+    //work matrices for training, allocated once and reused every iteration
+    private DenseMatrix probabilities;
+    private DenseMatrix validationProbabilities;
+    private DenseMatrix gradient;
+    //scales the training matrix and then the validation and testing matrices with the training statistics
+    private FeatureScaler scaler = new FeatureScaler(FeatureScaler.Method.TFIDF, FeatureScaler.Method.NORMALIZE);
+    //picks the words the model is trained on before the matrices are built, null to use every word
+    private FeatureSelector selector;
+    //hashes the words into a fixed number of columns when the files are read, null to use the vocabulary
+    private FeatureHasher hasher;
     //confusion matrix array
-    private int[][] confusionMatrix = new int [20][20];
+    private int[][] confusionMatrix;
     //boolean to control when the confusion matrix is calculated and printed (at the end of training)
     private boolean getConfusionMatrix = false;
+    //turns logits into probabilities, predictions and the likelihood in one pass (SIMD when available)
+    private static final SoftmaxKernel SOFTMAX = SoftmaxKernel.create();
     //the learning rate
     private float eta;
     //the penalty term
@@ -57,6 +78,43 @@ public class LogisticRegression {
     //the number of iterations
     private int iterations = 1000;
     private double testAccuracy = 0;
+    //the number of threads used to train, 1 trains on the calling thread, 0 means one per core
+    private int threads = 1;
+    //the pool, block count and per block results used while training
+    private ForkJoinPool pool;
+    private int blocks = 1;
+    private double[][] blockGradients;
+    private double[] blockLikelihood = new double[1];
+    private int[] blockCorrect = new int[1];
+    //the columns a mini-batch has values in, columnMarks[c] is touchedMark once column c is listed
+    private int[] touchedColumns;
+    private int[] columnMarks;
+    private int touchedMark;
+    //the optimizer ("sgd", "momentum" or "adam") and the mini-batch size, 0 uses the whole training set
+    private String optimizerName = "sgd";
+    private int batchSize = 0;
+    //seed of the mini-batch shuffle so runs can be repeated
+    private long seed = 1;
+    private Optimizer optimizer;
+    //the order the training documents are visited in
+    private int[] trainingRows;
+    //the rows of the training matrix to train on, null trains on every row (see the cross validation constructor)
+    private int[] selectedRows;
+    //out-of-core training reads the training and validation sets a chunk at a time from these, null trains in memory
+    private SparseChunkReader trainingChunks;
+    private SparseChunkReader validationChunks;
+    //stops training early and keeps the best weights, null trains for all iterations
+    private EarlyStopping earlyStopping;
+    //the precision the weights are saved in (see InferenceWeights)
+    private InferenceWeights.Precision weightPrecision = InferenceWeights.Precision.DOUBLE;
+    //the most validation accuracy the saved weights may lose against the double weights, 10 of 2000 documents
+    public static final double MAX_ACCURACY_LOSS = 0.005;
+    private double[] bestWeights;
+    //the log conditional data likelihood and validation accuracy of the last iteration
+    private double logLikelihood = 0;
+    private double validationAccuracy = 0;
+    //false stops the lines printed every iteration, for example when many models train at once
+    private boolean verbose = true;
 
 
     /**
@@ -65,6 +123,49 @@ public class LogisticRegression {
      * @param eta the learning rate to use
      */
     public LogisticRegression(float lambda, float eta, int iterations){
+        this(lambda, eta, iterations, 1);
+    }
+
+    /**
+     * Constructor for LogisticRegression
+     * @param lambda the penalty value to use
+     * @param eta the learning rate to use
+     * @param iterations the number of iterations
+     * @param threads the number of threads used to train, 1 trains on the calling thread, 0 means one per core
+     */
+    public LogisticRegression(float lambda, float eta, int iterations, int threads){
+        this(lambda, eta, iterations, threads, "sgd", 0);
+    }
+
+    /**
+     * Constructor for LogisticRegression
+     * @param lambda the penalty value to use
+     * @param eta the learning rate of the optimizer
+     * @param iterations the number of iterations, with mini-batches every iteration is one pass over the training set
+     * @param threads the number of threads used to train, 1 trains on the calling thread, 0 means one per core
+     * @param optimizer the optimizer to use: "sgd", "momentum" or "adam"
+     * @param batchSize the number of documents per step, 0 uses the whole training set every step
+     */
+    public LogisticRegression(float lambda, float eta, int iterations, int threads, String optimizer, int batchSize){
+        this(lambda, eta, iterations, threads, optimizer, batchSize, null);
+    }
+
+    /**
+     * Constructor for LogisticRegression
+     * @param lambda the penalty value to use
+     * @param eta the learning rate of the optimizer
+     * @param iterations the number of iterations, with mini-batches every iteration is one pass over the training set
+     * @param threads the number of threads used to train, 1 trains on the calling thread, 0 means one per core
+     * @param optimizer the optimizer to use: "sgd", "momentum" or "adam"
+     * @param batchSize the number of documents per step, 0 uses the whole training set every step
+     * @param earlyStopping the criteria to stop training early, null to always run every iteration
+     */
+    public LogisticRegression(float lambda, float eta, int iterations, int threads, String optimizer, int batchSize,
+                              EarlyStopping earlyStopping){
+        this.earlyStopping = earlyStopping;
+        this.optimizerName = optimizer;
+        this.batchSize = batchSize;
+        this.threads = threads;
         this.eta = eta;
         this.lambda = lambda;
         this.iterations = iterations;
@@ -77,471 +178,988 @@ public class LogisticRegression {
         predict();
     }
 
+    /**
+     * Constructor for LogisticRegression that takes its settings (hyperparameters, threads and file names)
+     * from a RunConfig. Nothing is read or trained until createDataSet and train are called.
+     * @param config the settings
+     */
+    public LogisticRegression(RunConfig config){
+        this.earlyStopping = config.getEarlyStopping();
+        this.optimizerName = config.getOptimizer();
+        this.batchSize = config.getBatchSize();
+        this.seed = config.getSeed();
+        this.threads = config.getThreads();
+        this.eta = config.getEta();
+        this.lambda = config.getLambda();
+        this.iterations = config.getIterations();
+        this.vocabularyFile = config.getVocabularyFile();
+        this.trainingFile = config.getTrainingFile();
+        this.classificationFile = config.getClassificationFile();
+        this.testingFile = config.getTestingFile();
+        this.validation = config.getValidation();
+        this.weightPrecision = config.getWeightPrecision();
+        this.selector = config.getFeatureSelector();
+        this.hasher = config.getFeatureHasher();
+    }
+
+    /**
+     * Constructor for LogisticRegression that shares the scaled training and validation matrices of a model
+     * whose data set was already created (see createDataSet) and has its own weights and work matrices.
+     * The shared matrices are only read while training, so models built this way can be trained on
+     * several threads at once. Nothing is trained until train is called.
+     * @param data the model whose matrices are shared
+     * @param config the hyperparameters, the file names of config are not used
+     */
+    public LogisticRegression(LogisticRegression data, RunConfig config){
+        this(config);
+        trainingSet = data.trainingSet;
+        xRows = data.xRows;
+        xColumns = data.xColumns;
+        testRows = data.testRows;
+        numClasses = data.numClasses;
+        trainingLabels = data.trainingLabels;
+        validationLabels = data.validationLabels;
+        scaler = data.scaler;
+        selector = data.selector;
+        hasher = data.hasher;
+        trainingPredictions = new int[xRows.getRows()];
+        probabilities = new DenseMatrix(numClasses, xRows.getRows());
+        if (testRows != null) {
+            validationPredictions = new int[testRows.getRows()];
+            validationProbabilities = new DenseMatrix(numClasses, testRows.getRows());
+        }
+        initializeWeights(xRows.getColumns());
+    }
+
+    /**
+     * Constructor for LogisticRegression that trains on some rows of the training matrix of a model
+     * and is validated on some other rows, used for cross validation. The data set of the model must
+     * have been created from every document (see createDataSet(SparseDataset)). The training matrix is
+     * shared and only read, the validation rows are copied into their own matrix.
+     * @param data the model whose matrices are shared
+     * @param config the hyperparameters, the file names of config are not used
+     * @param trainingRows the rows of the training matrix to train on
+     * @param validationRows the rows of the training matrix to validate on
+     */
+    public LogisticRegression(LogisticRegression data, RunConfig config, int[] trainingRows, int[] validationRows){
+        this(data, config);
+        selectedRows = trainingRows.clone();
+        testRows = xRows.selectRows(validationRows);
+        validationLabels = new int[validationRows.length];
+        for (int v = 0; v < validationRows.length; v++) {
+            validationLabels[v] = trainingLabels[validationRows[v]];
+        }
+        validationPredictions = new int[validationRows.length];
+        validationProbabilities = new DenseMatrix(numClasses, validationRows.length);
+    }
+
     /**
      * This method reads in the dataset files.
-     * The training file is split to 10000 examples for the training set
-     * and 2000 examples for the validation set.
+     * The training file is split into the training set and the validation set, the last documents
+     * (by default 2000 of the 12000 documents of 20newsgroups, see RunConfig.validationStart).
+     * The number of classes and the number of words come from the training file.
      * These are not randomized as it seemed like the examples are already
      * pretty randomized in the file, and I wanted to get consistent training results
      * for testing and debugging.
-     * This method also calls the training matrix scaling methods.
+     * This method also scales the training matrix and scales the validation matrix
+     * with the statistics of the training matrix (see FeatureScaler).
      * @throws FileNotFoundException
      */
     public void createDataSet() throws FileNotFoundException {
-        Random r = new Random();
-        //initialize random weights between 0-0.1
-        for(int i =0; i <20;i++) {
-            for(int j = 0; j<61189;j++) {
-                weightsMatrix.set(i,j,((0.1*r.nextFloat())));
-            }
-        }
         System.out.println("Reading training set...");
-        Scanner sc = null;
-        sc = new Scanner(new File(trainingFile));
-        //read every line in training set and build the data needed
-        for(int l = 0; l<10000;l++) {
-            String[] line = sc.nextLine().split(",");
-            //get the classification
-            float classification = Float.parseFloat(line[line.length-1]);
-            //get the document ID
-            int documentID = Integer.parseInt(line[0]);
-            //print out the document number to see where the code is at
-            if(documentID%100 == 0) {
-                System.out.println("Reading DocumentID: " + documentID);
-            }
-            //set the delta matrix per Mitchell book function
-            for (int j = 1; j<21; j++) {
-                //set the delta matrix
-                if (classification == j) {
-                    deltaMatrix.set(j-1,documentID-1,1f);
-                }
-                else {
-                    deltaMatrix.set(j-1,documentID-1,0.0f);
-                }
-            }
-            //add the document's classification to the classifications matrix
-            classificationsMatrix.set(documentID-1,0,classification);
-            //set x0 to 1 for the bias
-            xMatrix.set(documentID-1,0,1f);
-            //get column mins and column maxes for MinMaxNormalization
-            Consumer<MatrixEntry> add300 = a -> a.set(a.get()+300);
-            columnMin.forEach(add300);
-            columnMin.set(0,0,1);
-            columnMax.set(0,0,1);
-            for (int i=1; i < (line.length-2); i++) {
-                float wordCount = Float.parseFloat(line[i]);
-                //add specific word count from each document to the total count of that word to the example matrix
-                if(wordCount>0) {
-                    xMatrix.set(documentID-1,i,wordCount);
-                }
-                //update column max if necessary
-                if (wordCount>columnMax.get(i,0)) {
-                    columnMax.set(i,0,wordCount);
-                }
-                //update column min if necessary
-                if (wordCount<columnMin.get(i,0)) {
-                    columnMin.set(i,0,wordCount);
-                }
-            }
-            //This code would standardize per row of data but was mostly used for testing
-            //I think scaling per column is better for this problem
-            /*
-
-            lineVector.zero();
-            for (int i=1; i < (line.length-2); i++) {
-                float wordCount = Float.parseFloat(line[i]);
-                //add specific word count from each document to the total count of that word to the example matrix
-                if(wordCount>0) {
-                    lineVector.set(0,i,wordCount);
-                }
-                    //xMatrix.set(documentID-1,i,wordCount);
-            }
-            double norm = lineVector.norm(Matrix.Norm.Frobenius);
-            Consumer<MatrixEntry> entry = a -> a.set((a.get()/norm));
-            //Consumer<MatrixEntry> entry = a -> a.set(Math.log(a.get()+1));
-            lineVector.forEach(entry);
-            for(int k=1;k<61189;k++) {
-                double wordCount = lineVector.get(0,k);
-                if (wordCount>0) {
-                    xMatrix.set(documentID-1,k,wordCount);
-                }
-            }
-            */
+        trainingSet = loadDataSet(trainingFile, true);
+        numClasses = trainingSet.getNumClasses();
+        int trainingEnd = RunConfig.validationStart(trainingSet.getRows(), validation);
+        int validationEnd = trainingSet.getRows();
+        //add every document's classification to the training and validation labels
+        trainingLabels = new int[trainingEnd];
+        for(int l = 0; l<trainingEnd;l++) {
+            trainingLabels[l] = trainingSet.getLabel(l) - 1;
+        }
+        validationLabels = new int[validationEnd - trainingEnd];
+        for(int l = trainingEnd; l<validationEnd;l++) {
+            validationLabels[l-trainingEnd] = trainingSet.getLabel(l) - 1;
         }
+        trainingPredictions = new int[trainingEnd];
+        validationPredictions = new int[validationEnd - trainingEnd];
+        probabilities = new DenseMatrix(numClasses, trainingEnd);
+        validationProbabilities = new DenseMatrix(numClasses, validationEnd - trainingEnd);
+        //pick the words to train on from the training documents only
+        if (selector != null) {
+            selector.fit(trainingSet, 0, trainingEnd, threads);
+            System.out.println("Selected " + selector.getColumns() + " of " + selector.getWords()
+                    + " words (" + selector + ")");
+        }
+        //store the training matrix as rows, column 0 is the bias so word i is in column i+1
+        xRows = CsrMatrix.fromDataset(trainingSet, 0, trainingEnd, selector);
+        initializeWeights(xRows.getColumns());
+
         /*
         These are the different scaling methods we implemented for the X matrix.
         We found that TfIdf Scaling followed by the normalization method was the best
         for accuracy. This will be discussed more in the report.
+        The other scaling method (FeatureScaler.Method.MINMAX) is available to use but is
+        not used for our final model since it got pretty bad results.
         */
-        TfIdfScaling();
-        NormalizeMatrix();
-        /*
-        The other scaling method is available to use but is not used for our final model
-        since it got pretty bad results so it is commented out.
-         */
-        //MinMaxNormalize();
-
-        //build validation set
-        for(int l = 10000; l<12000;l++) {
-            String[] line = sc.nextLine().split(",");
-            int classification = Integer.parseInt(line[line.length-1]);
-            int documentID = Integer.parseInt(line[0]);
-            //print out the document number to see where the code is at
-            if(documentID%100 == 0) {
-                System.out.println("Reading DocumentID: " + documentID);
-            }
-            //add the document's classification to the matrix
-            classificationsMatrix.set(documentID-1,0,classification);
-            //set x0 to 1
-            testMatrix.set(documentID-10001,0,1);
-            for (int i=1; i < (line.length-2); i++) {
-                double wordCount = Double.parseDouble(line[i]);
-                //add specific word count from each document to the total count of that word to the example matrix
-                if(wordCount>0) {
-                    testMatrix.set(documentID-10001,i,wordCount);
-                }
-            }
-        }
+        System.out.println("Scaling training matrix: " + Arrays.toString(scaler.getMethods()));
+        scaler.fitTransform(xRows);
+        //store the scaled training matrix as columns too for the gradient
+        xColumns = xRows.transpose();
+
+        //build validation set, scaled the same way as the training set
+        testRows = CsrMatrix.fromDataset(trainingSet, trainingEnd, validationEnd, selector);
+        scaler.transform(testRows);
     }
 
     /**
-     * This method scales the matrix column-wise in the following way:
-     * Each value of x is divided by the total sum of each column.
-     * This way, all the values of a column add up to 1.
-     * I suspect this performed well because it penalizes common English words
-     * that have very high values.
+     * This method uses every document of a dataset that was already read as the training matrix,
+     * scaled the same way as in createDataSet(). There is no validation set, the cross validation
+     * constructor picks the training and validation rows of every fold from this matrix.
+     * The scaling statistics and the feature selection (which must not use the labels) are those of
+     * every document.
+     * @param dataset the labeled documents
      */
-    private void NormalizeMatrix() {
-        System.out.println("Performing normalization on matrix columns");
-        DenseMatrix columnHelper = new DenseMatrix(10000,1);
-        Consumer<MatrixEntry> set1 = a -> a.set(1);
-        columnHelper.forEach(set1);
-        DenseMatrix columnSums = new DenseMatrix(61189,1);
-        xMatrix.transAmult(columnHelper,columnSums);
-        Iterator<MatrixEntry> test = xMatrix.iterator();
-        while (test.hasNext()) {
-            MatrixEntry next = test.next();
-            if (next.column()!=0) {
-                xMatrix.set(next.row(), next.column(), next.get() / columnSums.get(next.column(), 0));
-            }
+    public void createDataSet(SparseDataset dataset) {
+        trainingSet = dataset;
+        numClasses = dataset.getNumClasses();
+        trainingLabels = new int[dataset.getRows()];
+        for (int l = 0; l < dataset.getRows(); l++) {
+            trainingLabels[l] = dataset.getLabel(l) - 1;
         }
+        trainingPredictions = new int[dataset.getRows()];
+        probabilities = new DenseMatrix(numClasses, dataset.getRows());
+        if (selector != null) {
+            selector.fit(dataset, 0, dataset.getRows(), threads);
+        }
+        xRows = CsrMatrix.fromDataset(dataset, 0, dataset.getRows(), selector);
+        initializeWeights(xRows.getColumns());
+        System.out.println("Scaling training matrix: " + Arrays.toString(scaler.getMethods()));
+        scaler.fitTransform(xRows);
+        xColumns = xRows.transpose();
     }
 
     /**
-     * This method performs MinMax normalization on the x matrix
+     * This method prepares out-of-core training, for training sets that do not fit in memory.
+     * The training and validation sets are read a chunk at a time (see SparseChunkReader) every epoch
+     * instead of being kept as matrices, so memory holds the weights, the work matrices of one chunk
+     * and the chunk itself. The scaling statistics are learned with one pass over the training chunks
+     * per scaling method (see FeatureScaler.fit) and are the same as the in-memory ones.
+     * @param training the reader of the training documents
+     * @param validation the reader of the validation documents
      */
-    private void MinMaxNormalize() {
-        System.out.println("Performing MinMax normalization on matrix columns");
-        Iterator<MatrixEntry> test = xMatrix.iterator();
-        while (test.hasNext()) {
-            MatrixEntry next = test.next();
-            if (next.column()!=0) {
-                double max = columnMax.get(next.column(), 0);
-                double min = columnMin.get(next.column(), 0);
-                double normalizedValue;
-                if (max == min) {
-                    normalizedValue = 0;
+    public void createDataSet(SparseChunkReader training, SparseChunkReader validation) {
+        trainingChunks = training;
+        validationChunks = validation;
+        try {
+            numClasses = Math.max(training.getNumClasses(), validation.getNumClasses());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        //the work arrays are sized for the largest chunk
+        trainingLabels = new int[training.getChunkRows()];
+        validationLabels = new int[validation.getChunkRows()];
+        trainingPredictions = new int[training.getChunkRows()];
+        validationPredictions = new int[validation.getChunkRows()];
+        probabilities = new DenseMatrix(numClasses, training.getChunkRows());
+        validationProbabilities = new DenseMatrix(numClasses, validation.getChunkRows());
+        int words = hasher == null ? training.getColumns() : hasher.getColumns();
+        if (selector != null) {
+            selector.fit(chunks(training), words, numClasses, threads);
+            System.out.println("Selected " + selector.getColumns() + " of " + selector.getWords()
+                    + " words (" + selector + ")");
+        }
+        initializeWeights((selector == null ? words : selector.getColumns()) + 1);
+        System.out.println("Fitting the scaling of the training chunks: " + Arrays.toString(scaler.getMethods()));
+        scaler.fit(() -> {
+            Iterator<SparseDataset> chunks = chunks(training).iterator();
+            return new Iterator<CsrMatrix>() {
+                @Override
+                public boolean hasNext() {
+                    return chunks.hasNext();
                 }
-                else {
-                    normalizedValue = (next.get() - min) / (max - min);
+
+                @Override
+                public CsrMatrix next() {
+                    SparseDataset chunk = chunks.next();
+                    return CsrMatrix.fromDataset(chunk, 0, chunk.getRows(), selector);
                 }
-                xMatrix.set(next.row(), next.column(), normalizedValue);
-            }
+            };
+        });
+    }
+
+    /**
+     * This method reads the chunks of a training or validation set, hashed if the model hashes its words
+     * @param reader the reader of the documents
+     * @return the chunks
+     */
+    private Iterable<SparseDataset> chunks(SparseChunkReader reader) {
+        if (hasher == null) {
+            return reader.chunks();
         }
+        try {
+            hasher.readVocabulary(vocabularyFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return hasher.transform(reader.chunks());
     }
 
     /**
-     * This method performs TfIdf scaling on the x matrix
-     * (Term Frequency - Inverse document frequency scaling)
+     * This method makes a chunk the current training or validation matrix: it is scaled
+     * and its labels are stored 0 based in labels
+     * @param chunk the chunk
+     * @param labels the array the labels are written to
+     * @return the scaled matrix of the chunk
      */
-    private void TfIdfScaling() {
-        System.out.println("Performing Tf-Idf scaling on matrix");
-        DenseMatrix wordSum = new DenseMatrix(10000,1);
-        DenseMatrix sumHelper = new DenseMatrix(61189,1);
-        Consumer<MatrixEntry> set1 = a -> a.set(1);
-        sumHelper.forEach(set1);
-        xMatrix.mult(sumHelper, wordSum);
-        Consumer<MatrixEntry> sub1 = a -> a.set(a.get()-1);
-        wordSum.forEach(sub1);
-        DenseMatrix wordAppears = new DenseMatrix(61189,1);
-        for(int i=1;i<61189;i++) {
-            double totalDocs = 0;
-            for(int j=0;j<10000;j++) {
-                if (xMatrix.get(j,i)>0) {
-                    totalDocs += 1;
-                }
-            }
-            wordAppears.set(i,0,totalDocs);
+    private CsrMatrix loadChunk(SparseDataset chunk, int[] labels) {
+        CsrMatrix matrix = CsrMatrix.fromDataset(chunk, 0, chunk.getRows(), selector);
+        scaler.transform(matrix);
+        for (int l = 0; l < chunk.getRows(); l++) {
+            labels[l] = chunk.getLabel(l) - 1;
         }
-        Iterator<MatrixEntry> test = xMatrix.iterator();
-        while (test.hasNext()) {
-            MatrixEntry next = test.next();
-            int column = next.column();
-            int row = next.row();
-            if (column!=0) {
-                double tfidf = ((xMatrix.get(row,column))/wordSum.get(row,0))*Math.log((10000+1)/(wordAppears.get(column,0)+1));
+        return matrix;
+    }
 
-                xMatrix.set(next.row(), next.column(), tfidf);
+    /**
+     * This method allocates the weights and the gradient with one row per class and one column per
+     * column of the training matrix and sets the weights to random values between 0-0.1,
+     * the values only depend on the seed
+     */
+    private void initializeWeights(int columns) {
+        weightsMatrix = new DenseMatrix(numClasses, columns);
+        gradient = new DenseMatrix(numClasses, columns);
+        //training changes the weights in place, so the scoring wrapper is built once for the array
+        inferenceWeights = InferenceWeights.ofDoubles(DoubleBuffer.wrap(weightsMatrix.getData()), numClasses,
+                columns);
+        Random r = new Random(seed);
+        for(int i =0; i <numClasses;i++) {
+            for(int j = 0; j<columns;j++) {
+                weightsMatrix.set(i,j,((0.1*r.nextFloat())));
             }
         }
-
     }
 
+    /**
+     * This method loads a csv file through its binary cache (see SparseDatasetCache),
+     * or tokenizes the documents of a raw text corpus (see TextCorpus)
+     * @param fileName the csv file, or the directory or JSONL file of a text corpus
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @return the dataset, with hashed columns if the model hashes its words
+     * @throws FileNotFoundException if the file does not exist
+     */
+    private SparseDataset loadDataSet(String fileName, boolean hasLabel) throws FileNotFoundException {
+        try {
+            if (TextCorpus.isText(fileName)) {
+                return TextCorpus.load(fileName, hasLabel, vocabularyFile, classificationFile, hasher, threads);
+            }
+            SparseDataset dataset = SparseDatasetCache.load(fileName, hasLabel);
+            if (hasher == null) {
+                return dataset;
+            }
+            hasher.readVocabulary(vocabularyFile);
+            return hasher.transform(dataset);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     /**
      * This method trains the Logistic Regression model
      * Updates the weight matrix using the matrix equation provided
      * in the project pdf.
+     * Every matrix used here is allocated once before the first iteration and then
+     * overwritten in place, so the iterations do not create any garbage.
+     * With more than one thread the documents are split into one block per thread.
+     * Every thread calculates the probabilities of its documents and adds up their part of
+     * the gradient in its own matrix, then the parts are added together (in block order, so
+     * the result does not depend on thread timing) and the weights are updated.
+     * With a batch size smaller than the training set, every iteration is one pass over the
+     * shuffled training set in mini-batches, with one optimizer step per mini-batch.
+     * Otherwise every iteration is one step over the whole training set.
      */
     public void train(){
-        //iterate and update weight matrix every time
-        for(int k = 0; k< iterations; k++){
-            System.out.println("Iteration Number: " + k);
-            //calculate the new probability matrix using the weights
-            calculateProbabilities();
-
-            //update weights
-            DenseMatrix temp;
-            DenseMatrix temp2 = new DenseMatrix(61189,20);
-            DenseMatrix temp3 = new DenseMatrix(20,61189);
-            //copy the delta matrix
-            temp = deltaMatrix.copy();
-            //subtract probabilities matrix from delta matrix
-            temp.add(-1, probabilities);
-            //multiply the above matrix with X using transposes and matrix rules
-            //using the sparse matrix on the left side of the multiplication is necessary
-            //for sparse matrix performance
-            xMatrix.transABmult(temp, temp2);
-            temp2.transpose(temp3);
-            //subtract lambda*weightsMatrix
-            temp3.add((0-lambda), weightsMatrix);
-            //finally add the above to our weightsMatrix to update the weights
-            weightsMatrix.add(eta, temp3);
-            /*
-            The following 3 lines were used to standardize the weight matrix each iteration which
-            I found to be unnecessary since we are tuning the penalty parameter.
-             */
-            //Array2D<Double> array2D = Array2D.R064.rows(getArray(weightsMatrix));
-            //array2D.modifyAny(DataProcessors.STANDARD_SCORE);
-            //weightsMatrix = new DenseMatrix(array2D.toRawCopy2D());
-
-            //print the confusion matrix if its the final iteration
-            if (k == (iterations -1)) {
+        pool = threads == 1 ? null : Parallel.newPool(threads);
+        blocks = pool == null ? 1 : pool.getParallelism();
+        if (selectedRows != null) {
+            trainingRows = selectedRows.clone();
+        }
+        else if (trainingChunks == null) {
+            trainingRows = new int[xRows.getRows()];
+            for (int i = 0; i < trainingRows.length; i++) {
+                trainingRows[i] = i;
+            }
+        }
+        int n = trainingChunks != null ? trainingChunks.getRows() : trainingRows.length;
+        boolean miniBatch = batchSize > 0 && batchSize < n;
+        blockLikelihood = new double[blocks];
+        blockCorrect = new int[blocks];
+        confusionMatrix = new int[numClasses][numClasses];
+        //the sequential full batch gradient uses the columns of X directly and needs no block matrices,
+        //but the columns hold every row so training on selected rows or chunks always goes through the blocks
+        blockGradients = new double[blocks > 1 || miniBatch || selectedRows != null || trainingChunks != null ? blocks : 0][];
+        for (int b = 0; b < blockGradients.length; b++) {
+            blockGradients[b] = new double[gradient.getData().length];
+        }
+        touchedColumns = new int[weightsMatrix.numColumns()];
+        columnMarks = new int[weightsMatrix.numColumns()];
+        touchedMark = 0;
+        optimizer = Optimizer.create(optimizerName, eta, gradient.getData().length);
+        Random random = new Random(seed);
+        if (earlyStopping != null) {
+            bestWeights = new double[weightsMatrix.getData().length];
+            earlyStopping.start();
+        }
+        try {
+            //iterate and update weight matrix every time
+            for(int k = 0; k< iterations; k++){
+                if (verbose) {
+                    System.out.println("Iteration Number: " + k);
+                }
+                if (trainingChunks != null) {
+                    trainChunks(random, miniBatch, n);
+                }
+                else if (miniBatch) {
+                    //shuffle the training set and do one step per mini-batch
+                    shuffle(trainingRows, random);
+                    for (int start = 0; start < n; start += batchSize) {
+                        int end = Math.min(start + batchSize, n);
+                        batchProbabilities(start, end);
+                        //the penalty is spread over the mini-batches of a pass
+                        updateWeights(start, end, lambda * (end - start) / (double) n);
+                    }
+                    //calculate the probability matrix of the whole training set for the likelihood
+                    calculateProbabilities();
+                }
+                else {
+                    //calculate the new probability matrix using the weights
+                    calculateProbabilities();
+                    //update weights
+                    updateWeights(0, n, lambda);
+                }
+                //print the confusion matrix if its the final iteration
+                //with early stopping it is printed for the best weights after training instead
+                if (k == (iterations -1) && earlyStopping == null) {
+                    getConfusionMatrix = true;
+                }
+                //check the accuracy of the model for this iteration
+                checkAccuracy();
+                if (earlyStopping != null) {
+                    //save the weights if they are the best so far and check if training should stop
+                    if (earlyStopping.improved(k, validationAccuracy)) {
+                        System.arraycopy(weightsMatrix.getData(), 0, bestWeights, 0, bestWeights.length);
+                    }
+                    String reason = earlyStopping.shouldStop(logLikelihood);
+                    if (reason != null) {
+                        System.out.println("Stopping early after iteration " + k + ": " + reason);
+                        break;
+                    }
+                }
+            }
+            if (earlyStopping != null && earlyStopping.getBestIteration() >= 0) {
+                //roll back to the best weights and print their accuracy and confusion matrix
+                System.out.println("Using the weights of iteration " + earlyStopping.getBestIteration()
+                        + " (best validation accuracy " + earlyStopping.getBestAccuracy() + ")");
+                System.arraycopy(bestWeights, 0, weightsMatrix.getData(), 0, bestWeights.length);
                 getConfusionMatrix = true;
+                checkAccuracy();
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
-            //check the accuracy of the model for this iteration
-            checkAccuracy();
         }
     }
 
     /**
-     * This method checks the accuracy of the model against the validation set
+     * This method calculates the probabilities of the documents of a mini-batch
+     * @param from the first position of the mini-batch in trainingRows
+     * @param to the position after the last position of the mini-batch in trainingRows
      */
-    public void checkAccuracy(){
-        DenseMatrix temp = new DenseMatrix(2000,20);
-        probabilities = new DenseMatrix(20,2000);
+    private void batchProbabilities(int from, int to) {
+        double[] data = probabilities.getData();
+        Parallel.forEachBlock(pool, from, to, blocks, (block, start, end) -> {
+            xRows.multiplySelectedRows(trainingRows, start, end, weightsMatrix.getData(), numClasses, data);
+            for (int s = start; s < end; s++) {
+                SOFTMAX.softmax(data, numClasses, trainingRows[s], trainingRows[s] + 1, null, null);
+            }
+        });
+    }
 
-        //multiply weights by validation set transpose
-        testMatrix.transBmult(weightsMatrix,temp);
-        temp.transpose(probabilities);
+    /**
+     * This method does one optimizer step for the documents trainingRows[from] to trainingRows[to-1]
+     * with the gradient (delta - P) * X - penalty * W
+     * @param from the first position in trainingRows
+     * @param to the position after the last position in trainingRows
+     * @param penalty the penalty term of this step
+     */
+    private void updateWeights(int from, int to, double penalty) {
+        addGradient(from, to, false);
+        step(penalty);
+    }
 
-        /*
-        make every element e^i
-        scaling of the above matrix was necessary to prevent overflow
-        and Infinity/NaN values
-        */
-        Array2D<Double> array2D = Array2D.R064.rows(getArray(probabilities));
-        array2D.modifyAny(DataProcessors.SCALE);
-        array2D.modifyAll(EXP);
-        probabilities = new DenseMatrix(array2D.toRawCopy2D());
-
-        //divide each probability by the sum of the column so that they all add up to 1
-        for(int i = 0;i < 2000; i++) {
-            double total = 0;
-            for (int j = 0; j < 20; j++) {
-                total += probabilities.get(j,i);
-            }
-            if (total != 0) {
-                for (int j = 0; j < 20; j++) {
-                    probabilities.set(j, i, (probabilities.get(j, i) / total));
+    /**
+     * This method calculates the gradient (delta - P) * X of the documents trainingRows[from] to trainingRows[to-1]
+     * @param from the first position in trainingRows
+     * @param to the position after the last position in trainingRows
+     * @param add true to add to the gradient (of the chunks before), false to replace it
+     */
+    private void addGradient(int from, int to, boolean add) {
+        double[] difference = probabilities.getData();
+        double[] gradientData = gradient.getData();
+        if (blockGradients.length == 0) {
+            toDifference(difference, from, to);
+            //multiply the above matrix with X as X^T * (delta - P)^T, one column of X at a time
+            //the data of a C x N DenseMatrix is the N x C matrix stored row by row, so the
+            //result lands in the gradient matrix without a transpose
+            xColumns.multiply(difference, numClasses, gradientData);
+        }
+        else {
+            //a mini-batch only has a gradient in the columns of its words, so the block gradients are only
+            //cleared and added up there instead of over every weight. The other columns of the gradient are
+            //0 since step clears the gradient after every update.
+            int touched = touchedColumns(from, to);
+            //every block adds up X^T * (delta - P)^T for its own documents, a batch with fewer
+            //documents than blocks runs fewer blocks and the others still hold an older gradient
+            int used = Parallel.forEachBlock(pool, from, to, blocks, (block, start, end) -> {
+                double[] blockGradient = blockGradients[block];
+                for (int t = 0; t < touched; t++) {
+                    int offset = touchedColumns[t] * numClasses;
+                    Arrays.fill(blockGradient, offset, offset + numClasses, 0);
+                }
+                toDifference(difference, start, end);
+                xRows.transposeMultiplySelectedRows(trainingRows, start, end, difference, numClasses, blockGradient);
+            });
+            //add the blocks together, split by column so every thread writes its own part of the gradient
+            Parallel.forEachBlock(pool, 0, touched, blocks, (block, start, end) -> {
+                for (int t = start; t < end; t++) {
+                    int offset = touchedColumns[t] * numClasses;
+                    for (int i = offset; i < offset + numClasses; i++) {
+                        double sum = add ? gradientData[i] : 0;
+                        for (int b = 0; b < used; b++) {
+                            sum += blockGradients[b][i];
+                        }
+                        gradientData[i] = sum;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * This method lists the columns of the training matrix that the documents trainingRows[from] to
+     * trainingRows[to-1] have a value in, in touchedColumns
+     * @param from the first position in trainingRows
+     * @param to the position after the last position in trainingRows
+     * @return the number of columns in touchedColumns
+     */
+    private int touchedColumns(int from, int to) {
+        int[] rowPointers = xRows.getRowPointers();
+        int[] columnIndices = xRows.getColumnIndices();
+        //a column is listed once per call, when its mark is not the mark of this call yet
+        touchedMark++;
+        int touched = 0;
+        for (int s = from; s < to; s++) {
+            int r = trainingRows[s];
+            for (int k = rowPointers[r]; k < rowPointers[r + 1]; k++) {
+                int column = columnIndices[k];
+                if (columnMarks[column] != touchedMark) {
+                    columnMarks[column] = touchedMark;
+                    touchedColumns[touched++] = column;
                 }
             }
         }
+        return touched;
+    }
 
+    /**
+     * This method subtracts penalty * W from the gradient and lets the optimizer update the weights,
+     * then clears the gradient for the next step
+     * @param penalty the penalty term of this step
+     */
+    private void step(double penalty) {
+        double[] weights = weightsMatrix.getData();
+        double[] gradientData = gradient.getData();
+        optimizer.startStep();
+        Parallel.forEachBlock(pool, 0, weightsMatrix.numColumns(), blocks, (block, start, end) -> {
+            for (int i = start * numClasses; i < end * numClasses; i++) {
+                gradientData[i] -= penalty * weights[i];
+            }
+            optimizer.update(weights, gradientData, start * numClasses, end * numClasses);
+            Arrays.fill(gradientData, start * numClasses, end * numClasses, 0);
+        });
+    }
 
-        //calculate accuracy of predictions
-        double accuracy = 0;
-        for(int i = 0;i < 2000; i++) {
-            double argmax = 0;
-            int prediction = 0;
-            for (int j = 0;j < 20; j++) {
-                if (probabilities.get(j,i) > argmax) {
-                    argmax = probabilities.get(j,i);
-                    prediction = j+1;
+    /**
+     * This method runs one epoch of out-of-core training, reading the training set a chunk at a time.
+     * With mini-batches every chunk is shuffled and gets one optimizer step per mini-batch.
+     * Otherwise the gradients of the chunks are added up and there is one step at the end of the epoch,
+     * the same step as in memory.
+     * The likelihood and training accuracy are added up over the chunks.
+     * @param random the random number generator of the shuffles
+     * @param miniBatch true to train in mini-batches
+     * @param n the number of training documents
+     */
+    private void trainChunks(Random random, boolean miniBatch, int n) {
+        double logcdl = 0;
+        int correct = 0;
+        boolean first = true;
+        for (SparseDataset chunk : chunks(trainingChunks)) {
+            xRows = loadChunk(chunk, trainingLabels);
+            trainingRows = new int[chunk.getRows()];
+            for (int i = 0; i < trainingRows.length; i++) {
+                trainingRows[i] = i;
+            }
+            if (miniBatch) {
+                shuffle(trainingRows, random);
+                for (int start = 0; start < trainingRows.length; start += batchSize) {
+                    int end = Math.min(start + batchSize, trainingRows.length);
+                    batchProbabilities(start, end);
+                    //the penalty is spread over the mini-batches of a pass
+                    updateWeights(start, end, lambda * (end - start) / (double) n);
                 }
             }
-            if (getConfusionMatrix) {
-                confusionMatrix[(int)classificationsMatrix.get(i+10000,0)-1][prediction-1]++;
+            //a chunk with fewer documents than blocks (usually the last one) only runs some of the blocks
+            int used = forwardPass();
+            for (int b = 0; b < used; b++) {
+                logcdl += blockLikelihood[b];
+                correct += blockCorrect[b];
+            }
+            if (!miniBatch) {
+                addGradient(0, trainingRows.length, !first);
             }
-            if(prediction==classificationsMatrix.get(i+10000,0)) {
-                accuracy++;
+            first = false;
+        }
+        //the chunk is not kept
+        xRows = null;
+        if (!miniBatch) {
+            step(lambda);
+        }
+        reportTraining(logcdl, correct, n);
+    }
+
+    /**
+     * This method turns the probabilities of the documents trainingRows[from] to trainingRows[to-1]
+     * into (delta - probabilities) in place
+     * @param probabilities the probabilities, one per class for every document
+     * @param from the first position in trainingRows
+     * @param to the position after the last position in trainingRows
+     */
+    private void toDifference(double[] probabilities, int from, int to) {
+        for (int s = from; s < to; s++) {
+            int i = trainingRows[s];
+            int offset = i * numClasses;
+            for (int j = 0; j < numClasses; j++) {
+                probabilities[offset + j] = -probabilities[offset + j];
+            }
+            probabilities[offset + trainingLabels[i]] += 1;
+        }
+    }
+
+    /**
+     * This method shuffles an array with the Fisher-Yates shuffle
+     * @param values the array to shuffle
+     * @param random the random number generator
+     */
+    static void shuffle(int[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /**
+     * This method checks the accuracy of the model against the validation set
+     */
+    public void checkAccuracy(){
+        int correct = 0;
+        int n = 0;
+        if (validationChunks == null) {
+            correct = validateRows();
+            n = testRows.getRows();
+        }
+        else {
+            //read the validation set a chunk at a time
+            for (SparseDataset chunk : chunks(validationChunks)) {
+                testRows = loadChunk(chunk, validationLabels);
+                correct += validateRows();
+                n += chunk.getRows();
             }
+            testRows = null;
         }
-        testAccuracy = accuracy/2000;
+        testAccuracy = (double) correct/n;
+        validationAccuracy = testAccuracy;
         //print out accuracy
-        System.out.println("Test accuracy: "+ testAccuracy);
+        if (verbose) {
+            System.out.println("Test accuracy: "+ testAccuracy);
+        }
         //print confusion matrix if last iteration
-        if (getConfusionMatrix) {
+        if (getConfusionMatrix && verbose) {
             System.out.println("Confusion Matrix:");
-            for (int i = 0; i < 20; i++) {
+            for (int i = 0; i < numClasses; i++) {
                 System.out.println(Arrays.toString(confusionMatrix[i]));
             }
         }
     }
 
+    /**
+     * This method predicts the documents of the validation matrix and adds them to the confusion matrix
+     * if it is being calculated
+     * @return the number of correct predictions
+     */
+    private int validateRows() {
+        //multiply weights by validation set transpose
+        double[] validationData = validationProbabilities.getData();
+        int n = testRows.getRows();
+        Parallel.forEachBlock(pool, 0, n, blocks, (block, from, to) -> {
+            testRows.multiplyRows(from, to, weightsMatrix.getData(), numClasses, validationData);
+            SOFTMAX.softmax(validationData, numClasses, from, to, null, validationPredictions);
+        });
+
+        //calculate accuracy of predictions
+        int correct = 0;
+        for(int i = 0;i < n; i++) {
+            int prediction = validationPredictions[i];
+            if (getConfusionMatrix) {
+                confusionMatrix[validationLabels[i]][prediction]++;
+            }
+            if(prediction==validationLabels[i]) {
+                correct++;
+            }
+        }
+        return correct;
+    }
+
     /**
      * This method predicts the class for the testing set from Kaggle
+     * and prints the prediction of each example in the console
      */
     public void predict(){
-        Scanner sc = null;
+        SparseDataset testingSet = loadTestingSet();
+        int[] predictions = predictTestingSet(testingSet);
+
+        //print out the prediction of each example
+        for(int i = 0;i < predictions.length; i++) {
+            System.out.println(""+testingSet.getDocumentId(i)+","+predictions[i]);
+        }
+    }
+
+    /**
+     * This method predicts the class for the testing set from Kaggle and writes the predictions
+     * in the Kaggle format (see NaiveBayes.writePredictions)
+     * @param fileName the predictions file
+     * @throws IOException if the file can not be written
+     */
+    public void predict(String fileName) throws IOException {
+        SparseDataset testingSet = loadTestingSet();
+        int[] predictions = predictTestingSet(testingSet);
+        NaiveBayes.writePredictions(testingSet, predictions, fileName);
+        System.out.println("Wrote " + predictions.length + " predictions to " + fileName);
+    }
+
+    /**
+     * This method reads the testing file
+     * @return the testing set
+     */
+    private SparseDataset loadTestingSet() {
         try {
-            sc = new Scanner(new File(testingFile));
+            return loadDataSet(testingFile, false);
         } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
         }
-        xMatrix = null;
-        xMatrix = new LinkedSparseMatrix(6774,61189);
-        probabilities = new DenseMatrix(20,6774);
-        //read every line in testing set and build the data needed
-        //while (sc.hasNextLine()) {
-        for(int l = 0; l<6774;l++) {
-            String[] line = sc.nextLine().split(",");
-            float classification = Float.parseFloat(line[line.length-1]);
-            int documentID = Integer.parseInt(line[0]);
-            //print out the document number to see where the code is at
-            if(documentID%100 == 0) {
-                System.out.println("Reading DocumentID: " + documentID);
-            }
-            //set x0 to 1
-            xMatrix.set(documentID-12001,0,1f);
-            for (int i=1; i < (line.length-2); i++) {
-                float wordCount = Float.parseFloat(line[i]);
-                //add specific word count from each document to the total count of that word to the example matrix
-                if (wordCount>0) {
-                    xMatrix.set(documentID - 12001, i, wordCount);
-                }
-            }
-        }
+    }
+
+    /**
+     * This method predicts every document of the testing set
+     * @param testingSet the testing set
+     * @return the class prediction (1 based) of every document
+     */
+    private int[] predictTestingSet(SparseDataset testingSet) {
+        int documents = testingSet.getRows();
+        CsrMatrix testingRows = CsrMatrix.fromDataset(testingSet, 0, documents, selector);
+        scaler.transform(testingRows);
+        DenseMatrix testProbabilities = new DenseMatrix(numClasses,documents);
 
-        DenseMatrix temp = new DenseMatrix(6774,20);
         //multiply weights by test set transpose
-        xMatrix.transBmult(weightsMatrix,temp);
-        temp.transpose(probabilities);
+        testingRows.multiply(weightsMatrix.getData(), numClasses, testProbabilities.getData());
+        int[] predictions = new int[documents];
+        SOFTMAX.softmax(testProbabilities.getData(), numClasses, 0, documents, null, predictions);
+        for (int i = 0; i < documents; i++) {
+            predictions[i]++;
+        }
+        return predictions;
+    }
 
-        /*
-        make every element e^i
-        scaling of the above matrix was necessary to prevent overflow
-        and Infinity/NaN values
-        */
-        Array2D<Double> array2D = Array2D.R064.rows(getArray(probabilities));
-        array2D.modifyAny(DataProcessors.SCALE);
-        array2D.modifyAll(EXP);
-        probabilities = new DenseMatrix(array2D.toRawCopy2D());
-
-        //normalize probability columns
-        for(int i = 0;i < 6774; i++) {
-            double total = 0;
-            for (int j = 0; j < 20; j++) {
-                total += probabilities.get(j,i);
-            }
-            if (total != 0) {
-                for (int j = 0; j < 20; j++) {
-                    probabilities.set(j, i, (probabilities.get(j, i) / total));
-                }
+    /**
+     * This method calculates the logits of one document with the trained weights,
+     * the document is scaled with the statistics of the training matrix first
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param scores the array the logit of every class (0 based) is written to
+     */
+    @Override
+    public void classScores(int[] indices, int[] counts, int start, int end, double[] scores) {
+        logits(indices, counts, start, end, scaler, selector, inferenceWeights, scores);
+    }
+
+    /**
+     * This method calculates w0 + Sigma_i w_i * (scaled X_i) of a document for every class.
+     * It is shared by the trained model and models loaded with ModelFile, whose weights stay in a memory map.
+     * Words outside of the weights and words that were not selected are skipped.
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param scaler the fitted scaler of the training matrix
+     * @param selector the fitted feature selection, null if every word is a feature
+     * @param weights the weights in any precision (see InferenceWeights), feature 0 is the bias
+     * @param scores the array the logit of every class (0 based) is written to
+     */
+    static void logits(int[] indices, int[] counts, int start, int end, FeatureScaler scaler, FeatureSelector selector,
+                       InferenceWeights weights, double[] scores) {
+        //scale the document like the training matrix, column 0 is the bias so word i is in column i+1
+        int[] columnIndices = new int[end - start + 1];
+        double[] values = new double[end - start + 1];
+        values[0] = 1;
+        int length = 1;
+        for (int n = start; n < end; n++) {
+            int column = selector == null ? indices[n] : selector.column(indices[n]);
+            if (column < 0) {
+                continue;
             }
+            columnIndices[length] = column + 1;
+            values[length] = counts[n];
+            length++;
         }
+        scaler.transformRow(columnIndices, values, 0, length);
+        weights.logits(columnIndices, values, length, scores);
+    }
 
-        //get the argmax for each example and print out the prediction
-        for(int i = 0;i < 6774; i++) {
-            double argmax = 0;
-            int prediction = 0;
-            for (int j = 0;j < 20; j++) {
-                if (probabilities.get(j,i) > argmax) {
-                    argmax = probabilities.get(j,i);
-                    prediction = j+1;
-                }
+    @Override
+    public int getNumClasses() {
+        return weightsMatrix.numRows();
+    }
+
+    /**
+     * @return the number of words of the vocabulary, with a feature selection this is more than the features,
+     *         with feature hashing it is the number of hashed columns
+     */
+    @Override
+    public int getVocabularySize() {
+        return selector == null ? weightsMatrix.numColumns() - 1 : selector.getWords();
+    }
+
+    /**
+     * This method saves the weights, in the precision of the settings, and the scaling statistics of the model
+     * to a model file (see ModelFile)
+     * @param fileName the model file
+     * @throws IOException if the file can not be written
+     */
+    public void saveModel(String fileName) throws IOException {
+        InferenceWeights weights = InferenceWeights.convert(weightsMatrix.getData(), weightsMatrix.numRows(),
+                weightsMatrix.numColumns(), weightPrecision);
+        ModelFile.writeLogisticRegression(Paths.get(fileName), weights, scaler, selector, hasher);
+    }
+
+    /**
+     * This method checks how much accuracy the weights lose in the precision they are saved in: the validation
+     * set is predicted with the double weights and with the converted weights (see InferenceWeights), and both
+     * accuracies are printed with the number of predictions that agree.
+     * @return the validation accuracy with the converted weights
+     * @throws IllegalStateException if there is no validation set, or if the converted weights are more than
+     *                               MAX_ACCURACY_LOSS less accurate than the double weights
+     */
+    public double checkPrecision() {
+        int classes = weightsMatrix.numRows();
+        int columns = weightsMatrix.numColumns();
+        InferenceWeights exact = inferenceWeights;
+        InferenceWeights converted = InferenceWeights.convert(weightsMatrix.getData(), classes, columns,
+                weightPrecision);
+        //correct with the double weights, correct with the converted weights, the same prediction, documents
+        int[] totals = new int[4];
+        if (validationChunks != null) {
+            for (SparseDataset chunk : chunks(validationChunks)) {
+                comparePredictions(chunk, 0, chunk.getRows(), exact, converted, totals);
             }
-            System.out.println(""+(12001+i)+","+prediction);
         }
+        else if (trainingSet != null && testRows != null && selectedRows == null) {
+            comparePredictions(trainingSet, RunConfig.validationStart(trainingSet.getRows(), validation),
+                    trainingSet.getRows(), exact, converted, totals);
+        }
+        if (totals[3] == 0) {
+            throw new IllegalStateException("there is no validation set to check the " + weightPrecision
+                    + " weights on");
+        }
+        double exactAccuracy = (double) totals[0] / totals[3];
+        double convertedAccuracy = (double) totals[1] / totals[3];
+        System.out.println("Validation Set Accuracy with DOUBLE weights: " + exactAccuracy + ", with "
+                + weightPrecision + " weights: " + convertedAccuracy + " (" + totals[2] + " of " + totals[3]
+                + " predictions agree, the weights take " + converted.getWeightBytes() + " instead of "
+                + exact.getWeightBytes() + " bytes)");
+        if (exactAccuracy - convertedAccuracy > MAX_ACCURACY_LOSS) {
+            throw new IllegalStateException(weightPrecision + " weights lose " + (exactAccuracy - convertedAccuracy)
+                    + " validation accuracy, more than " + MAX_ACCURACY_LOSS);
+        }
+        return convertedAccuracy;
     }
 
     /**
-     * This method calculates the new probability matrix using the updated
-     * weights each iteration
+     * This method predicts some labeled documents with two sets of weights and counts the correct predictions
+     * of each and the predictions they agree on into totals, then adds the documents to totals[3]
      */
-    public void calculateProbabilities() {
-
-        DenseMatrix temp = new DenseMatrix(10000,20);
-        probabilities = new DenseMatrix(20,10000);
+    private void comparePredictions(SparseDataset dataset, int from, int to, InferenceWeights exact,
+                                    InferenceWeights converted, int[] totals) {
+        double[] exactScores = new double[numClasses];
+        double[] convertedScores = new double[numClasses];
+        for (int row = from; row < to; row++) {
+            int start = dataset.rowStart(row);
+            int end = dataset.rowEnd(row);
+            logits(dataset.getIndices(), dataset.getCounts(), start, end, scaler, selector, exact, exactScores);
+            logits(dataset.getIndices(), dataset.getCounts(), start, end, scaler, selector, converted,
+                    convertedScores);
+            int exactPrediction = argmax(exactScores) + 1;
+            int convertedPrediction = argmax(convertedScores) + 1;
+            totals[0] += exactPrediction == dataset.getLabel(row) ? 1 : 0;
+            totals[1] += convertedPrediction == dataset.getLabel(row) ? 1 : 0;
+            totals[2] += exactPrediction == convertedPrediction ? 1 : 0;
+        }
+        totals[3] += to - from;
+    }
 
-        //multiply weights by training set transpose
+    /**
+     * @return the index of the highest score, the first one if scores are equal
+     */
+    private static int argmax(double[] scores) {
+        int max = 0;
+        for (int j = 1; j < scores.length; j++) {
+            if (scores[j] > scores[max]) {
+                max = j;
+            }
+        }
+        return max;
+    }
 
-        xMatrix.transBmult(weightsMatrix,temp);
-        temp.transpose(probabilities);
+    /**
+     * @return the trained weights at [feature * classes + class], feature 0 is the bias
+     */
+    double[] getWeights() {
+        return weightsMatrix.getData();
+    }
 
-        /*
-        make every element e^i
-        scaling of the above matrix was necessary to prevent overflow
-        and Infinity/NaN values
-        */
-        Array2D<Double> array2D = Array2D.R064.rows(getArray(probabilities));
-        array2D.modifyAny(DataProcessors.SCALE);
-        array2D.modifyAll(EXP);
+    /**
+     * @return the precision the weights are saved in
+     */
+    public InferenceWeights.Precision getWeightPrecision() {
+        return weightPrecision;
+    }
 
-        probabilities = new DenseMatrix(array2D.toRawCopy2D());
+    /**
+     * This method calculates the new probability matrix using the updated
+     * weights each iteration
+     */
+    public void calculateProbabilities() {
+        int used = forwardPass();
+        double logcdl = 0;
+        int correct = 0;
+        for (int b = 0; b < used; b++) {
+            logcdl += blockLikelihood[b];
+            correct += blockCorrect[b];
+        }
+        reportTraining(logcdl, correct, trainingRows.length);
+    }
 
-        //normalize probability columns
-        for(int i = 0;i < 10000; i++) {
-            double total = 0;
-            for (int j = 0; j < 20; j++) {
-                total += probabilities.get(j,i);
+    /**
+     * This method calculates the probability matrix of the documents in trainingRows with the current weights,
+     * the likelihood and the number of correct predictions of every block are stored in blockLikelihood
+     * and blockCorrect
+     * @return the number of blocks that ran, the blocks after them hold the results of an earlier call
+     */
+    private int forwardPass() {
+        double[] data = probabilities.getData();
+        return Parallel.forEachBlock(pool, 0, trainingRows.length, blocks, (block, from, to) -> {
+            double logcdl = 0;
+            int correct = 0;
+            if (selectedRows == null) {
+                //multiply weights by training set transpose
+                xRows.multiplyRows(from, to, weightsMatrix.getData(), numClasses, data);
+                //softmax, predictions and conditional data likelihood of the block in one pass
+                logcdl = SOFTMAX.softmax(data, numClasses, from, to, trainingLabels, trainingPredictions);
+                for (int i = from; i < to; i++) {
+                    if(trainingPredictions[i]==trainingLabels[i]) {
+                        correct++;
+                    }
+                }
             }
-            if (total != 0) {
-                for (int j = 0; j < 20; j++) {
-                    probabilities.set(j, i, (probabilities.get(j, i) / total));
+            else {
+                //the same for the selected rows, one row at a time
+                xRows.multiplySelectedRows(trainingRows, from, to, weightsMatrix.getData(), numClasses, data);
+                for (int s = from; s < to; s++) {
+                    int i = trainingRows[s];
+                    logcdl += SOFTMAX.softmax(data, numClasses, i, i + 1, trainingLabels, trainingPredictions);
+                    if(trainingPredictions[i]==trainingLabels[i]) {
+                        correct++;
+                    }
                 }
             }
-        }
+            blockLikelihood[block] = logcdl;
+            blockCorrect[block] = correct;
+        });
+    }
 
+    /**
+     * This method stores and prints the conditional data likelihood and the training accuracy
+     * @param logcdl the log conditional data likelihood of the training set
+     * @param correct the number of correct predictions
+     * @param documents the number of training documents
+     */
+    private void reportTraining(double logcdl, int correct, int documents) {
         //calculate and print conditional data likelihood.
         //we can see that it increases every iteration until it is maximized
-        double logcdl = 0;
-        for (int i = 0; i < 10000; i++) {
-            int classification = (int)classificationsMatrix.get(i,0);
-            logcdl += Math.log(probabilities.get(classification-1, i));
+        if (verbose) {
+            System.out.println("Conditional Data Likelihood: " + logcdl);
         }
-        System.out.println("Conditional Data Likelihood: " + logcdl);
+        logLikelihood = logcdl;
 
         //calculate accuracy of the model against the training set
-        double accuracy = 0;
-        for(int i = 0;i < 10000; i++) {
-            double argmax = 0;
-            int prediction = 0;
-            for (int j = 0;j < 20; j++) {
-                if (probabilities.get(j,i) > argmax) {
-                    argmax = probabilities.get(j,i);
-                    prediction = j+1;
-                }
-            }
-            if(prediction==classificationsMatrix.get(i,0)) {
-                accuracy++;
-            }
-        }
-        testAccuracy = accuracy/10000;
+        testAccuracy = (double) correct/documents;
         //print out training accuracy
-        System.out.println("Train accuracy: "+ testAccuracy);
+        if (verbose) {
+            System.out.println("Train accuracy: "+ testAccuracy);
+        }
+    }
 
+    /**
+     * @return the validation accuracy of the last call to checkAccuracy
+     */
+    public double getValidationAccuracy() {
+        return validationAccuracy;
+    }
 
+    /**
+     * @return the log conditional data likelihood of the last call to calculateProbabilities
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * This method can turn off the lines printed every iteration
+     * @param verbose false to only print the lines about loading and stopping
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * @return the training file, the first documents are the training set and the rest the validation set
+     */
+    public SparseDataset getTrainingSet() {
+        return trainingSet;
     }
 
     /**
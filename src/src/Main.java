@@ -1,60 +1,516 @@
 import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
+/**
+ * This class is the entry point of the program.
+ * Without arguments it asks the user which algorithm to run (see prompt).
+ * With arguments it runs one command without asking anything, so it can be scripted:
+ *      train:    trains the model chosen by --algorithm, prints its validation accuracy and saves it to --model
+ *      evaluate: loads --model and prints its accuracy and confusion matrix on the validation set
+ *      predict:  loads --model and writes the predictions of the testing set to --output
+ *      sweep:    trains the model chosen by --algorithm for many settings in parallel and prints a table of the
+ *                results, the settings are every combination of --grid "name=value,value;name=value,..."
+ *                or --samples random draws from --random "name=low:high;..." (--parameter name --values v,v
+ *                is the same as --grid "name=v,v")
+ *      crossvalidate: prints the --folds fold cross validation accuracy (mean and variance) and confusion
+ *                matrix of --algorithm over every document of the training file, the folds are stratified
+ *                by class unless --stratified false
+ *      convert:  builds the binary caches (see SparseDatasetCache) of the training and testing files
+ * Settings are read from the properties file given with --config, then from the flags,
+ * so flags override the file (see RunConfig for the settings).
+ * The exit code is 0 on success, 1 if the command failed, 2 for invalid arguments
+ * and 3 if an input file does not exist.
+ */
 public class Main {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_MISSING_FILE = 3;
+    //the flags of the sweep and crossvalidate commands, they are not settings of a model
+    private static final List<String> COMMAND_FLAGS = Arrays.asList("parameter", "values", "grid", "random", "samples",
+            "folds", "stratified");
 
     public static void main(String[] args){
-            prompt();
+        System.exit(args.length == 0 ? prompt() : run(args));
+    }
+
+    /**
+     * This method runs one command
+     * @param args the command followed by its flags
+     * @return the exit code
+     */
+    public static int run(String[] args) {
+        String command = args[0];
+        if (command.equals("help") || command.equals("--help") || command.equals("-h")) {
+            usage(System.out);
+            return EXIT_OK;
+        }
+        Properties settings;
+        Map<String, String> commandFlags = new HashMap<>();
+        RunConfig config;
+        try {
+            settings = parseFlags(Arrays.copyOfRange(args, 1, args.length));
+            for (String key : COMMAND_FLAGS) {
+                if (settings.containsKey(key)) {
+                    commandFlags.put(key, (String) settings.remove(key));
+                }
+            }
+            config = RunConfig.fromProperties(settings);
+        } catch (FileNotFoundException e) {
+            System.err.println("File not found: " + e.getMessage());
+            return EXIT_MISSING_FILE;
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            usage(System.err);
+            return EXIT_USAGE;
+        }
+        try {
+            switch (command) {
+                case "train" -> train(config, true);
+                case "evaluate" -> evaluate(config);
+                case "predict" -> predict(config);
+                case "sweep" -> sweep(config, commandFlags);
+                case "crossvalidate" -> crossValidate(config, commandFlags);
+                case "convert" -> convert(config);
+                default -> {
+                    System.err.println("Error: unknown command " + command);
+                    usage(System.err);
+                    return EXIT_USAGE;
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.err.println("File not found: " + e.getMessage());
+            return EXIT_MISSING_FILE;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (IOException | RuntimeException e) {
+            //the models wrap a missing file in a RuntimeException
+            if (e.getCause() instanceof FileNotFoundException) {
+                System.err.println("File not found: " + e.getCause().getMessage());
+                return EXIT_MISSING_FILE;
+            }
+            System.err.println("Failed: " + e);
+            e.printStackTrace();
+            return EXIT_FAILED;
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * This method reads the flags of a command, "--name value" or "--name=value".
+     * The properties file of --config is read first so the other flags override it.
+     * @param flags the flags
+     * @return the settings
+     * @throws IllegalArgumentException if a flag is malformed
+     * @throws IOException if the config file can not be read
+     */
+    private static Properties parseFlags(String[] flags) throws IOException {
+        Properties settings = new Properties();
+        Properties fromFlags = new Properties();
+        for (int i = 0; i < flags.length; i++) {
+            String flag = flags[i];
+            if (!flag.startsWith("--") || flag.length() == 2) {
+                throw new IllegalArgumentException("expected a flag but got " + flag);
+            }
+            String name = flag.substring(2);
+            String value;
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            }
+            else if (i + 1 < flags.length) {
+                value = flags[++i];
+            }
+            else {
+                throw new IllegalArgumentException("missing value for " + flag);
+            }
+            if (name.equals("config")) {
+                settings.putAll(RunConfig.load(value));
+            }
+            else {
+                fromFlags.setProperty(name, value);
+            }
+        }
+        settings.putAll(fromFlags);
+        return settings;
+    }
+
+    /**
+     * This method prints how to use the commands
+     * @param out the stream to print to
+     */
+    private static void usage(PrintStream out) {
+        out.println("Usage: java Main [command] [--config file] [--setting value ...]");
+        out.println("Without a command the program asks which algorithm to run.");
+        out.println("Commands:");
+        out.println("  train     train --algorithm (nb or lr), print its validation accuracy and save it to --model");
+        out.println("  evaluate  print the validation accuracy and confusion matrix of --model");
+        out.println("  predict   write the predictions of --model for --testing to --output");
+        out.println("  sweep     train --algorithm for every combination of --grid \"name=v,v;name=v,v\" or for");
+        out.println("            --samples draws of --random \"name=low:high;...\" and print a table of the results");
+        out.println("  crossvalidate  print the --folds (default 10) fold cross validation accuracy of --algorithm,");
+        out.println("            stratified by class unless --stratified false, shuffled with --seed");
+        out.println("  convert   build the binary caches of --training and --testing");
+        out.println("Settings: algorithm, vocabulary, training, testing, labels, output, model, threads, beta,");
+        out.println("          lambda, eta, iterations, optimizer, batch-size, seed, tolerance, patience, max-millis,");
+        out.println("          validation (the share of --training kept for validation, default 1/6),");
+        out.println("          chunk-rows (train reading --training this many documents at a time, 0 loads it all),");
+        out.println("          selection (train on the words picked by none, mi:k, chi2:k or df:k),");
+        out.println("          hashing (hash the words into 2^hashing columns instead of the vocabulary, 0 is off),");
+        out.println("          weights (save the LR weights as double, float or int8, checked on the validation set)");
+        out.println("--training and --testing can also be raw text: a directory with one subdirectory of files per");
+        out.println("class (named like its line of --labels) or a .jsonl file of {\"text\", \"label\", \"id\"} objects");
+        out.println("Exit codes: 0 success, 1 failure, 2 invalid arguments, 3 input file not found");
+    }
+
+    /**
+     * This method trains a model, prints its validation accuracy and saves it
+     * @param config the settings
+     * @param save true to save the model to the model file of the settings
+     * @return the validation accuracy
+     * @throws IOException if a file can not be read or the model can not be saved
+     */
+    private static double train(RunConfig config, boolean save) throws IOException {
+        double accuracy;
+        if (config.getChunkRows() > 0) {
+            accuracy = trainOutOfCore(config, save);
+        }
+        else if (config.getAlgorithm().equals("nb")) {
+            NaiveBayes naiveBayes = new NaiveBayes(config);
+            naiveBayes.train();
+            accuracy = naiveBayes.calculateAccuracy();
+            if (save) {
+                naiveBayes.saveModel(config.getModelFile());
+            }
+        }
+        else {
+            LogisticRegression logisticRegression = new LogisticRegression(config);
+            logisticRegression.createDataSet();
+            logisticRegression.train();
+            accuracy = logisticRegression.getValidationAccuracy();
+            if (save) {
+                if (logisticRegression.getWeightPrecision() != InferenceWeights.Precision.DOUBLE) {
+                    logisticRegression.checkPrecision();
+                }
+                logisticRegression.saveModel(config.getModelFile());
+            }
+        }
+        if (save) {
+            System.out.println("Saved the model to " + config.getModelFile());
+        }
+        return accuracy;
+    }
+
+    /**
+     * This method trains a model without loading the training file into memory: the file is turned into
+     * its binary cache one row at a time (if it is not already) and the training and validation sets
+     * are read from the cache --chunk-rows documents at a time
+     * @param config the settings
+     * @param save true to save the model to the model file of the settings
+     * @return the validation accuracy
+     * @throws IOException if a file can not be read or the model can not be saved
+     */
+    private static double trainOutOfCore(RunConfig config, boolean save) throws IOException {
+        if (TextCorpus.isText(config.getTrainingFile())) {
+            throw new IllegalArgumentException("chunk-rows needs a csv training file, "
+                    + config.getTrainingFile() + " is a text corpus");
+        }
+        Path cache = SparseDatasetCache.ensure(config.getTrainingFile(), true);
+        int rows;
+        try (SparseChunkReader all = new SparseChunkReader(cache, 0, -1, config.getChunkRows())) {
+            rows = all.getRows();
+        }
+        int validationStart = RunConfig.validationStart(rows, config.getValidation());
+        if (validationStart == 0 || validationStart == rows) {
+            throw new IllegalArgumentException(config.getTrainingFile() + " has no training or no validation documents");
+        }
+        System.out.println("Training out-of-core on " + validationStart + " documents, "
+                + config.getChunkRows() + " at a time...");
+        double accuracy;
+        try (SparseChunkReader training = new SparseChunkReader(cache, 0, validationStart, config.getChunkRows());
+             SparseChunkReader validation = new SparseChunkReader(cache, validationStart, rows, config.getChunkRows())) {
+            if (config.getAlgorithm().equals("nb")) {
+                NaiveBayes naiveBayes = new NaiveBayes(config);
+                naiveBayes.createDataSet(training);
+                naiveBayes.calculateProbabilities();
+                accuracy = naiveBayes.calculateAccuracy(validation);
+                if (save) {
+                    naiveBayes.saveModel(config.getModelFile());
+                }
+            }
+            else {
+                LogisticRegression logisticRegression = new LogisticRegression(config);
+                logisticRegression.createDataSet(training, validation);
+                logisticRegression.train();
+                accuracy = logisticRegression.getValidationAccuracy();
+                if (save) {
+                    if (logisticRegression.getWeightPrecision() != InferenceWeights.Precision.DOUBLE) {
+                        logisticRegression.checkPrecision();
+                    }
+                    logisticRegression.saveModel(config.getModelFile());
+                }
+            }
+        }
+        return accuracy;
+    }
+
+    /**
+     * This method prints the accuracy and confusion matrix of a saved model on the validation set
+     * @param config the settings
+     * @throws IOException if the model or the training file can not be read
+     */
+    private static void evaluate(RunConfig config) throws IOException {
+        ModelFile model = ModelFile.open(Paths.get(config.getModelFile()));
+        SparseDataset trainingSet = loadDocuments(model, config.getTrainingFile(), true, config);
+        int start = RunConfig.validationStart(trainingSet.getRows(), config.getValidation());
+        int end = trainingSet.getRows();
+        if (end <= start) {
+            throw new IllegalArgumentException(config.getTrainingFile() + " has no validation documents");
+        }
+        int[] predictions = model.predictAll(trainingSet, start, end, config.getThreads());
+        int classes = model.getNumClasses();
+        int[][] confusionMatrix = new int[classes][classes];
+        int correct = 0;
+        for (int row = start; row < end; row++) {
+            int label = trainingSet.getLabel(row);
+            int prediction = predictions[row - start];
+            confusionMatrix[label - 1][prediction - 1]++;
+            if (label == prediction) {
+                correct++;
+            }
+        }
+        System.out.println("Validation Set Accuracy: " + (double) correct / (end - start));
+        System.out.println("Confusion Matrix:");
+        for (int[] row : confusionMatrix) {
+            System.out.println(Arrays.toString(row));
+        }
+    }
+
+    /**
+     * This method writes the predictions of a saved model for the testing set
+     * @param config the settings
+     * @throws IOException if a file can not be read or written
+     */
+    private static void predict(RunConfig config) throws IOException {
+        ModelFile model = ModelFile.open(Paths.get(config.getModelFile()));
+        SparseDataset testingSet = loadDocuments(model, config.getTestingFile(), false, config);
+        int[] predictions = model.predictAll(testingSet, 0, testingSet.getRows(), config.getThreads());
+        NaiveBayes.writePredictions(testingSet, predictions, config.getPredictionsFile());
+        System.out.println("Wrote " + predictions.length + " predictions to " + config.getPredictionsFile());
+    }
+
+    /**
+     * This method reads the documents a saved model scores: a csv file through its binary cache or a raw text
+     * corpus (see TextCorpus), hashed the same way as the model's training documents (see FeatureHasher)
+     * @param model the model
+     * @param fileName the csv file, or the directory or JSONL file of a text corpus
+     * @param hasLabel true if the documents have classes
+     * @param config the settings, the vocabulary and labels files and the threads
+     * @return the documents the model can score
+     * @throws IOException if a file can not be read
+     */
+    private static SparseDataset loadDocuments(ModelFile model, String fileName, boolean hasLabel, RunConfig config)
+            throws IOException {
+        FeatureHasher hasher = model.getFeatureHasher();
+        if (TextCorpus.isText(fileName)) {
+            return TextCorpus.load(fileName, hasLabel, config.getVocabularyFile(), config.getClassificationFile(),
+                    hasher, config.getThreads());
+        }
+        SparseDataset dataset = SparseDatasetCache.load(fileName, hasLabel);
+        if (hasher == null) {
+            return dataset;
+        }
+        hasher.readVocabulary(config.getVocabularyFile());
+        return hasher.transform(dataset);
+    }
+
+    /**
+     * This method runs a sweep (see SweepRunner) and prints a table of the results
+     * @param config the settings the jobs start from
+     * @param sweep the flags of the sweep: parameter and values, grid, or random and samples
+     * @throws FileNotFoundException if the training file does not exist
+     * @throws IllegalArgumentException if the flags do not describe a sweep
+     */
+    private static void sweep(RunConfig config, Map<String, String> sweep) throws FileNotFoundException {
+        List<Map<String, String>> jobs;
+        if (sweep.containsKey("grid")) {
+            jobs = SweepRunner.grid(SweepRunner.parse(sweep.get("grid")));
+        }
+        else if (sweep.containsKey("random")) {
+            int samples;
+            try {
+                samples = Integer.parseInt(sweep.getOrDefault("samples", "10"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("samples must be a number, got " + sweep.get("samples"));
+            }
+            jobs = SweepRunner.random(SweepRunner.parse(sweep.get("random")), samples, config.getSeed());
+        }
+        else if (sweep.containsKey("parameter") && sweep.containsKey("values")) {
+            jobs = SweepRunner.grid(SweepRunner.parse(sweep.get("parameter") + "=" + sweep.get("values")));
+        }
+        else {
+            throw new IllegalArgumentException("sweep needs --grid, --random or --parameter and --values");
+        }
+        System.out.println("Running " + jobs.size() + " jobs...");
+        List<SweepRunner.Result> results = new SweepRunner(config).run(jobs);
+        SweepRunner.printTable(results, System.out);
+    }
+
+    /**
+     * This method runs a cross validation (see CrossValidator) and prints its result
+     * @param config the settings of the algorithm
+     * @param flags the flags of the cross validation: folds and stratified
+     * @throws FileNotFoundException if the training file does not exist
+     * @throws IllegalArgumentException if the flags are not valid
+     */
+    private static void crossValidate(RunConfig config, Map<String, String> flags) throws FileNotFoundException {
+        int folds;
+        try {
+            folds = Integer.parseInt(flags.getOrDefault("folds", "10"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("folds must be a number, got " + flags.get("folds"));
+        }
+        String stratified = flags.getOrDefault("stratified", "true");
+        if (!stratified.equals("true") && !stratified.equals("false")) {
+            throw new IllegalArgumentException("stratified must be true or false, got " + stratified);
+        }
+        System.out.println("Running " + folds + " fold cross validation...");
+        CrossValidator.Result result = new CrossValidator(config, folds, stratified.equals("true")).run();
+        result.print(System.out);
+        System.out.println("Time: " + result.getMillis() + " ms");
+    }
+
+    /**
+     * This method builds the binary caches of the training and testing files
+     * @param config the settings
+     * @throws IOException if a file can not be read or a cache can not be written
+     */
+    private static void convert(RunConfig config) throws IOException {
+        SparseDataset training = SparseDatasetCache.load(config.getTrainingFile(), true);
+        System.out.println(config.getTrainingFile() + ": " + training.getRows() + " documents");
+        SparseDataset testing = SparseDatasetCache.load(config.getTestingFile(), false);
+        System.out.println(config.getTestingFile() + ": " + testing.getRows() + " documents");
     }
 
     /**
      * Prompts the user to choose which algorithm to run.
      * If the user chooses Naive Bayes, they are prompted to enter a beta value.
      * If the user chooses Logistic Regression, they are prompted to enter a lambda value.
+     * An invalid choice asks again until the user enters a valid one.
+     * System.in is left open, the scanner only reads from it.
+     * @return EXIT_OK once a model was trained or the user chose to exit
      */
     public static int prompt() {
-        //Run in a loop until the user chooses to exit
         System.out.println("This program runs Naive Bayes and Logistic Regression on the Newsgroups dataset.");
-        System.out.println("Please enter the number of the algorithm you would like to run:");
-        System.out.println("[1] Naive Bayes");
-        System.out.println("[2] Logistic Regression");
-        System.out.println("[3] Exit");
         Scanner scanner = new Scanner(System.in);
-        int choice = scanner.nextInt();
-        switch (choice) {
-            case 1 -> {
-                //Naive Bayes
-                String beta;
-                System.out.println("Please enter the beta value you would like to use:");
-                beta = scanner.next();
-                try {
-                    NaiveBayes naiveBayes = new NaiveBayes(beta);
-                } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            case 2 -> {
-                //Logistic Regression
-                System.out.println("Please enter the lambda value you would like to use:");
-                float lambda = scanner.nextFloat();
-                System.out.println("Please enter the eta value you would like to use:");
-                float eta = scanner.nextFloat();
-                System.out.println("Please enter the iteration number you would like to use:");
-                int iterations = scanner.nextInt();
-                LogisticRegression logisticRegression = new LogisticRegression(lambda,eta,iterations);
+        //Run in a loop until the user makes a valid choice
+        while (true) {
+            System.out.println("Please enter the number of the algorithm you would like to run:");
+            System.out.println("[1] Naive Bayes");
+            System.out.println("[2] Logistic Regression");
+            System.out.println("[3] Exit");
+            if (!scanner.hasNext()) {
+                return EXIT_OK;
             }
-            case 3 -> {
-                //Exit
-                System.out.println("Exiting...");
-                return 0;
-            }
-            default -> {
+            if (!scanner.hasNextInt()) {
+                scanner.next();
                 System.out.println("Invalid choice. Please try again.");
-                prompt();
+                continue;
+            }
+            int choice = scanner.nextInt();
+            switch (choice) {
+                case 1 -> {
+                    //Naive Bayes
+                    String beta;
+                    System.out.println("Please enter the beta value you would like to use:");
+                    beta = scanner.next();
+                    try {
+                        NaiveBayes naiveBayes = new NaiveBayes(beta);
+                        naiveBayes.saveModel("naivebayes.model");
+                        System.out.println("Saved the model to naivebayes.model");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                case 2 -> {
+                    //Logistic Regression
+                    Float lambda = readFloat(scanner, "Please enter the lambda value you would like to use:");
+                    Float eta = lambda == null ? null
+                            : readFloat(scanner, "Please enter the eta value you would like to use:");
+                    Integer iterations = eta == null ? null
+                            : readIterations(scanner, "Please enter the iteration number you would like to use:");
+                    if (iterations == null) {
+                        return EXIT_OK;
+                    }
+                    LogisticRegression logisticRegression = new LogisticRegression(lambda,eta,iterations);
+                    try {
+                        logisticRegression.saveModel("logisticregression.model");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    System.out.println("Saved the model to logisticregression.model");
+                }
+                case 3 -> {
+                    //Exit
+                    System.out.println("Exiting...");
+                    return EXIT_OK;
+                }
+                default -> {
+                    System.out.println("Invalid choice. Please try again.");
+                    continue;
+                }
+            }
+            return EXIT_OK;
+        }
+    }
+
+    /**
+     * This method asks the user for a number until they enter one
+     * @param scanner the scanner reading the user's input
+     * @param question the question to ask
+     * @return the number, null if the input ended
+     */
+    private static Float readFloat(Scanner scanner, String question) {
+        while (true) {
+            System.out.println(question);
+            if (!scanner.hasNext()) {
+                return null;
+            }
+            if (scanner.hasNextFloat()) {
+                return scanner.nextFloat();
+            }
+            System.out.println("Invalid number " + scanner.next() + ". Please try again.");
+        }
+    }
+
+    /**
+     * This method asks the user for a number of iterations until they enter a whole number of at least 0
+     * @param scanner the scanner reading the user's input
+     * @param question the question to ask
+     * @return the number of iterations, null if the input ended
+     */
+    private static Integer readIterations(Scanner scanner, String question) {
+        while (true) {
+            System.out.println(question);
+            if (!scanner.hasNext()) {
+                return null;
+            }
+            if (scanner.hasNextInt()) {
+                int iterations = scanner.nextInt();
+                if (iterations >= 0) {
+                    return iterations;
+                }
+                System.out.println("Invalid iteration number " + iterations + ". Please try again.");
+            }
+            else {
+                System.out.println("Invalid iteration number " + scanner.next() + ". Please try again.");
             }
         }
-        scanner.close();
-        return 1;
     }
 
 }
@@ -0,0 +1,503 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class saves a trained model to a binary file and loads it back with a memory map.
+ * The tables of the model are never copied out of the map: they are read through DoubleBuffer
+ * views (or FloatBuffer and ByteBuffer views for smaller LR weights, see InferenceWeights), so opening a
+ * model takes milliseconds and processes that open the same file share its pages.
+ * A Naive Bayes file stores the log2 probability tables the model predicts with.
+ * A Logistic Regression file stores the weights and the statistics of the FeatureScaler
+ * the model was trained with, so documents are scaled the same way before they are scored.
+ * A model trained on a feature selection (see FeatureSelector) also stores the word of every column,
+ * documents are always scored with the word indices of the vocabulary.
+ * A model trained on hashed words (see FeatureHasher) stores the number of hashing bits, its columns are the
+ * hashed columns and documents must be hashed the same way before they are scored (see getFeatureHasher).
+ * File layout (little endian):
+ *      int magic, int version, int type (1 Naive Bayes, 2 Logistic Regression),
+ *      int classes, int columns, int scaling methods, int[scaling methods] method ordinals,
+ *      int words of the vocabulary (0 without a feature selection), int selected words, int[selected words]
+ *          the word of every column (version 2, a version 1 file has no selection),
+ *      int hashing bits (0 without feature hashing, version 3, older files are not hashed),
+ *      int weight precision (InferenceWeights.Precision ordinal, version 4, older files have double weights),
+ *      padding to a multiple of 8 bytes, then
+ *      Naive Bayes: double[classes] log2 P(Y), double[columns*classes] log2 P(X|Y) stored word by word
+ *      Logistic Regression: the weights stored feature by feature (column 0 is the bias), as
+ *          double[columns*classes], float[columns*classes] or double[classes] scales then byte[columns*classes],
+ *          padding to a multiple of 8 bytes, then for every scaling method in order its statistics,
+ *          double[columns] each
+ *          (TFIDF: inverse document frequencies, NORMALIZE: column sums, MINMAX: column mins then column maxes)
+ */
+public class ModelFile implements Classifier {
+    public enum Type { NAIVE_BAYES, LOGISTIC_REGRESSION }
+
+    private static final int MAGIC = 0x4C444F4D;
+    private static final int VERSION = 4;
+
+    private final Type type;
+    private final int classes;
+    private final int columns;
+    //the map is kept so the views stay valid for as long as the model is used
+    private final MappedByteBuffer map;
+    private final DoubleBuffer logClassProbabilities;
+    private final DoubleBuffer table;
+    //the weights of a Logistic Regression model
+    private final InferenceWeights weights;
+    private final FeatureScaler scaler;
+    //the column of every word, null if every word is a column
+    private final FeatureSelector selector;
+    //the hashing bits the model was trained with, 0 if the words were not hashed
+    private final int hashing;
+
+    private ModelFile(Type type, int classes, int columns, MappedByteBuffer map, DoubleBuffer logClassProbabilities,
+                      DoubleBuffer table, InferenceWeights weights, FeatureScaler scaler, FeatureSelector selector,
+                      int hashing) {
+        this.type = type;
+        this.classes = classes;
+        this.columns = columns;
+        this.map = map;
+        this.logClassProbabilities = logClassProbabilities;
+        this.table = table;
+        this.weights = weights;
+        this.scaler = scaler;
+        this.selector = selector;
+        this.hashing = hashing;
+    }
+
+    /**
+     * This method writes a Naive Bayes model
+     * @param file the model file
+     * @param classes the number of classes
+     * @param vocabularySize the number of words
+     * @param logClassProbabilities log2 P(Y) of every class
+     * @param logWordProbabilities log2 P(X|Y) at [word * classes + class]
+     * @param selector the fitted feature selection, null if every word is a column
+     * @param hasher the hashing of the words, null if the words were not hashed
+     * @throws IOException if the file can not be written
+     */
+    public static void writeNaiveBayes(Path file, int classes, int vocabularySize, double[] logClassProbabilities,
+                                       double[] logWordProbabilities, FeatureSelector selector,
+                                       FeatureHasher hasher) throws IOException {
+        write(file, Type.NAIVE_BAYES, classes, vocabularySize, new FeatureScaler.Method[0], selector, hasher, null,
+                logClassProbabilities, logWordProbabilities);
+    }
+
+    /**
+     * This method writes a Logistic Regression model
+     * @param file the model file
+     * @param weights the weights at [feature * classes + class] in the precision they are saved in,
+     *                column 0 is the bias
+     * @param scaler the fitted scaler of the training matrix
+     * @param selector the fitted feature selection, null if every word is a column
+     * @param hasher the hashing of the words, null if the words were not hashed
+     * @throws IOException if the file can not be written
+     */
+    public static void writeLogisticRegression(Path file, InferenceWeights weights, FeatureScaler scaler,
+                                               FeatureSelector selector, FeatureHasher hasher) throws IOException {
+        FeatureScaler.Method[] methods = scaler.getMethods();
+        List<double[]> arrays = new ArrayList<>();
+        for (FeatureScaler.Method method : methods) {
+            switch (method) {
+                case TFIDF -> arrays.add(scaler.getInverseDocumentFrequency());
+                case NORMALIZE -> arrays.add(scaler.getColumnSums());
+                case MINMAX -> {
+                    arrays.add(scaler.getColumnMin());
+                    arrays.add(scaler.getColumnMax());
+                }
+            }
+        }
+        write(file, Type.LOGISTIC_REGRESSION, weights.getClasses(), weights.getColumns(), methods, selector, hasher,
+                weights, arrays.toArray(new double[0][]));
+    }
+
+    /**
+     * This method writes the header, the LR weights (null for NB) and the arrays of a model. The file is written
+     * to a temporary file first so a crash never leaves a half written model behind, the temporary file has a
+     * name of its own so models saved to the same file at the same time do not mix.
+     */
+    private static void write(Path file, Type type, int classes, int columns, FeatureScaler.Method[] methods,
+                              FeatureSelector selector, FeatureHasher hasher, InferenceWeights weights,
+                              double[]... arrays) throws IOException {
+        Path temporary = SparseDatasetCache.createTemporary(file, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putInt(type.ordinal() + 1);
+                buffer.putInt(classes);
+                buffer.putInt(columns);
+                buffer.putInt(methods.length);
+                for (FeatureScaler.Method method : methods) {
+                    buffer.putInt(method.ordinal());
+                }
+                int[] selectedWords = selector == null ? new int[0] : selector.getSelectedWords();
+                buffer.putInt(selector == null ? 0 : selector.getWords());
+                buffer.putInt(selectedWords.length);
+                for (int word : selectedWords) {
+                    if (buffer.remaining() < Integer.BYTES) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putInt(word);
+                }
+                if (buffer.remaining() < Integer.BYTES) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(hasher == null ? 0 : hasher.getBits());
+                if (buffer.remaining() < Integer.BYTES) {
+                    flush(channel, buffer);
+                }
+                buffer.putInt(weights == null ? 0 : weights.getPrecision().ordinal());
+                pad(buffer);
+                if (weights != null) {
+                    writeWeights(channel, buffer, weights);
+                }
+                for (double[] values : arrays) {
+                    writeDoubles(channel, buffer, values);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * This method writes the LR weights in their precision, followed by padding to a multiple of 8 bytes.
+     * The buffer is only flushed when it is full, so its position and the file stay aligned the same way.
+     */
+    private static void writeWeights(FileChannel channel, ByteBuffer buffer, InferenceWeights weights)
+            throws IOException {
+        int size = weights.getClasses() * weights.getColumns();
+        switch (weights.getPrecision()) {
+            case DOUBLE -> {
+                double[] values = new double[size];
+                weights.getDoubles().get(0, values);
+                writeDoubles(channel, buffer, values);
+            }
+            case FLOAT -> {
+                FloatBuffer floats = weights.getFloats();
+                for (int k = 0; k < size; k++) {
+                    if (buffer.remaining() < Float.BYTES) {
+                        flush(channel, buffer);
+                    }
+                    buffer.putFloat(floats.get(k));
+                }
+            }
+            case INT8 -> {
+                writeDoubles(channel, buffer, weights.getScales());
+                ByteBuffer bytes = weights.getBytes();
+                int written = 0;
+                while (written < size) {
+                    int block = Math.min(buffer.remaining(), size - written);
+                    buffer.put(bytes.slice(written, block));
+                    written += block;
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer);
+                    }
+                }
+            }
+        }
+        if (!buffer.hasRemaining()) {
+            flush(channel, buffer);
+        }
+        pad(buffer);
+    }
+
+    /**
+     * This method pads the buffer with zeros to a multiple of 8 bytes
+     */
+    private static void pad(ByteBuffer buffer) {
+        while (buffer.position() % Double.BYTES != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * This method writes an array through the buffer, flushing the buffer to the channel every time it is full
+     */
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        int written = 0;
+        while (written < values.length) {
+            int block = Math.min(buffer.remaining() / Double.BYTES, values.length - written);
+            buffer.asDoubleBuffer().put(values, written, block);
+            buffer.position(buffer.position() + block * Double.BYTES);
+            written += block;
+            if (buffer.remaining() < Double.BYTES) {
+                flush(channel, buffer);
+            }
+        }
+    }
+
+    /**
+     * This method writes the buffer to the channel and clears it
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * This method memory maps a model file. The probability tables and weights stay in the map,
+     * only the (small) scaling statistics of a Logistic Regression model are copied.
+     * @param file the model file
+     * @return the model
+     * @throws IOException if the file can not be read or is not a model file
+     */
+    public static ModelFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < 24 || map.getInt() != MAGIC) {
+                throw new IOException("Not a model file: " + file);
+            }
+            int version = map.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported model file version " + version + ": " + file);
+            }
+            int typeNumber = map.getInt();
+            if (typeNumber < 1 || typeNumber > Type.values().length) {
+                throw new IOException("Unknown model type " + typeNumber + ": " + file);
+            }
+            Type type = Type.values()[typeNumber - 1];
+            int classes = map.getInt();
+            int columns = map.getInt();
+            FeatureScaler.Method[] methods = new FeatureScaler.Method[map.getInt()];
+            for (int m = 0; m < methods.length; m++) {
+                methods[m] = FeatureScaler.Method.values()[map.getInt()];
+            }
+            FeatureSelector selector = null;
+            if (version >= 2) {
+                int words = map.getInt();
+                int[] selectedWords = new int[map.getInt()];
+                for (int c = 0; c < selectedWords.length; c++) {
+                    selectedWords[c] = map.getInt();
+                }
+                if (words > 0) {
+                    selector = new FeatureSelector(selectedWords, words);
+                }
+            }
+            int hashing = version >= 3 ? map.getInt() : 0;
+            int precisionNumber = version >= 4 ? map.getInt() : 0;
+            if (precisionNumber < 0 || precisionNumber >= InferenceWeights.Precision.values().length) {
+                throw new IOException("Unknown weight precision " + precisionNumber + ": " + file);
+            }
+            InferenceWeights.Precision precision = InferenceWeights.Precision.values()[precisionNumber];
+            int position = (map.position() + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+            DoubleBuffer doubles = map.position(position).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            int tableSize = columns * classes;
+            if (type == Type.NAIVE_BAYES) {
+                DoubleBuffer logClassProbabilities = view(doubles, 0, classes);
+                DoubleBuffer table = view(doubles, classes, tableSize);
+                return new ModelFile(type, classes, columns, map, logClassProbabilities, table, null, null, selector,
+                        hashing);
+            }
+            //the scaling statistics start after the weights, the bytes of the weights depend on their precision
+            InferenceWeights weights;
+            int statistics;
+            switch (precision) {
+                case FLOAT -> {
+                    statistics = position + align(tableSize * Float.BYTES);
+                    checkSize(map, statistics, file);
+                    FloatBuffer floats = map.slice(position, tableSize * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                            .asFloatBuffer().asReadOnlyBuffer();
+                    weights = InferenceWeights.ofFloats(floats, classes, columns);
+                }
+                case INT8 -> {
+                    int bytesStart = position + classes * Double.BYTES;
+                    statistics = bytesStart + align(tableSize);
+                    checkSize(map, statistics, file);
+                    double[] scales = copy(doubles, 0, classes);
+                    weights = InferenceWeights.ofBytes(map.slice(bytesStart, tableSize).asReadOnlyBuffer(), scales,
+                            classes, columns);
+                }
+                default -> {
+                    statistics = position + tableSize * Double.BYTES;
+                    weights = InferenceWeights.ofDoubles(view(doubles, 0, tableSize), classes, columns);
+                }
+            }
+            doubles = map.position(statistics).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            int offset = 0;
+            double[] inverseDocumentFrequency = null;
+            double[] columnSums = null;
+            double[] columnMin = null;
+            double[] columnMax = null;
+            for (FeatureScaler.Method method : methods) {
+                switch (method) {
+                    case TFIDF -> inverseDocumentFrequency = copy(doubles, offset, columns);
+                    case NORMALIZE -> columnSums = copy(doubles, offset, columns);
+                    case MINMAX -> {
+                        columnMin = copy(doubles, offset, columns);
+                        offset += columns;
+                        columnMax = copy(doubles, offset, columns);
+                    }
+                }
+                offset += columns;
+            }
+            FeatureScaler scaler = new FeatureScaler(methods, inverseDocumentFrequency, columnSums, columnMin, columnMax);
+            return new ModelFile(type, classes, columns, map, null, null, weights, scaler, selector, hashing);
+        }
+    }
+
+    /**
+     * @return the number of bytes rounded up to a multiple of 8
+     */
+    private static int align(int bytes) {
+        return (bytes + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+    }
+
+    /**
+     * This method checks that the map has at least end bytes
+     */
+    private static void checkSize(MappedByteBuffer map, int end, Path file) throws IOException {
+        if (end > map.limit()) {
+            throw new IOException("Model file is truncated: " + file);
+        }
+    }
+
+    /**
+     * @return a read only view of length values of the buffer starting at offset
+     */
+    private static DoubleBuffer view(DoubleBuffer doubles, int offset, int length) throws IOException {
+        if (offset + length > doubles.limit()) {
+            throw new IOException("Model file is truncated");
+        }
+        return doubles.slice(offset, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of length values of the buffer starting at offset
+     */
+    private static double[] copy(DoubleBuffer doubles, int offset, int length) throws IOException {
+        double[] values = new double[length];
+        view(doubles, offset, length).get(values);
+        return values;
+    }
+
+    /**
+     * This method calculates the score of a document for every class. For Naive Bayes this is
+     * log2(P(Y)) + Sigma_i (# of X_i)log2(P(X_i | Y)), for Logistic Regression it is the logit
+     * w0 + Sigma_i w_i * (scaled X_i), the class with the highest score is the prediction either way.
+     * Words outside of the model's vocabulary and words that were not selected are skipped.
+     * @param indices the indices (0 based) of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param scores the array the score of every class (0 based) is written to
+     */
+    @Override
+    public void classScores(int[] indices, int[] counts, int start, int end, double[] scores) {
+        if (type == Type.NAIVE_BAYES) {
+            logClassProbabilities.get(0, scores, 0, classes);
+            for (int n = start; n < end; n++) {
+                int column = selector == null ? indices[n] : selector.column(indices[n]);
+                if (column < 0 || column >= columns) {
+                    continue;
+                }
+                int offset = column * classes;
+                double count = counts[n];
+                for (int j = 0; j < classes; j++) {
+                    scores[j] += count * table.get(offset + j);
+                }
+            }
+            return;
+        }
+        LogisticRegression.logits(indices, counts, start, end, scaler, selector, weights, scores);
+    }
+
+    /**
+     * @return ln(2) for Naive Bayes, whose scores are log2 probabilities, 1 for Logistic Regression
+     */
+    @Override
+    public double scoreScale() {
+        return type == Type.NAIVE_BAYES ? Math.log(2) : 1;
+    }
+
+    /**
+     * This method predicts the classes of a range of documents in parallel, see NaiveBayes.predictAll
+     * @param dataset the documents to predict
+     * @param from the first row to predict
+     * @param to the row after the last row to predict
+     * @param threads the number of threads, 0 means one per core
+     * @return the class prediction (1 based) of every row from-to, in order
+     */
+    public int[] predictAll(SparseDataset dataset, int from, int to, int threads) {
+        int[] predictions = new int[to - from];
+        int[] indices = dataset.getIndices();
+        int[] counts = dataset.getCounts();
+        ForkJoinPool pool = Parallel.sharedPool(threads);
+        Parallel.forEachBlock(pool, from, to, pool.getParallelism() * 4, (block, start, end) -> {
+            for (int row = start; row < end; row++) {
+                predictions[row - from] = predictClass(indices, counts, dataset.rowStart(row), dataset.rowEnd(row));
+            }
+        });
+        return predictions;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public int getNumClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the number of words, the columns of a Logistic Regression model include the bias
+     *         and the columns of a model with a feature selection are fewer than its words
+     */
+    @Override
+    public int getVocabularySize() {
+        if (selector != null) {
+            return selector.getWords();
+        }
+        return type == Type.NAIVE_BAYES ? columns : columns - 1;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the precision of the weights of a Logistic Regression model, DOUBLE for Naive Bayes
+     */
+    public InferenceWeights.Precision getWeightPrecision() {
+        return weights == null ? InferenceWeights.Precision.DOUBLE : weights.getPrecision();
+    }
+
+    /**
+     * @return the weights of a Logistic Regression model in their saved precision, null for Naive Bayes
+     */
+    InferenceWeights getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return a new hasher of the words the model was trained with, null if the words were not hashed.
+     *         Documents with vocabulary word indices must be hashed with it before they are scored.
+     */
+    public FeatureHasher getFeatureHasher() {
+        return hashing == 0 ? null : new FeatureHasher(hashing);
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * This class is gradient ascent with momentum:
+ * V = momentum * V + gradient
+ * W = W + eta * V
+ * The velocity keeps moving the weights in the direction of the last steps,
+ * which smooths out the noise of mini-batch gradients.
+ */
+public class MomentumOptimizer implements Optimizer {
+    private final double eta;
+    private final double momentum;
+    private final double[] velocity;
+
+    /**
+     * Constructor for the MomentumOptimizer class
+     * @param eta the learning rate
+     * @param momentum how much of the last velocity is kept, usually 0.9
+     * @param size the number of weights
+     */
+    public MomentumOptimizer(double eta, double momentum, int size) {
+        this.eta = eta;
+        this.momentum = momentum;
+        this.velocity = new double[size];
+    }
+
+    @Override
+    public void startStep() {
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradient, int from, int to) {
+        for (int i = from; i < to; i++) {
+            velocity[i] = momentum * velocity[i] + gradient[i];
+            weights[i] += eta * velocity[i];
+        }
+    }
+}
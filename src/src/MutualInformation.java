@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class ranks the words of a vocabulary by their mutual information with the class.
+ * The MI of word i is Sigma_j P(Y=j) * Sigma_x,y P(x,y) log2((P(x,y)+beta)/(P(x)P(y)+beta)) over the four
+ * combinations of the word occuring or not and the class being j or not, where the probabilities are
+ * shares of documents. Beta smooths the logs in case of a zero.
+ * The counts it needs are the number of documents of every class and the number of documents of every
+ * class the word occurs in, the counts of the other classes are the totals minus the class, so a word
+ * costs O(C) instead of O(C^2). The words are split into blocks that are scored in parallel and nothing
+ * is allocated per word.
+ * The best k words are picked with a bounded heap of k words instead of sorting the whole vocabulary,
+ * words with the same score are ranked by their index so the ranking is always the same.
+ */
+public final class MutualInformation {
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * A word and its score
+     */
+    public static final class WordScore {
+        private final int wordId;
+        private final String word;
+        private final double score;
+
+        private WordScore(int wordId, String word, double score) {
+            this.wordId = wordId;
+            this.word = word;
+            this.score = score;
+        }
+
+        /**
+         * @return the index of the word (0 based, the line of the vocabulary file)
+         */
+        public int getWordId() {
+            return wordId;
+        }
+
+        /**
+         * @return the word, null if the vocabulary file has no line for it
+         */
+        public String getWord() {
+            return word;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return wordId + "\t" + word + "\t" + score;
+        }
+    }
+
+    private MutualInformation() {
+    }
+
+    /**
+     * This method calculates the mutual information of every word
+     * @param classTotals the number of documents of every class
+     * @param documentCounts the number of documents of class j word i occurs in, at [i * classes + j]
+     * @param beta the smoothing of the logs
+     * @param threads the number of threads, 0 means one per core
+     * @return the MI of every word
+     */
+    public static double[] scores(int[] classTotals, int[] documentCounts, double beta, int threads) {
+        int classes = classTotals.length;
+        int words = documentCounts.length / classes;
+        double totalDocuments = 0;
+        for (int total : classTotals) {
+            totalDocuments += total;
+        }
+        double[] classProbabilities = new double[classes];
+        for (int j = 0; j < classes; j++) {
+            classProbabilities[j] = classTotals[j] / totalDocuments;
+        }
+        double documents = totalDocuments;
+        double[] scores = new double[words];
+        ForkJoinPool pool = Parallel.newPool(threads);
+        try {
+            Parallel.forEachBlock(pool, 0, words, pool.getParallelism() * 4, (block, from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int offset = i * classes;
+                    //the number of documents the word occurs in
+                    double occurs = 0;
+                    for (int j = 0; j < classes; j++) {
+                        occurs += documentCounts[offset + j];
+                    }
+                    double probabilityOccurs = occurs / documents;
+                    double probabilityMissing = (documents - occurs) / documents;
+                    double wordMI = 0;
+                    for (int j = 0; j < classes; j++) {
+                        double inClass = documentCounts[offset + j];
+                        double py = classProbabilities[j];
+                        //x word not occuring in classes that are not y
+                        double missingOther = (documents - occurs - (classTotals[j] - inClass)) / documents;
+                        //x word not occuring in class y
+                        double missingClass = (classTotals[j] - inClass) / documents;
+                        //x word occuring in classes that are not y
+                        double occursOther = (occurs - inClass) / documents;
+                        //x word occuring in class y
+                        double occursClass = inClass / documents;
+                        double classMI = term(missingOther, probabilityMissing * (1 - py), beta)
+                                + term(missingClass, probabilityMissing * py, beta)
+                                + term(occursOther, probabilityOccurs * (1 - py), beta)
+                                + term(occursClass, probabilityOccurs * py, beta);
+                        wordMI += py * classMI;
+                    }
+                    scores[i] = wordMI;
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        return scores;
+    }
+
+    /**
+     * This method picks the k best words with a min heap that keeps the best k words seen so far
+     * @param scores the score of every word
+     * @param k the number of words
+     * @return the indices of the best min(k, words) words, from the best to the worst
+     */
+    public static int[] top(double[] scores, int k) {
+        k = Math.max(0, Math.min(k, scores.length));
+        //heap[0] is the worst of the kept words
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(heap, size++, scores);
+            }
+            else if (k > 0 && better(i, heap[0], scores)) {
+                heap[0] = i;
+                siftDown(heap, 0, size, scores);
+            }
+        }
+        //taking the worst word off the heap each time fills the array from the back
+        int[] best = new int[k];
+        while (size > 0) {
+            best[--size] = heap[0];
+            heap[0] = heap[size];
+            siftDown(heap, 0, size, scores);
+        }
+        return best;
+    }
+
+    /**
+     * This method picks the k best words and looks up their words
+     * @param scores the score of every word
+     * @param k the number of words
+     * @param vocabulary the word of every index, can be shorter than the vocabulary
+     * @param wordIds the vocabulary index of every score, null if the scores are indexed like the vocabulary
+     * @return the best min(k, words) words, from the best to the worst
+     */
+    public static List<WordScore> topWords(double[] scores, int k, String[] vocabulary, int[] wordIds) {
+        int[] best = top(scores, k);
+        List<WordScore> words = new ArrayList<>(best.length);
+        for (int i : best) {
+            int wordId = wordIds == null ? i : wordIds[i];
+            words.add(new WordScore(wordId, wordId < vocabulary.length ? vocabulary[wordId] : null, scores[i]));
+        }
+        return words;
+    }
+
+    /**
+     * This method reads the first words of a vocabulary file, one word per line
+     * @param fileName the vocabulary file
+     * @param words the most words to read
+     * @return the words, shorter than words if the file has fewer lines
+     * @throws java.io.FileNotFoundException if the file does not exist
+     * @throws IOException if the file can not be read
+     */
+    public static String[] readVocabulary(String fileName, int words) throws IOException {
+        List<String> vocabulary = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8))) {
+            String line;
+            while (vocabulary.size() < words && (line = reader.readLine()) != null) {
+                vocabulary.add(line);
+            }
+        }
+        return vocabulary.toArray(new String[0]);
+    }
+
+    /**
+     * @return true if word a ranks above word b, a higher score or the same score and a lower index
+     */
+    private static boolean better(int a, int b, double[] scores) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private static void siftUp(int[] heap, int position, double[] scores) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!better(heap[parent], heap[position], scores)) {
+                return;
+            }
+            swap(heap, parent, position);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int position, int size, double[] scores) {
+        while (true) {
+            int worst = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && better(heap[worst], heap[left], scores)) {
+                worst = left;
+            }
+            if (right < size && better(heap[worst], heap[right], scores)) {
+                worst = right;
+            }
+            if (worst == position) {
+                return;
+            }
+            swap(heap, worst, position);
+            position = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int value = heap[a];
+        heap[a] = heap[b];
+        heap[b] = value;
+    }
+
+    /**
+     * @return p(x,y) log2((p(x,y)+beta)/(p(x)p(y)+beta))
+     */
+    private static double term(double joint, double independent, double beta) {
+        return joint * log2((joint + beta) / (independent + beta));
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / LN2;
+    }
+}
@@ -1,44 +1,105 @@
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class trains the Naive Bayes model for the 20newsgroups dataset, then
  * predicts the labels of the testing set documents.
  * The user can specify the value of beta to use, which is the strength or the prior.
  * Additionally, it implements mutual information to print out the best 100 words,
- * the accuracy against the validation set (we used 10000 documents for training and
- * 2000 documents for validation). These are not randomized as it seemed like the examples are already
+ * the accuracy against the validation set (the last documents of the training file, by default
+ * 2000 of the 12000 documents). These are not randomized as it seemed like the examples are already
  * pretty randomized in the file, and I wanted to get consistent training results
  * for testing and debugging. The confusion matrix for the validation set is also printed after training.
- * This class just used hashmaps since there are no iterations and the operations
- * just need to be performed once. Performance could probably be improved but
- * is acceptable for the purposes of this project.
- * Training takes a few minutes, then checking validation set accuracy takes 5-10 minutes as
- * there are a lot of operations and checks per document and
- * finally the code prints out the predictions for each of the test documents.
+ * The counts and probabilities are kept in flat primitive arrays instead of hashmaps,
+ * which keeps training memory small and avoids boxing every count.
+ * The log probabilities are calculated once after training and a document is scored by
+ * only visiting the words that appear in it, so checking the validation set takes well under a second.
+ * A trained model can be updated with new labeled documents without training it again, while it predicts.
+ * The number of classes and the vocabulary size are read from the training set, so any corpus
+ * in the same csv format can be used.
+ * With a feature selection (see FeatureSelector) the tables only have a column for the selected words,
+ * the other words are skipped when a document is counted or scored.
+ * With feature hashing (see FeatureHasher) the words are hashed into a fixed number of columns, the files
+ * are hashed when they are read and every dataset given to the model must have the hashed columns.
+ * Finally the code prints out the predictions for each of the test documents.
  */
-public class NaiveBayes {
+public class NaiveBayes implements Classifier {
     //set the names of the input files
     private String vocabularyFile = "vocabulary.txt";
     private String trainingFile = "training.csv";
     private String classificationFile = "newsgrouplabels.txt";
     private String testingFile = "testing.csv";
     private String betaOption;
-    //create structures for the data we need, mostly hashmaps were used
-    private HashMap<Integer,Integer> classTotals = new HashMap<>();
-    private HashMap<Integer,Integer> totalWords = new HashMap<>();
-    private HashMap<Integer, HashMap<Integer,Integer>> wordTotals = new HashMap<>();
-    private HashMap<Integer, HashMap<Integer,Double>> wordProbabilities = new HashMap<>();
-    private HashMap<Integer,Double> classProbabilities = new HashMap<>();
-    private HashMap<Integer, String> vocabulary = new HashMap<>();
-    //private ArrayList<String[]> validationSet = new ArrayList<>();
-    //this 2d array is used for mutual information
-    private int[][] xOccurances = new int[61188][20];
+    //the number of classes and words, set when the training set is read
+    private int numClasses;
+    private int vocabularySize;
+    //the share of the training file's documents kept for validation
+    private double validation = RunConfig.DEFAULT_VALIDATION;
+    /*
+    create structures for the data we need, flat primitive arrays indexed by class (0 based)
+    the word tables are stored word by word, the value for word i (0 based) and class j
+    is at [i * numClasses + j], so the values of a word for every class are next to each other in memory
+    the counts are allocated when the training set is read and the probabilities when they are calculated,
+    so models with different betas can share the counts (see the constructor that takes a trained model)
+     */
+    private int[] classTotals;
+    private long[] totalWords;
+    private int[] wordTotals;
+    private double[] classProbabilities;
+    //the log tables a document is scored with, replaced as a whole when the model is updated
+    private volatile ScoringTables scoringTables;
+    //update holds this lock while it changes the counts, so updates run one at a time
+    private final Object updateLock = new Object();
+    //true if the counts are shared with another model, they are copied before the first update.
+    //Only read and written under updateLock, other models set it when they take the counts.
+    private boolean sharedCounts;
+    //the words of the vocabulary file, read the first time they are needed
+    private String[] vocabulary;
+    //the number of documents of class j word i occurs in at [i * numClasses + j], used for mutual information
+    private int[] xOccurances;
     //confusion matrix 2d array
-    private int[][] confusionMatrix = new int [20][20];
+    private int[][] confusionMatrix;
+    //the number of threads used to predict, 0 means one per core
+    private int threads = 0;
+    //the training file, the first documents are the training set and the rest the validation set
+    private SparseDataset trainingSet;
+    //picks the words the model is trained on before they are counted, null to use every word
+    private FeatureSelector selector;
+    //hashes the words into a fixed number of columns when the files are read, null to use the vocabulary
+    private FeatureHasher hasher;
+    //the scoring tables are split into pages of 2^PAGE_SHIFT words, an update only copies the pages it changes
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+
+    /**
+     * The log tables a document is scored with:
+     *      logClassProbabilities[j] = log2 P(Y=j)
+     *      logNumerators = log2(count of word i in class j + beta), stored word by word in pages of PAGE_WORDS words
+     *      logDenominators[j] = log2(total words of class j + beta*V)
+     * log2 P(X_i|Y=j) is the numerator of the word minus the denominator of the class, so adding a document
+     * only changes the numerators of its own words and one denominator instead of a whole class of the table.
+     * The tables are never changed after they are published. An update builds new tables that share every
+     * page it did not change, so a prediction that runs while the model is updated sees either the old model
+     * or the new one, never half of each.
+     */
+    private static final class ScoringTables {
+        private final double[] logClassProbabilities;
+        private final double[][] logNumerators;
+        private final double[] logDenominators;
+
+        private ScoringTables(double[] logClassProbabilities, double[][] logNumerators, double[] logDenominators) {
+            this.logClassProbabilities = logClassProbabilities;
+            this.logNumerators = logNumerators;
+            this.logDenominators = logDenominators;
+        }
+    }
 
     /**
      * Constructor for the NaiveBayes class
@@ -47,26 +108,141 @@ public class NaiveBayes {
      * @throws UnsupportedEncodingException
      */
     public NaiveBayes (String beta) throws FileNotFoundException, UnsupportedEncodingException {
+        this(beta, 0);
+    }
+
+    /**
+     * Constructor for the NaiveBayes class
+     * @param beta the beta value that the model should use
+     * @param threads the number of threads used to predict, 0 means one per core
+     * @throws FileNotFoundException
+     * @throws UnsupportedEncodingException
+     */
+    public NaiveBayes (String beta, int threads) throws FileNotFoundException, UnsupportedEncodingException {
         betaOption = beta;
-        //read training set into hashmaps
-        createDataSet();
-        //calculate P(Y) and P(X|Y)
-        calculateProbabilities();
+        this.threads = threads;
+        //read training set into the count arrays and calculate P(Y) and P(X|Y)
+        train();
         //calculate word mutual information
         mutualInformation();
         //calculate the accuracy of the model against the validation set
         calculateAccuracy();
         //start predicting and write predictions to txt file
+        predictTestingSet("predictions.txt");
+    }
+
+    /**
+     * Constructor for the NaiveBayes class that takes its settings (beta, threads and file names)
+     * from a RunConfig. Nothing is read or trained until train is called.
+     * @param config the settings
+     */
+    public NaiveBayes (RunConfig config) {
+        betaOption = config.getBeta();
+        threads = config.getThreads();
+        vocabularyFile = config.getVocabularyFile();
+        trainingFile = config.getTrainingFile();
+        classificationFile = config.getClassificationFile();
+        testingFile = config.getTestingFile();
+        validation = config.getValidation();
+        selector = config.getFeatureSelector();
+        hasher = config.getFeatureHasher();
+    }
+
+    /**
+     * Constructor for a NaiveBayes model that shares the counts of an already trained model and
+     * calculates its own P(Y) and P(X|Y) with another beta. It does not read any file, so trying a new
+     * beta takes milliseconds. The counts are only read, so models built this way can be used from
+     * several threads at once. Either model copies the counts before it is first updated.
+     * @param trained the trained model
+     * @param beta the beta value that the model should use
+     */
+    public NaiveBayes (NaiveBayes trained, String beta) {
+        betaOption = beta;
+        threads = trained.threads;
+        vocabularyFile = trained.vocabularyFile;
+        trainingFile = trained.trainingFile;
+        classificationFile = trained.classificationFile;
+        testingFile = trained.testingFile;
+        validation = trained.validation;
+        numClasses = trained.numClasses;
+        vocabularySize = trained.vocabularySize;
+        trainingSet = trained.trainingSet;
+        selector = trained.selector;
+        hasher = trained.hasher;
+        //take the counts and mark them shared under the lock of the trained model, so an update of the
+        //trained model either finishes before they are taken or sees the flag and copies them first
+        synchronized (trained.updateLock) {
+            classTotals = trained.classTotals;
+            totalWords = trained.totalWords;
+            wordTotals = trained.wordTotals;
+            xOccurances = trained.xOccurances;
+            trained.sharedCounts = true;
+        }
+        synchronized (updateLock) {
+            sharedCounts = true;
+        }
+        calculateProbabilities();
+    }
+
+    /**
+     * Constructor for a NaiveBayes model trained on every document of another model except some.
+     * The counts of the other model are copied and the counts of the left out documents are taken
+     * away, which only touches the words of those documents, so a cross validation fold does not
+     * count the whole dataset again. The other model's counts are only read.
+     * @param trained the model whose counts include every document
+     * @param heldOut the rows of the documents to leave out
+     */
+    public NaiveBayes (NaiveBayes trained, int[] heldOut) {
+        betaOption = trained.betaOption;
+        threads = trained.threads;
+        vocabularyFile = trained.vocabularyFile;
+        trainingFile = trained.trainingFile;
+        classificationFile = trained.classificationFile;
+        testingFile = trained.testingFile;
+        validation = trained.validation;
+        numClasses = trained.numClasses;
+        vocabularySize = trained.vocabularySize;
+        trainingSet = trained.trainingSet;
+        selector = trained.selector;
+        hasher = trained.hasher;
+        //copy the counts under the lock of the trained model so an update can not change them halfway
+        synchronized (trained.updateLock) {
+            classTotals = trained.classTotals.clone();
+            totalWords = trained.totalWords.clone();
+            wordTotals = trained.wordTotals.clone();
+            xOccurances = trained.xOccurances.clone();
+        }
+        for (int row : heldOut) {
+            countDocument(row, -1);
+        }
+        calculateProbabilities();
+    }
+
+    /**
+     * This method reads the training set into the count arrays and calculates P(Y) and P(X|Y)
+     * @throws FileNotFoundException if the training file does not exist
+     */
+    public void train() throws FileNotFoundException {
+        createDataSet();
+        calculateProbabilities();
+    }
+
+    /**
+     * This method predicts the testing set and writes the predictions in the Kaggle format
+     * @param fileName the predictions file
+     * @throws FileNotFoundException if the testing file does not exist
+     */
+    public void predictTestingSet(String fileName) throws FileNotFoundException {
         System.out.println("Reading testing file and generating predictions...");
-        Scanner sc = new Scanner(new File(testingFile));
+        SparseDataset testingSet = loadDataSet(testingFile, false);
+        int[] predictions = predictAll(testingSet, 0, testingSet.getRows());
         //print the predictions to a txt file in the correct Kaggle format
-        PrintWriter writer = new PrintWriter("predictions.txt", "UTF-8");
-        writer.println("id,class");
-        while(sc.hasNextLine()) {
-            String[] document = sc.nextLine().split(",");
-            writer.println(document[0] + "," + predictClass(document));
+        try {
+            writePredictions(testingSet, predictions, fileName);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        writer.close();
+        System.out.println("Wrote " + predictions.length + " predictions to " + fileName);
     }
 
     /**
@@ -75,54 +251,178 @@ public class NaiveBayes {
      */
     public void createDataSet() throws FileNotFoundException {
         System.out.println("Reading training set...");
-        Scanner sc = null;
-        sc = new Scanner(new File(trainingFile));
-        //read every line in training set and build the data needed to calculate Bayes terms
-        //10000 training set
-        for (int k = 0; k < 10000; k++) {
-            String[] line = sc.nextLine().split(",");
-            int classification = Integer.parseInt(line[line.length-1]);
-            //add class totals
-            if(classTotals.containsKey(classification)) {
-                classTotals.put(classification, classTotals.get(classification)+1);
-            }
-            else {
-                classTotals.put(Integer.parseInt(line[line.length-1]), 1);
-            }
-            for (int i=1; i < (line.length-1); i++) {
-                int wordCount = Integer.parseInt(line[i]);
-                if (wordCount>0) {
-                    //add 1 to occurance of word for the specific class if word count is greater than zero
-                    xOccurances[i - 1][classification - 1] += 1;
-                }
-                //add specific word count from each document to the total count of that word for the class
-                if (wordTotals.containsKey(i)) {
-                    if (wordTotals.get(i).containsKey(classification)) {
-                        wordTotals.get(i).put(classification, wordTotals.get(i).get(classification) + wordCount);
-                    } else {
-                        wordTotals.get(i).put(classification, wordCount);
-                    }
-                } else {
-                    HashMap<Integer, Integer> wordHashMap = new HashMap<>();
-                    wordHashMap.put(classification, wordCount);
-                    wordTotals.put(i, wordHashMap);
-                }
-                //add to class's total word count
-                if (totalWords.containsKey(classification)) {
-                    totalWords.put(classification, totalWords.get(classification) + wordCount);
-                } else {
-                    totalWords.put(classification, wordCount);
-                }
+        SparseDataset dataset = loadDataSet(trainingFile, true);
+        //the documents before the validation set are the training set
+        int[] rows = new int[RunConfig.validationStart(dataset.getRows(), validation)];
+        for (int k = 0; k < rows.length; k++) {
+            rows[k] = k;
+        }
+        createDataSet(dataset, rows);
+    }
+
+    /**
+     * This method counts the words of some documents of a dataset that was already read,
+     * used for cross validation where the training documents are not the first ones.
+     * The number of classes and the vocabulary size are taken from the dataset, the feature selection
+     * (if there is one) is learned from the counted documents.
+     * @param dataset the labeled documents
+     * @param rows the rows of the documents to count
+     */
+    public void createDataSet(SparseDataset dataset, int[] rows) {
+        trainingSet = dataset;
+        numClasses = dataset.getNumClasses();
+        vocabularySize = dataset.getColumns();
+        if (selector != null) {
+            selector.fit(dataset, rows, threads);
+            vocabularySize = selector.getColumns();
+            printSelection();
+        }
+        classTotals = new int[numClasses];
+        totalWords = new long[numClasses];
+        wordTotals = new int[vocabularySize * numClasses];
+        xOccurances = new int[vocabularySize * numClasses];
+        //read every document and build the data needed to calculate Bayes terms
+        for (int row : rows) {
+            countDocument(row, 1);
+        }
+    }
+
+    /**
+     * This method counts the words of a training set that is read a chunk at a time (see SparseChunkReader),
+     * so only the count tables and one chunk are in memory, not the whole training file.
+     * The counts are the same as createDataSet's on the whole training set.
+     * @param training the reader of the training documents
+     */
+    public void createDataSet(SparseChunkReader training) {
+        try {
+            numClasses = training.getNumClasses();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        vocabularySize = hasher == null ? training.getColumns() : hasher.getColumns();
+        if (selector != null) {
+            selector.fit(chunks(training), vocabularySize, numClasses, threads);
+            vocabularySize = selector.getColumns();
+            printSelection();
+        }
+        classTotals = new int[numClasses];
+        totalWords = new long[numClasses];
+        wordTotals = new int[vocabularySize * numClasses];
+        xOccurances = new int[vocabularySize * numClasses];
+        for (SparseDataset chunk : chunks(training)) {
+            trainingSet = chunk;
+            for (int row = 0; row < chunk.getRows(); row++) {
+                countDocument(row, 1);
             }
         }
-        //add the other 2000 documents to the validation set
-        /*
-        for (int k = 10000; k < 12000; k++) {
-            String[] line = sc.nextLine().split(",");
-            validationSet.add(line);
+        //the chunks are not kept
+        trainingSet = null;
+    }
+
+    /**
+     * This method reads the chunks of a training or validation set, hashed if the model hashes its words
+     * @param reader the reader of the documents
+     * @return the chunks
+     */
+    private Iterable<SparseDataset> chunks(SparseChunkReader reader) {
+        if (hasher == null) {
+            return reader.chunks();
         }
+        readHashedVocabulary();
+        return hasher.transform(reader.chunks());
+    }
 
-         */
+    /**
+     * This method reads the words of the vocabulary file the csv documents are hashed with
+     */
+    private void readHashedVocabulary() {
+        try {
+            hasher.readVocabulary(vocabularyFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * This method prints how many words the feature selection kept
+     */
+    private void printSelection() {
+        System.out.println("Selected " + selector.getColumns() + " of " + selector.getWords()
+                + " words (" + selector + ")");
+    }
+
+    /**
+     * @param word the index of a word in the vocabulary
+     * @return the column of the word in the tables, -1 if it was not selected
+     */
+    private int column(int word) {
+        return selector == null ? word : selector.column(word);
+    }
+
+    /**
+     * This method adds the words of one document to the counts, or takes them away
+     * @param row the row of the document in the training set
+     * @param sign 1 to add the document, -1 to take it away
+     */
+    private void countDocument(int row, int sign) {
+        countDocument(trainingSet.getIndices(), trainingSet.getCounts(), trainingSet.rowStart(row),
+                trainingSet.rowEnd(row), trainingSet.getLabel(row) - 1, sign);
+    }
+
+    /**
+     * This method adds the words of one document to the counts, or takes them away
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param classification the class of the document (0 based)
+     * @param sign 1 to add the document, -1 to take it away
+     */
+    private void countDocument(int[] indices, int[] counts, int start, int end, int classification, int sign) {
+        //add class totals
+        classTotals[classification] += sign;
+        //only the words that appear in the document change the totals
+        long documentWords = 0;
+        for (int n = start; n < end; n++) {
+            int i = column(indices[n]);
+            if (i < 0) {
+                continue;
+            }
+            int wordCount = counts[n];
+            //add 1 to occurance of word for the specific class
+            xOccurances[i * numClasses + classification] += sign;
+            //add specific word count from each document to the total count of that word for the class
+            wordTotals[i * numClasses + classification] += sign * wordCount;
+            documentWords += wordCount;
+        }
+        //add to class's total word count
+        totalWords[classification] += sign * documentWords;
+    }
+
+    /**
+     * This method loads a csv file through its binary cache (see SparseDatasetCache),
+     * or tokenizes the documents of a raw text corpus (see TextCorpus)
+     * @param fileName the csv file, or the directory or JSONL file of a text corpus
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @return the dataset, with hashed columns if the model hashes its words
+     * @throws FileNotFoundException if the file does not exist
+     */
+    private SparseDataset loadDataSet(String fileName, boolean hasLabel) throws FileNotFoundException {
+        try {
+            if (TextCorpus.isText(fileName)) {
+                return TextCorpus.load(fileName, hasLabel, vocabularyFile, classificationFile, hasher, threads);
+            }
+            SparseDataset dataset = SparseDatasetCache.load(fileName, hasLabel);
+            if (hasher == null) {
+                return dataset;
+            }
+            hasher.readVocabulary(vocabularyFile);
+            return hasher.transform(dataset);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -130,232 +430,414 @@ public class NaiveBayes {
      */
     public void calculateProbabilities() {
         System.out.println("Calculating P(Y) and P(X|Y) for every class and word...");
+        //set beta to what the user chose, "default" means 1/V where V is the vocabulary size
+        double beta = getBeta();
         //calculate P(Y) for each class
+        double[] logClassProbabilities = calculateClassProbabilities();
+        //the denominator of P(X|Y) only depends on the class
+        double[] logDenominators = new double[numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            logDenominators[j] = log2(totalWords[j] + (beta * vocabularySize));
+        }
+        //calculate the numerator of P(X|Y) for every word and class, a page at a time
+        double[][] logNumerators = new double[(vocabularySize + PAGE_WORDS - 1) >>> PAGE_SHIFT][];
+        for (int p = 0; p < logNumerators.length; p++) {
+            int first = p << PAGE_SHIFT;
+            int words = Math.min(PAGE_WORDS, vocabularySize - first);
+            double[] page = new double[words * numClasses];
+            for (int k = 0; k < page.length; k++) {
+                page[k] = log2(wordTotals[first * numClasses + k] + beta);
+            }
+            logNumerators[p] = page;
+        }
+        //these are the weights the model predicts with
+        scoringTables = new ScoringTables(logClassProbabilities, logNumerators, logDenominators);
+    }
+
+    /**
+     * This method calculates P(Y) for each class from the class totals
+     * @return log2 P(Y) of each class
+     */
+    private double[] calculateClassProbabilities() {
         int totalDocuments = 0;
-        for (int i:classTotals.values()
-        ) {
-            totalDocuments+= i;
+        for (int j = 0; j < numClasses; j++) {
+            totalDocuments += classTotals[j];
         }
-        for (int i = 1; i < 21; i++) {
-            double classProbability = (double)classTotals.get(i)/(double)totalDocuments;
-            classProbabilities.put(i,classProbability);
+        double[] probabilities = new double[numClasses];
+        double[] logProbabilities = new double[numClasses];
+        for (int j = 0; j < numClasses; j++) {
+            probabilities[j] = (double) classTotals[j] / (double) totalDocuments;
+            logProbabilities[j] = log2(probabilities[j]);
         }
-        //set beta to what the user chose, "default" means 1/V where V is the vocabulary size
-        double beta;
-        if (betaOption.equals("default")) {
-            beta = (double) 1 / (double) wordTotals.keySet().size();
-        }
-        else {
-            beta = Double.parseDouble(betaOption);
-        }
-        //calculate P(X|Y) for every word and class
-        for (int j = 0; j < 20; j++) {
-            double denominator = (totalWords.get(j+1) + (beta * wordTotals.keySet().size()));
-            for (int i = 0; i < wordTotals.keySet().size(); i++) {
-                double probability = (((double) wordTotals.get(i+1).get(j+1)) + beta)/denominator;
-                if(wordProbabilities.containsKey(i+1)) {
-                    wordProbabilities.get(i + 1).put(j + 1, probability);
-                }
-                else {
-                    HashMap<Integer,Double> wordProbability = new HashMap<>();
-                    wordProbability.put(j + 1, probability);
-                    wordProbabilities.put(i+1,wordProbability);
+        classProbabilities = probabilities;
+        return logProbabilities;
+    }
+
+    /**
+     * This method adds one labeled document to a trained model without training it again.
+     * The counts of the document's words are added and only the log tables they change are calculated
+     * again: the numerators of the document's words for its class, the denominator of its class and P(Y).
+     * It can be called while other threads predict with the model, they keep scoring with the tables they
+     * started with until the new ones are published. Updates run one at a time.
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param label the class of the document (1 based)
+     * @throws IllegalArgumentException if the label is not a class of the model or a word is not in its vocabulary
+     * @throws IllegalStateException if the model has not been trained
+     */
+    public void update(int[] indices, int[] counts, int start, int end, int label) {
+        checkDocument(indices, start, end, label);
+        synchronized (updateLock) {
+            beginUpdate();
+            countDocument(indices, counts, start, end, label - 1, 1);
+            int[] positions = new int[end - start];
+            for (int n = start; n < end; n++) {
+                int i = column(indices[n]);
+                positions[n - start] = i < 0 ? -1 : i * numClasses + label - 1;
+            }
+            publishUpdate(positions);
+        }
+    }
+
+    /**
+     * This method adds a range of labeled documents to a trained model without training it again, see update.
+     * The new tables are published once for the whole range, so a batch costs much less than updating
+     * one document at a time and a prediction sees either none of the documents or all of them.
+     * @param documents the labeled documents
+     * @param from the first row to add
+     * @param to the row after the last row to add
+     * @throws IllegalArgumentException if a label is not a class of the model or a word is not in its vocabulary,
+     *                                  the model is not changed
+     * @throws IllegalStateException if the model has not been trained
+     */
+    public void update(SparseDataset documents, int from, int to) {
+        int[] indices = documents.getIndices();
+        int[] counts = documents.getCounts();
+        for (int row = from; row < to; row++) {
+            checkDocument(indices, documents.rowStart(row), documents.rowEnd(row), documents.getLabel(row));
+        }
+        synchronized (updateLock) {
+            beginUpdate();
+            int first = documents.rowStart(from);
+            int[] positions = new int[documents.rowStart(to) - first];
+            for (int row = from; row < to; row++) {
+                int classification = documents.getLabel(row) - 1;
+                countDocument(indices, counts, documents.rowStart(row), documents.rowEnd(row), classification, 1);
+                for (int n = documents.rowStart(row); n < documents.rowEnd(row); n++) {
+                    int i = column(indices[n]);
+                    positions[n - first] = i < 0 ? -1 : i * numClasses + classification;
                 }
             }
+            publishUpdate(positions);
+        }
+    }
+
+    /**
+     * This method checks that a document can be added to the model
+     */
+    private void checkDocument(int[] indices, int start, int end, int label) {
+        if (scoringTables == null) {
+            throw new IllegalStateException("the model must be trained before it is updated");
+        }
+        if (label < 1 || label > numClasses) {
+            throw new IllegalArgumentException("class " + label + " is not a class of the model, it has "
+                    + numClasses + " classes");
+        }
+        for (int n = start; n < end; n++) {
+            if (indices[n] < 0 || indices[n] >= getVocabularySize()) {
+                throw new IllegalArgumentException("word " + indices[n] + " is not in the vocabulary of "
+                        + getVocabularySize() + " words");
+            }
         }
     }
 
+    /**
+     * This method copies the counts before the first update if they are shared with another model
+     */
+    private void beginUpdate() {
+        if (!sharedCounts) {
+            return;
+        }
+        classTotals = classTotals.clone();
+        totalWords = totalWords.clone();
+        wordTotals = wordTotals.clone();
+        xOccurances = xOccurances.clone();
+        sharedCounts = false;
+    }
+
+    /**
+     * This method calculates the log tables changed by an update and publishes them.
+     * The pages of the changed words are copied, every other page is shared with the old tables.
+     * @param positions the column and class of every changed count, as i * numClasses + j, can repeat,
+     *                  -1 for a word that was not selected
+     */
+    private void publishUpdate(int[] positions) {
+        double beta = getBeta();
+        ScoringTables tables = scoringTables;
+        double[][] logNumerators = tables.logNumerators.clone();
+        boolean[] copied = new boolean[logNumerators.length];
+        double[] logDenominators = tables.logDenominators.clone();
+        boolean[] changedClasses = new boolean[numClasses];
+        for (int position : positions) {
+            if (position < 0) {
+                continue;
+            }
+            int p = (position / numClasses) >>> PAGE_SHIFT;
+            if (!copied[p]) {
+                logNumerators[p] = logNumerators[p].clone();
+                copied[p] = true;
+            }
+            logNumerators[p][position - (p << PAGE_SHIFT) * numClasses] = log2(wordTotals[position] + beta);
+            changedClasses[position % numClasses] = true;
+        }
+        for (int j = 0; j < numClasses; j++) {
+            if (changedClasses[j]) {
+                logDenominators[j] = log2(totalWords[j] + (beta * vocabularySize));
+            }
+        }
+        //every P(Y) changes with the number of documents
+        scoringTables = new ScoringTables(calculateClassProbabilities(), logNumerators, logDenominators);
+    }
+
+    /**
+     * This method returns the beta the user chose
+     * @return 1/V if the user chose "default", otherwise the number the user entered
+     */
+    private double getBeta() {
+        if (betaOption.equals("default")) {
+            return (double) 1 / (double) vocabularySize;
+        }
+        return Double.parseDouble(betaOption);
+    }
+
     /**
      * This method calculates the mutual information of words
      * and prints out the 100 words with the highest MI
      */
     public void mutualInformation() {
         System.out.println("Calculating mutual information of words...");
-        //use beta for smoothing in case there is division by zero/log of zero
-        double beta;
-        if (betaOption.equals("default")) {
-            beta = (double) 1 / (double) wordTotals.keySet().size();
-        }
-        else {
-            beta = Double.parseDouble(betaOption);
+        for (MutualInformation.WordScore word : topWords(100)) {
+            //a hashed column has no word, its column is printed instead
+            System.out.println(word.getWord() == null ? String.valueOf(word.getWordId()) : word.getWord());
         }
-        //read in the words from the vocabulary
-        Scanner sc = null;
-        try {
-            sc = new Scanner(new File(vocabularyFile));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
+    }
+
+    /**
+     * This method calculates the mutual information of every word from the counts of a trained model,
+     * see MutualInformation. It does not read any file, and it can be called while the model is updated.
+     * @return the MI of every word, indexed by the column of the word
+     *         (the vocabulary index without a feature selection)
+     */
+    public double[] mutualInformationScores() {
+        //use beta for smoothing in case there is division by zero/log of zero
+        double beta = getBeta();
+        synchronized (updateLock) {
+            return MutualInformation.scores(classTotals, xOccurances, beta, threads);
         }
-        for (int i = 0; i < 61188; i++) {
-            String word = sc.nextLine();
-            vocabulary.put(i+1,word);
-        }
-        HashMap<Double, Integer> MI = new HashMap<>();
-
-        // for each word calculate the following:
-        // p(x,y)*log(p(x,y)/(p(x)*p(y)))
-        // do this for combinations of x,y (0,0) (0,1) (1,0) (1,1)
-        // 1) x word not occuring in classes that are not y
-        // 2) x word not occuring in class y
-        // 3) x word occuring in classes that are not y
-        // 4) x word occuring in class y
-        // sum those 4 metrics, multiply by the probability of class y
-        // finally sum the above metric from all classes to get the average MI of the word
-
-        for (int k = 0; k < 61188;k++) {
-            double wordMI = 0;
-            double Px = 0;
-            //get the x occurances for each class
-            for (int i =0 ; i<20; i++) {
-                Px += xOccurances[k][i];
-            }
+    }
 
-            //calculate the sums described above
-            for (int j = 0; j < 20; j++) {
-                double tempMI = 0;
-                double notOccurInOtherClasses = 0;
-                for (int q = 0;q<20;q++) {
-                    notOccurInOtherClasses += (classTotals.get(q+1) - xOccurances[k][q]);
-                }
-                double occurInOtherClasses = 0;
-                for (int q = 0;q<20;q++) {
-                    if (q != j) {
-                        occurInOtherClasses += xOccurances[k][q];
-                    }
-                }
-                notOccurInOtherClasses += -(classTotals.get(j+1) - xOccurances[k][j]);
-                for (int i = 0; i < 4; i++) {
-                    if (i==0) {
-                        double Pij = ((double)(notOccurInOtherClasses/10000));
-                        double Probx = (10000-Px)/10000;
-                        tempMI += Pij * log2((Pij+beta)/((Probx*(1-classProbabilities.get(j+1)))+beta));
-                    }
-                    else if (i==1){
-                        double Pij = (double)(classTotals.get(j+1)- xOccurances[k][j])/10000;
-                        double Probx = (double)(10000-Px)/10000;
-                        tempMI += Pij * log2((Pij+beta)/((Probx*(classProbabilities.get(j+1)))+beta));
-                    }
-                    else if (i==2){
-                        double Pij = occurInOtherClasses/10000;
-                        double Probx = (double)Px/10000;
-                        tempMI += Pij * log2((Pij+beta)/((Probx*(1-classProbabilities.get(j+1)))+beta));
-                    }
-                    else if (i==3){
-                        double Pij = (double)xOccurances[k][j]/10000;
-                        double Probx = (double)Px/10000;
-                        tempMI += Pij * log2((Pij+beta)/((Probx*classProbabilities.get(j+1))+beta));
-                    }
-                }
-                wordMI += classProbabilities.get(j+1) * tempMI;
-            }
-            MI.put(wordMI, k+1);
+    /**
+     * This method ranks the words of a trained model by their mutual information
+     * @param k the number of words
+     * @return the k words with the highest MI (or every word if there are less), from the highest down
+     */
+    public List<MutualInformation.WordScore> topWords(int k) {
+        //read in the words from the vocabulary, hashed columns have no word
+        if (vocabulary == null && hasher != null) {
+            vocabulary = new String[0];
         }
-        //sort the list from max to min
-        ArrayList<Double> sortedMI = new ArrayList<>(MI.keySet());
-        Collections.sort(sortedMI);
-        Collections.reverse(sortedMI);
-        //print out the 100 best words
-        for (int i = 0;i < 100; i++) {
-            int wordIndex = MI.get(sortedMI.get(i));
-            System.out.println(vocabulary.get(wordIndex));
+        else if (vocabulary == null) {
+            try {
+                vocabulary = MutualInformation.readVocabulary(vocabularyFile, getVocabularySize());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
+        int[] wordIds = selector == null ? null : selector.getSelectedWords();
+        return MutualInformation.topWords(mutualInformationScores(), k, vocabulary, wordIds);
     }
 
     /**
      * This method calculates the model's accuracy against the validation set and
      * prints the confusion matrix in console.
+     * @return the accuracy
      */
-    public void calculateAccuracy () {
+    public double calculateAccuracy () {
         System.out.println("Calculating validation set accuracy and confusion matrix...");
-        double correctPredictions = 0;
-        Scanner sc = null;
-        try {
-            sc = new Scanner(new File(trainingFile));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-        //read every line in training set and build the data needed to calculate Bayes terms
-        //10000 training set
-        for (int k = 0; k < 10000; k++) {
-            sc.nextLine();
-        }
-        for (int k = 10000; k < 12000; k++) {
-            String[] line = sc.nextLine().split(",");
-            HashMap<Double, Integer> classProb = new HashMap<>();
-            //calculate Y for each class given all the words of a document
-            for (int j = 1; j < 21; j++) {
-                double probSum = 0;
-                //use log to change to addition instead of multiplication
-                for (int i = 1; i < line.length - 1; i++) {
-                    probSum += Integer.parseInt(line[i]) * log2(wordProbabilities.get(i).get(j));
-                }
-                classProb.put((log2(classProbabilities.get(j)) + probSum), j);
-            }
-            //get the max Y from all classes which will be our prediction and return it
-            double argmax = Collections.max(classProb.keySet());
-            int prediction = classProb.get(argmax);
-            int classification = Integer.parseInt(line[line.length-1]);
-            if (prediction == classification) {
-                correctPredictions += 1;
-            }
-            //add the prediction to the confusion matrix
-            confusionMatrix[classification-1][prediction-1]++;
+        //the validation set is the documents after the training set
+        int validationStart = RunConfig.validationStart(trainingSet.getRows(), validation);
+        confusionMatrix = new int[numClasses][numClasses];
+        int correctPredictions = addToConfusionMatrix(trainingSet, validationStart, trainingSet.getRows());
+        return printAccuracy(correctPredictions, trainingSet.getRows() - validationStart);
+    }
+
+    /**
+     * This method calculates the model's accuracy against a validation set that is read a chunk at a time
+     * and prints the confusion matrix in console.
+     * @param validationSet the reader of the validation documents
+     * @return the accuracy
+     */
+    public double calculateAccuracy (SparseChunkReader validationSet) {
+        System.out.println("Calculating validation set accuracy and confusion matrix...");
+        confusionMatrix = new int[numClasses][numClasses];
+        int correctPredictions = 0;
+        for (SparseDataset chunk : chunks(validationSet)) {
+            correctPredictions += addToConfusionMatrix(chunk, 0, chunk.getRows());
         }
-        /*
-        for (String[] validationInstance: validationSet
-             ) {
-            HashMap<Double, Integer> classProb = new HashMap<>();
-            //calculate Y for each class given all the words of a document
-            for (int j = 1; j < 21; j++) {
-                double probSum = 0;
-                //use log to change to addition instead of multiplication
-                for (int i = 1; i < validationInstance.length - 1; i++) {
-                    probSum += Integer.parseInt(validationInstance[i]) * log2(wordProbabilities.get(i).get(j));
-                }
-                classProb.put((log2(classProbabilities.get(j)) + probSum), j);
-            }
-            //get the max Y from all classes which will be our prediction and return it
-            double argmax = Collections.max(classProb.keySet());
-            int prediction = classProb.get(argmax);
-            int classification = Integer.parseInt(validationInstance[validationInstance.length-1]);
+        return printAccuracy(correctPredictions, validationSet.getRows());
+    }
+
+    /**
+     * This method predicts some labeled documents and adds them to the confusion matrix
+     * @return the number of correct predictions
+     */
+    private int addToConfusionMatrix(SparseDataset dataset, int from, int to) {
+        int correctPredictions = 0;
+        int[] predictions = predictAll(dataset, from, to);
+        for (int k = from; k < to; k++) {
+            int prediction = predictions[k - from];
+            int classification = dataset.getLabel(k);
             if (prediction == classification) {
                 correctPredictions += 1;
             }
             //add the prediction to the confusion matrix
             confusionMatrix[classification-1][prediction-1]++;
         }
+        return correctPredictions;
+    }
 
-         */
-        //calculate accuracy and print out accuracy/confusion matrix
-        double accurracy = correctPredictions/2000;
+    /**
+     * This method prints out the accuracy and the confusion matrix
+     * @return the accuracy
+     */
+    private double printAccuracy(int correctPredictions, int documents) {
+        double accurracy = (double) correctPredictions/documents;
         System.out.println("Validation Set Accuracy: " + accurracy);
         System.out.println("Confusion Matrix:");
-        for (int i = 0; i < 20; i++) {
+        for (int i = 0; i < numClasses; i++) {
             System.out.println(Arrays.toString(confusionMatrix[i]));
         }
+        return accurracy;
+    }
+
+    /**
+     * This method predicts the classes of a range of documents in parallel.
+     * The documents are split into blocks that are scored on the shared fork-join pool (see Parallel.sharedPool)
+     * of the number of threads set by setThreads, and every prediction is written to
+     * the position of its document so the order of the output never changes.
+     * @param dataset the documents to predict
+     * @param from the first row to predict
+     * @param to the row after the last row to predict
+     * @return the class prediction of every row from-to, in order
+     */
+    public int[] predictAll(SparseDataset dataset, int from, int to) {
+        int[] predictions = new int[to - from];
+        int[] indices = dataset.getIndices();
+        int[] counts = dataset.getCounts();
+        //the pool is shared, validation calls this once for every chunk
+        ForkJoinPool pool = Parallel.sharedPool(threads);
+        //use more blocks than threads so a thread that finishes early can take another block
+        Parallel.forEachBlock(pool, from, to, pool.getParallelism() * 4, (block, start, end) -> {
+            double[] scores = new double[numClasses];
+            for (int row = start; row < end; row++) {
+                classScores(indices, counts, dataset.rowStart(row), dataset.rowEnd(row), scores);
+                predictions[row - from] = argmax(scores) + 1;
+            }
+        });
+        return predictions;
     }
 
     /**
-     * This method predicts the class of a document with the NB model
-     * @param document the String[] of the document to predict. contains the values for every word in the document
-     * @return the class prediction
+     * This method writes predictions in the Kaggle format (id,class) through one buffered writer
+     * @param dataset the documents that were predicted
+     * @param predictions the prediction of every row of the dataset
+     * @param fileName the file to write
+     * @throws IOException if the file can not be written
      */
-    public int predictClass(String[] document) {
-        HashMap<Double, Integer> classProb = new HashMap<>();
-        //calculate Y for each class given all the words of a document
-        for (int j = 1; j < 21; j++) {
-            double probSum = 0;
-            //use log to change to addition instead of multiplication
-            for (int i = 1; i < document.length; i++) {
-                probSum += Integer.parseInt(document[i]) * log2(wordProbabilities.get(i).get(j));
+    public static void writePredictions(SparseDataset dataset, int[] predictions, String fileName) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            writer.write("id,class");
+            writer.newLine();
+            for (int row = 0; row < predictions.length; row++) {
+                writer.write(Integer.toString(dataset.getDocumentId(row)));
+                writer.write(',');
+                writer.write(Integer.toString(predictions[row]));
+                writer.newLine();
             }
-            classProb.put((log2(classProbabilities.get(j)) + probSum), j);
         }
-        //get the max Y from all classes which will be our prediction and return it
-        double argmax = Collections.max(classProb.keySet());
-        int index = classProb.get(argmax);
-        System.out.println(document[0] + "," + index);
-        return index;
+    }
+
+    /**
+     * This method saves the log probability tables of the model to a model file (see ModelFile)
+     * @param fileName the model file
+     * @throws IOException if the file can not be written
+     */
+    public void saveModel(String fileName) throws IOException {
+        ScoringTables tables = scoringTables;
+        double[] logWordProbabilities = new double[vocabularySize * numClasses];
+        for (int i = 0; i < vocabularySize; i++) {
+            double[] page = tables.logNumerators[i >>> PAGE_SHIFT];
+            int offset = (i & (PAGE_WORDS - 1)) * numClasses;
+            for (int j = 0; j < numClasses; j++) {
+                logWordProbabilities[i * numClasses + j] = page[offset + j] - tables.logDenominators[j];
+            }
+        }
+        ModelFile.writeNaiveBayes(Paths.get(fileName), numClasses, vocabularySize, tables.logClassProbabilities,
+                logWordProbabilities, selector, hasher);
+    }
+
+    /**
+     * This method finds the class with the highest score,
+     * if two classes have the same score the first one is chosen
+     * @param scores the score of every class
+     * @return the index of the highest score
+     */
+    private static int argmax(double[] scores) {
+        int max = 0;
+        for (int j = 1; j < scores.length; j++) {
+            if (scores[j] > scores[max]) {
+                max = j;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * This method calculates log2(P(Y)) + Sigma_i (# of X_i)log2(P(X_i | Y)) of a document for every class
+     * @param indices the indices of the words that appear in the document
+     * @param counts the counts of the words in indices
+     * @param start the position of the document's first word in indices/counts
+     * @param end the position after the document's last word in indices/counts
+     * @param scores the array the score of every class (0 based) is written to
+     */
+    @Override
+    public void classScores(int[] indices, int[] counts, int start, int end, double[] scores) {
+        //read the tables once, so the whole document is scored with the same model
+        ScoringTables tables = scoringTables;
+        System.arraycopy(tables.logClassProbabilities, 0, scores, 0, numClasses);
+        //words that do not appear in the document add 0 to the sum so only the words
+        //of the document are visited, the class weights of a word are next to each other
+        double documentWords = 0;
+        for (int n = start; n < end; n++) {
+            int i = column(indices[n]);
+            //a word past the training vocabulary (or not selected) was never seen and adds nothing
+            if (i < 0 || i >= vocabularySize) {
+                continue;
+            }
+            double[] page = tables.logNumerators[i >>> PAGE_SHIFT];
+            int offset = (i & (PAGE_WORDS - 1)) * numClasses;
+            double count = counts[n];
+            for (int j = 0; j < numClasses; j++) {
+                scores[j] += count * page[offset + j];
+            }
+            documentWords += count;
+        }
+        //every counted word divides by the denominator of its class once
+        for (int j = 0; j < numClasses; j++) {
+            scores[j] -= documentWords * tables.logDenominators[j];
+        }
     }
 
     /**
@@ -369,4 +851,41 @@ public class NaiveBayes {
 
         return result;
     }
+
+    /**
+     * @return ln(2), the scores of NB are log2 probabilities
+     */
+    @Override
+    public double scoreScale() {
+        return Math.log(2);
+    }
+
+    /**
+     * @return the training file, the first documents are the training set and the rest the validation set
+     */
+    public SparseDataset getTrainingSet() {
+        return trainingSet;
+    }
+
+    @Override
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return the number of words of the vocabulary, with a feature selection this is more than the columns,
+     *         with feature hashing it is the number of hashed columns
+     */
+    @Override
+    public int getVocabularySize() {
+        return selector == null ? vocabularySize : selector.getWords();
+    }
+
+    /**
+     * This method can change the number of threads used to predict
+     * @param threads the number of threads, 0 means one per core
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
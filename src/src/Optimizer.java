@@ -0,0 +1,39 @@
+/**
+ * This interface is one way of updating the weights of LogisticRegression from a gradient.
+ * The gradient passed in is the direction that increases the conditional data likelihood
+ * (delta - P) * X - lambda * W, so every optimizer moves the weights along it.
+ * A step starts with startStep(), then update() is called for parts of the weights,
+ * possibly from several threads at the same time for parts that do not overlap.
+ */
+public interface Optimizer {
+
+    /**
+     * This method is called once before every step
+     */
+    void startStep();
+
+    /**
+     * This method updates the weights from-to in place
+     * @param weights the weights
+     * @param gradient the gradient of every weight
+     * @param from the first weight to update
+     * @param to the weight after the last weight to update
+     */
+    void update(double[] weights, double[] gradient, int from, int to);
+
+    /**
+     * This method creates an optimizer from its name
+     * @param name "sgd", "momentum" or "adam"
+     * @param eta the learning rate
+     * @param size the number of weights
+     * @return the optimizer
+     */
+    static Optimizer create(String name, double eta, int size) {
+        return switch (name) {
+            case "sgd" -> new SgdOptimizer(eta);
+            case "momentum" -> new MomentumOptimizer(eta, 0.9, size);
+            case "adam" -> new AdamOptimizer(eta, 0.9, 0.999, 1e-8, size);
+            default -> throw new IllegalArgumentException("Unknown optimizer: " + name + " (use sgd, momentum or adam)");
+        };
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class splits a range of rows into blocks and runs the blocks on a fork-join pool.
+ * Every block always covers the same rows for the same range and block count, so results
+ * that are written by row (or reduced by block in order) do not depend on thread timing.
+ */
+public class Parallel {
+    //the pools handed out by sharedPool, one per number of threads
+    private static final Map<Integer, ForkJoinPool> SHARED_POOLS = new ConcurrentHashMap<>();
+
+    /**
+     * The work done for one block of rows
+     */
+    public interface BlockTask {
+        /**
+         * @param block the number of the block, from 0 to blocks-1
+         * @param from the first row of the block
+         * @param to the row after the last row of the block
+         */
+        void run(int block, int from, int to);
+    }
+
+    /**
+     * This method creates a pool for the given number of threads
+     * @param threads the number of threads, 0 or less means one per core
+     * @return the pool
+     */
+    public static ForkJoinPool newPool(int threads) {
+        return new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This method returns a pool for the given number of threads that is shared by every caller and never shut
+     * down, for work that runs often on few rows (for example predicting a chunk) where starting a pool every
+     * time would cost more than the work. Its threads are daemon threads that end when they are idle.
+     * @param threads the number of threads, 0 or less means one per core
+     * @return the pool
+     */
+    public static ForkJoinPool sharedPool(int threads) {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return SHARED_POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    /**
+     * This method splits the rows from-to into blocks of (almost) equal size and runs every block on the pool.
+     * It returns once every block is done. With one block the task runs on the calling thread.
+     * @param pool the pool to run the blocks on
+     * @param from the first row
+     * @param to the row after the last row
+     * @param blocks the number of blocks
+     * @param task the work to do for every block
+     * @return the number of blocks that ran, fewer than blocks if there are fewer rows than blocks.
+     *         Results kept per block must only be read for the blocks that ran.
+     */
+    public static int forEachBlock(ForkJoinPool pool, int from, int to, int blocks, BlockTask task) {
+        int rows = to - from;
+        blocks = Math.max(1, Math.min(blocks, rows));
+        if (blocks == 1) {
+            task.run(0, from, to);
+            return 1;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(blocks);
+        for (int b = 0; b < blocks; b++) {
+            int block = b;
+            int start = from + (int) ((long) rows * b / blocks);
+            int end = from + (int) ((long) rows * (b + 1) / blocks);
+            tasks.add(pool.submit(() -> task.run(block, start, end)));
+        }
+        for (ForkJoinTask<?> submitted : tasks) {
+            submitted.join();
+        }
+        return blocks;
+    }
+}
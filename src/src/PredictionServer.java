@@ -0,0 +1,320 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class serves the predictions of a Classifier over HTTP with the JDK's built in HttpServer.
+ *      POST /predict: the body has one document per line, every document is a list of "wordId:count"
+ *                     pairs separated by spaces (wordId is the line number in vocabulary.txt).
+ *                     The response has the predicted class of every document, one per line.
+ *                     A model trained on hashed words (see FeatureHasher) takes the raw text of every
+ *                     document instead, it is split into words like a TextCorpus and hashed.
+ *      GET /health: responds "ok" once the model is loaded.
+ * Requests are handled on virtual threads when the java version has them, otherwise on a fixed pool.
+ * The handlers do not score documents themselves. They put their documents in a queue and one batching
+ * thread takes every document that is waiting (up to a maximum), scores the batch and hands the results back.
+ * Under load many requests are scored together, split into blocks on a fork-join pool, and a lone
+ * request is scored as soon as it arrives.
+ */
+public class PredictionServer {
+    private static final int BLOCK_SIZE = 64;
+    //connections that can wait to be accepted, the JDK default of 50 drops bursts of clients
+    private static final int BACKLOG = 1024;
+    //the most seconds a request waits for its predictions, a document queued while the server stops is never scored
+    private static final long PREDICTION_TIMEOUT_SECONDS = 30;
+
+    private final Classifier classifier;
+    //hashes the words of a document, null if documents are given as word ids
+    private final FeatureHasher hasher;
+    private final int maxBatch;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ForkJoinPool pool;
+    private final BlockingQueue<Document> queue = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+    private volatile boolean running = true;
+
+    /**
+     * A document waiting to be scored and the prediction it is waiting for
+     */
+    private static final class Document {
+        private final int[] indices;
+        private final int[] counts;
+        private final CompletableFuture<Integer> prediction = new CompletableFuture<>();
+
+        private Document(int[] indices, int[] counts) {
+            this.indices = indices;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Constructor for the PredictionServer class, the server does not accept requests until start is called
+     * @param classifier the model to predict with
+     * @param port the port to listen on, 0 picks a free port
+     * @param maxBatch the most documents scored in one batch
+     * @param threads the number of threads scoring a batch, 0 means one per core
+     * @throws IOException if the port can not be opened
+     */
+    public PredictionServer(Classifier classifier, int port, int maxBatch, int threads) throws IOException {
+        this(classifier, null, port, maxBatch, threads);
+    }
+
+    /**
+     * Constructor for a PredictionServer of a model trained on hashed words, documents are sent as raw words
+     * @param classifier the model to predict with
+     * @param hasher the hashing of the words the model was trained with, null if documents are word ids
+     * @param port the port to listen on, 0 picks a free port
+     * @param maxBatch the most documents scored in one batch
+     * @param threads the number of threads scoring a batch, 0 means one per core
+     * @throws IOException if the port can not be opened
+     */
+    public PredictionServer(Classifier classifier, FeatureHasher hasher, int port, int maxBatch, int threads)
+            throws IOException {
+        this.classifier = classifier;
+        this.hasher = hasher;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.pool = Parallel.newPool(threads);
+        this.handlers = newHandlerExecutor();
+        //the server writes the headers and the body of a response separately, without TCP_NODELAY the
+        //body waits for the client's delayed ACK and every request on a kept alive connection takes ~40 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/predict", this::predict);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok\n"));
+        server.setExecutor(handlers);
+        batcher = new Thread(this::scoreBatches, "prediction-batcher");
+        batcher.setDaemon(true);
+    }
+
+    /**
+     * This method creates the executor the requests are handled on: a virtual thread per request
+     * if the java version has virtual threads, otherwise a fixed pool of threads.
+     * Handlers spend most of their time waiting for the batcher, so the pool is larger than the core count.
+     * @return the executor
+     */
+    private static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 8));
+        }
+    }
+
+    /**
+     * This method starts accepting requests
+     */
+    public void start() {
+        batcher.start();
+        server.start();
+    }
+
+    /**
+     * This method stops accepting requests and stops the threads of the server
+     * @param delaySeconds the most seconds to wait for requests that are being handled
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        running = false;
+        batcher.interrupt();
+        handlers.shutdown();
+        pool.shutdown();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * This method handles POST /predict
+     */
+    private void predict(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "use POST\n");
+            return;
+        }
+        List<Document> documents;
+        try (InputStream body = exchange.getRequestBody()) {
+            documents = parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+        if (!running) {
+            respond(exchange, 503, "server is stopping\n");
+            return;
+        }
+        queue.addAll(documents);
+        StringBuilder response = new StringBuilder(documents.size() * 3);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PREDICTION_TIMEOUT_SECONDS);
+        try {
+            for (Document document : documents) {
+                response.append(document.prediction.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                        .append('\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "server is stopping\n");
+            return;
+        } catch (TimeoutException e) {
+            respond(exchange, 503, "no prediction within " + PREDICTION_TIMEOUT_SECONDS + " seconds\n");
+            return;
+        } catch (ExecutionException e) {
+            respond(exchange, 500, e.getCause() + "\n");
+            return;
+        }
+        respond(exchange, 200, response.toString());
+    }
+
+    /**
+     * This method parses the body of a request into documents
+     * @param body one document per line of "wordId:count" pairs, or of raw words if the words are hashed
+     * @return the documents
+     * @throws IllegalArgumentException if a pair is malformed, a count is below 1 or a word is not in the vocabulary
+     */
+    private List<Document> parse(String body) {
+        List<Document> documents = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (hasher != null) {
+                //the text is split into words like a text corpus, every word counts once and
+                //a column that repeats adds up when the document is scored
+                List<String> tokens = TextCorpus.tokenize(line);
+                int[] indices = new int[tokens.size()];
+                int[] counts = new int[tokens.size()];
+                for (int n = 0; n < indices.length; n++) {
+                    indices[n] = hasher.column(tokens.get(n));
+                    counts[n] = 1;
+                }
+                documents.add(new Document(indices, counts));
+                continue;
+            }
+            String[] pairs = line.split("\\s+");
+            int[] indices = new int[pairs.length];
+            int[] counts = new int[pairs.length];
+            for (int n = 0; n < pairs.length; n++) {
+                int colon = pairs[n].indexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("expected wordId:count but got " + pairs[n]);
+                }
+                try {
+                    int wordId = Integer.parseInt(pairs[n].substring(0, colon));
+                    counts[n] = Integer.parseInt(pairs[n].substring(colon + 1));
+                    if (wordId < 1 || wordId > classifier.getVocabularySize()) {
+                        throw new IllegalArgumentException("word id out of range: " + wordId);
+                    }
+                    if (counts[n] < 1) {
+                        throw new IllegalArgumentException("count must be at least 1: " + pairs[n]);
+                    }
+                    indices[n] = wordId - 1;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("expected wordId:count but got " + pairs[n]);
+                }
+            }
+            documents.add(new Document(indices, counts));
+        }
+        if (documents.isEmpty()) {
+            throw new IllegalArgumentException("no documents in request");
+        }
+        return documents;
+    }
+
+    /**
+     * This method is run by the batching thread: it waits for a document, takes every other document
+     * that is waiting (up to maxBatch) and scores them together
+     */
+    private void scoreBatches() {
+        List<Document> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            List<Document> documents = batch;
+            try {
+                Parallel.forEachBlock(pool, 0, documents.size(), (documents.size() + BLOCK_SIZE - 1) / BLOCK_SIZE,
+                        (block, from, to) -> {
+                            for (int d = from; d < to; d++) {
+                                Document document = documents.get(d);
+                                document.prediction.complete(classifier.predictClass(document.indices,
+                                        document.counts, 0, document.indices.length));
+                            }
+                        });
+            } catch (RuntimeException e) {
+                for (Document document : documents) {
+                    document.prediction.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        //fail the documents that are still waiting so their handlers return
+        List<Document> waiting = new ArrayList<>();
+        queue.drainTo(waiting);
+        for (Document document : waiting) {
+            document.prediction.completeExceptionally(new IllegalStateException("server is stopping"));
+        }
+    }
+
+    /**
+     * This method writes a text response
+     */
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    /**
+     * This method loads a model file and serves its predictions until the process is stopped
+     * @param args the model file, then optionally the port (default 8080)
+     * @throws IOException if the model can not be loaded or the port can not be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        if (args.length > 1) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+        if (args.length < 1 || port < 0 || port > 65535) {
+            System.out.println("Usage: PredictionServer <model file> [port]");
+            System.exit(2);
+        }
+        ModelFile model = ModelFile.open(Paths.get(args[0]));
+        PredictionServer server = new PredictionServer(model, model.getFeatureHasher(), port, 256, 0);
+        server.start();
+        System.out.println("Serving " + model.getType() + " predictions on port " + server.getPort());
+    }
+}
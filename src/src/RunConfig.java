@@ -0,0 +1,330 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class holds the settings of a run of NaiveBayes or LogisticRegression: the file paths,
+ * the hyperparameters and the number of threads. It is read from a properties file and/or
+ * command line flags (see Main), the keys are the flag names without the leading "--":
+ *      algorithm: nb or lr
+ *      vocabulary, training, testing, labels: the input files
+ *      output: the predictions file, model: the model file
+ *      threads: the number of threads, 0 means one per core
+ *      validation: the share of the training file's documents (the last ones) kept for validation
+ *      chunk-rows: train out-of-core, reading the training file this many documents at a time, 0 trains in memory
+ *      selection: the words the model is trained on, none, mi:k, chi2:k or df:k (see FeatureSelector)
+ *      hashing: hash the words into 2^hashing columns instead of using the vocabulary (see FeatureHasher), 0 is off
+ *      beta: the NB prior, "default" means 1/V
+ *      lambda, eta, iterations, optimizer, batch-size, seed: the LR hyperparameters
+ *      weights: the precision the LR weights are saved in, double, float or int8 (see InferenceWeights)
+ *      tolerance, patience, max-millis: the LR early stopping criteria, 0 turns a criterion off
+ */
+public class RunConfig {
+    private static final List<String> KEYS = Arrays.asList("algorithm", "vocabulary", "training", "testing",
+            "labels", "output", "model", "threads", "beta", "lambda", "eta", "iterations", "optimizer",
+            "batch-size", "seed", "tolerance", "patience", "max-millis", "validation",
+            "chunk-rows", "selection", "hashing", "weights");
+    //the 20newsgroups training file has 12000 documents, the last 2000 are the validation set
+    public static final double DEFAULT_VALIDATION = 1.0 / 6;
+
+    private String algorithm = "nb";
+    private String vocabularyFile = "vocabulary.txt";
+    private String trainingFile = "training.csv";
+    private String testingFile = "testing.csv";
+    private String classificationFile = "newsgrouplabels.txt";
+    private String predictionsFile = "predictions.txt";
+    private String modelFile;
+    private int threads = 0;
+    private String beta = "default";
+    private float lambda = 0.001f;
+    private float eta = 0.01f;
+    private int iterations = 1000;
+    private String optimizer = "sgd";
+    private int batchSize = 0;
+    private long seed = 1;
+    private double tolerance = 0;
+    private int patience = 0;
+    private long maxMillis = 0;
+    private double validation = DEFAULT_VALIDATION;
+    private int chunkRows = 0;
+    private String selection = "none";
+    private int hashing = 0;
+    private String weights = "double";
+
+    /**
+     * This method reads a properties file
+     * @param fileName the properties file
+     * @return the settings in the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file can not be read
+     */
+    public static Properties load(String fileName) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        return properties;
+    }
+
+    /**
+     * This method builds the settings from properties, settings that are not given keep their defaults
+     * @param properties the settings
+     * @return the settings
+     * @throws IllegalArgumentException if a key is unknown or a value is not valid
+     */
+    public static RunConfig fromProperties(Properties properties) {
+        RunConfig config = new RunConfig();
+        for (String key : properties.stringPropertyNames()) {
+            config.set(key, properties.getProperty(key).trim());
+        }
+        return config;
+    }
+
+    /**
+     * This method changes one setting
+     * @param key the name of the setting
+     * @param value the new value
+     * @throws IllegalArgumentException if the key is unknown or the value is not valid
+     */
+    public void set(String key, String value) {
+        try {
+            switch (key) {
+                case "algorithm" -> {
+                    if (!value.equals("nb") && !value.equals("lr")) {
+                        throw new IllegalArgumentException("algorithm must be nb or lr, got " + value);
+                    }
+                    algorithm = value;
+                }
+                case "vocabulary" -> vocabularyFile = value;
+                case "training" -> trainingFile = value;
+                case "testing" -> testingFile = value;
+                case "labels" -> classificationFile = value;
+                case "output" -> predictionsFile = value;
+                case "model" -> modelFile = value;
+                case "threads" -> threads = Integer.parseInt(value);
+                case "beta" -> {
+                    if (!value.equals("default")) {
+                        Double.parseDouble(value);
+                    }
+                    beta = value;
+                }
+                case "lambda" -> lambda = Float.parseFloat(value);
+                case "eta" -> eta = Float.parseFloat(value);
+                case "iterations" -> iterations = nonNegative(key, value);
+                case "optimizer" -> {
+                    Optimizer.create(value, 0, 0);
+                    optimizer = value;
+                }
+                case "batch-size" -> batchSize = nonNegative(key, value);
+                case "seed" -> seed = Long.parseLong(value);
+                case "tolerance" -> tolerance = Double.parseDouble(value);
+                case "patience" -> patience = nonNegative(key, value);
+                case "max-millis" -> maxMillis = Long.parseLong(value);
+                case "validation" -> {
+                    double share = Double.parseDouble(value);
+                    if (share < 0 || share >= 1) {
+                        throw new IllegalArgumentException("validation must be at least 0 and less than 1, got " + value);
+                    }
+                    validation = share;
+                }
+                case "chunk-rows" -> chunkRows = nonNegative(key, value);
+                case "selection" -> {
+                    FeatureSelector.parse(value);
+                    selection = value;
+                }
+                case "hashing" -> {
+                    int bits = Integer.parseInt(value);
+                    if (bits != 0) {
+                        new FeatureHasher(bits);
+                    }
+                    hashing = bits;
+                }
+                case "weights" -> {
+                    InferenceWeights.parse(value);
+                    weights = value;
+                }
+                default -> throw new IllegalArgumentException("unknown setting " + key + ", known settings are " + KEYS);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a number, got " + value);
+        }
+    }
+
+    /**
+     * This method parses a count that can not be negative, 0 turns off the settings that are off by default
+     * @return the count
+     * @throws IllegalArgumentException if the value is negative
+     * @throws NumberFormatException if the value is not a whole number
+     */
+    private static int nonNegative(String key, String value) {
+        int count = Integer.parseInt(value);
+        if (count < 0) {
+            throw new IllegalArgumentException(key + " must be at least 0, got " + value);
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy of these settings
+     */
+    public RunConfig copy() {
+        RunConfig copy = new RunConfig();
+        copy.algorithm = algorithm;
+        copy.vocabularyFile = vocabularyFile;
+        copy.trainingFile = trainingFile;
+        copy.testingFile = testingFile;
+        copy.classificationFile = classificationFile;
+        copy.predictionsFile = predictionsFile;
+        copy.modelFile = modelFile;
+        copy.threads = threads;
+        copy.beta = beta;
+        copy.lambda = lambda;
+        copy.eta = eta;
+        copy.iterations = iterations;
+        copy.optimizer = optimizer;
+        copy.batchSize = batchSize;
+        copy.seed = seed;
+        copy.tolerance = tolerance;
+        copy.patience = patience;
+        copy.maxMillis = maxMillis;
+        copy.validation = validation;
+        copy.chunkRows = chunkRows;
+        copy.selection = selection;
+        copy.hashing = hashing;
+        copy.weights = weights;
+        return copy;
+    }
+
+    /**
+     * This method splits the documents of a training file into the training set (the first documents)
+     * and the validation set (the rest)
+     * @param rows the number of documents
+     * @param validation the share of the documents kept for validation
+     * @return the row of the first validation document
+     */
+    public static int validationStart(int rows, double validation) {
+        return rows - (int) Math.round(rows * validation);
+    }
+
+    /**
+     * @return the early stopping criteria of LR, null if every criterion is off
+     */
+    public EarlyStopping getEarlyStopping() {
+        if (tolerance <= 0 && patience <= 0 && maxMillis <= 0) {
+            return null;
+        }
+        return new EarlyStopping(tolerance, patience, maxMillis);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getVocabularyFile() {
+        return vocabularyFile;
+    }
+
+    public String getTrainingFile() {
+        return trainingFile;
+    }
+
+    public String getTestingFile() {
+        return testingFile;
+    }
+
+    public String getClassificationFile() {
+        return classificationFile;
+    }
+
+    public String getPredictionsFile() {
+        return predictionsFile;
+    }
+
+    /**
+     * @return the model file, naivebayes.model or logisticregression.model if it was not set
+     */
+    public String getModelFile() {
+        if (modelFile != null) {
+            return modelFile;
+        }
+        return algorithm.equals("nb") ? "naivebayes.model" : "logisticregression.model";
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getBeta() {
+        return beta;
+    }
+
+    public float getLambda() {
+        return lambda;
+    }
+
+    public float getEta() {
+        return eta;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public String getOptimizer() {
+        return optimizer;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getValidation() {
+        return validation;
+    }
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
+
+    /**
+     * @return a new selector of the words to train on (see FeatureSelector), null if every word is used
+     */
+    public FeatureSelector getFeatureSelector() {
+        return FeatureSelector.parse(selection);
+    }
+
+    public String getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return a new hasher of the words (see FeatureHasher), null if the models use the vocabulary
+     */
+    public FeatureHasher getFeatureHasher() {
+        return hashing == 0 ? null : new FeatureHasher(hashing);
+    }
+
+    public int getHashing() {
+        return hashing;
+    }
+
+    /**
+     * @return the precision the LR weights are saved in
+     */
+    public InferenceWeights.Precision getWeightPrecision() {
+        return InferenceWeights.parse(weights);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * This class is the plain Java version of SoftmaxKernel, used when the vector module is not available
+ */
+public class ScalarSoftmaxKernel implements SoftmaxKernel {
+
+    @Override
+    public double softmax(double[] data, int width, int from, int to, int[] labels, int[] predictions) {
+        double likelihood = 0;
+        for (int i = from; i < to; i++) {
+            int offset = i * width;
+            //find the max and its class, if two classes have the same value the first one is chosen
+            int argmax = 0;
+            double max = data[offset];
+            for (int j = 1; j < width; j++) {
+                if (data[offset + j] > max) {
+                    max = data[offset + j];
+                    argmax = j;
+                }
+            }
+            if (labels != null) {
+                likelihood += data[offset + labels[i]] - max;
+            }
+            double total = 0;
+            for (int j = 0; j < width; j++) {
+                double e = Math.exp(data[offset + j] - max);
+                data[offset + j] = e;
+                total += e;
+            }
+            double scale = 1 / total;
+            for (int j = 0; j < width; j++) {
+                data[offset + j] *= scale;
+            }
+            if (labels != null) {
+                likelihood -= Math.log(total);
+            }
+            if (predictions != null) {
+                predictions[i] = argmax;
+            }
+        }
+        return likelihood;
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * This class is plain gradient ascent with a fixed learning rate:
+ * W = W + eta * gradient
+ * With the whole training set as the batch this is the original update of LogisticRegression.
+ */
+public class SgdOptimizer implements Optimizer {
+    private final double eta;
+
+    /**
+     * Constructor for the SgdOptimizer class
+     * @param eta the learning rate
+     */
+    public SgdOptimizer(double eta) {
+        this.eta = eta;
+    }
+
+    @Override
+    public void startStep() {
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradient, int from, int to) {
+        for (int i = from; i < to; i++) {
+            weights[i] += eta * gradient[i];
+        }
+    }
+}
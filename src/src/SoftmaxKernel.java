@@ -0,0 +1,40 @@
+/**
+ * This interface turns rows of weighted sums (logits) into probabilities in one pass.
+ * For every row it finds the max and the argmax, replaces the values with
+ * e^(value - max) / sum, and adds the log probability of the row's class to the
+ * log likelihood using log-sum-exp, so a probability that rounds to 0 never gives -Infinity.
+ * Rows are stored one after the other with width values each (the data of a width x N DenseMatrix).
+ * create() returns the SIMD version (VectorSoftmaxKernel) when the jdk.incubator.vector
+ * module is available (run java with --add-modules jdk.incubator.vector) and the scalar
+ * version (ScalarSoftmaxKernel) otherwise. Both give the same predictions.
+ */
+public interface SoftmaxKernel {
+
+    /**
+     * This method turns the rows from-to of data into probabilities in place
+     * @param data the logits, width per row
+     * @param width the number of classes
+     * @param from the first row
+     * @param to the row after the last row
+     * @param labels the class (0 based) of every row, indexed by row, or null if the rows have no classes
+     * @param predictions the array the predicted class (0 based) of every row is written to, indexed by row,
+     *                    or null if the predictions are not needed
+     * @return the sum of the log probabilities of the classes of the rows, 0 if labels is null
+     */
+    double softmax(double[] data, int width, int from, int to, int[] labels, int[] predictions);
+
+    /**
+     * This method creates the fastest kernel the running JVM supports
+     * @return the kernel
+     */
+    static SoftmaxKernel create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (SoftmaxKernel) Class.forName("VectorSoftmaxKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //fall back to the scalar kernel below
+            }
+        }
+        return new ScalarSoftmaxKernel();
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class reads the documents of a dataset cache (see SparseDatasetCache) a chunk of rows at a time,
+ * so a dataset that does not fit in memory can be trained on. Only the arrays of the current chunk are
+ * read from the file, every chunk is a SparseDataset of its own with rows 0 to chunk size - 1.
+ * A reader reads a range of the rows of the file, for example the training or the validation part of
+ * the training file, and rewind starts the range again for the next epoch.
+ * The size of the file (rows, columns and the number of classes) is known before any chunk is read.
+ */
+public class SparseChunkReader implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final int columns;
+    private final int from;
+    private final int to;
+    private final int chunkRows;
+    //the positions of the arrays in the file
+    private final long documentIdsPosition;
+    private final long labelsPosition;
+    private final long rowPointersPosition;
+    private final long indicesPosition;
+    private final long countsPosition;
+    //the first row of the next chunk
+    private int next;
+
+    /**
+     * Constructor for the SparseChunkReader class
+     * @param cache the cache file
+     * @param from the first row to read
+     * @param to the row after the last row to read, -1 reads to the end of the file
+     * @param chunkRows the most rows in a chunk
+     * @throws IOException if the cache can not be read
+     * @throws IllegalArgumentException if the range is not in the file or chunkRows is not positive
+     */
+    public SparseChunkReader(Path cache, int from, int to, int chunkRows) throws IOException {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("chunk rows must be positive, got " + chunkRows);
+        }
+        channel = FileChannel.open(cache, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SparseDatasetCache.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            if (header.getInt(0) != SparseDatasetCache.MAGIC || header.getInt(4) != SparseDatasetCache.VERSION) {
+                throw new IOException("Not a dataset cache: " + cache);
+            }
+            int rows = header.getInt(28);
+            columns = header.getInt(32);
+            int nonZeros = header.getInt(36);
+            if (to < 0) {
+                to = rows;
+            }
+            if (from < 0 || from > to || to > rows) {
+                throw new IllegalArgumentException("rows " + from + "-" + to + " are not in " + cache
+                        + ", it has " + rows + " rows");
+            }
+            documentIdsPosition = SparseDatasetCache.HEADER_BYTES;
+            labelsPosition = documentIdsPosition + (long) rows * Integer.BYTES;
+            rowPointersPosition = labelsPosition + (long) rows * Integer.BYTES;
+            indicesPosition = rowPointersPosition + (long) (rows + 1) * Integer.BYTES;
+            countsPosition = indicesPosition + (long) nonZeros * Integer.BYTES;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.from = from;
+        this.to = to;
+        this.chunkRows = chunkRows;
+        this.next = from;
+    }
+
+    /**
+     * This method reads the next chunk
+     * @return the rows of the chunk, null after the last chunk
+     * @throws IOException if the cache can not be read
+     */
+    public SparseDataset next() throws IOException {
+        if (next >= to) {
+            return null;
+        }
+        int rows = Math.min(chunkRows, to - next);
+        int[] rowPointers = readInts(rowPointersPosition, next, rows + 1);
+        int first = rowPointers[0];
+        int nonZeros = rowPointers[rows] - first;
+        for (int r = 0; r <= rows; r++) {
+            rowPointers[r] -= first;
+        }
+        int[] indices = readInts(indicesPosition, first, nonZeros);
+        int[] counts = readInts(countsPosition, first, nonZeros);
+        int[] labels = readInts(labelsPosition, next, rows);
+        int[] documentIds = readInts(documentIdsPosition, next, rows);
+        next += rows;
+        return new SparseDataset(rows, columns, rowPointers, indices, counts, labels, documentIds);
+    }
+
+    /**
+     * This method starts reading the range from its first row again
+     */
+    public void rewind() {
+        next = from;
+    }
+
+    /**
+     * This method reads the range as an Iterable of chunks, every iteration rewinds the reader.
+     * An IOException while reading is thrown as a RuntimeException.
+     * @return the chunks
+     */
+    public Iterable<SparseDataset> chunks() {
+        return () -> {
+            rewind();
+            return new Iterator<SparseDataset>() {
+                private SparseDataset chunk = read();
+
+                @Override
+                public boolean hasNext() {
+                    return chunk != null;
+                }
+
+                @Override
+                public SparseDataset next() {
+                    if (chunk == null) {
+                        throw new NoSuchElementException();
+                    }
+                    SparseDataset current = chunk;
+                    chunk = read();
+                    return current;
+                }
+            };
+        };
+    }
+
+    /**
+     * This method reads the next chunk for chunks()
+     */
+    private SparseDataset read() {
+        try {
+            return next();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the number of classes of the range, the largest class of any row (classes are 1 based)
+     * @throws IOException if the cache can not be read
+     */
+    public int getNumClasses() throws IOException {
+        int classes = 0;
+        for (int row = from; row < to; row += chunkRows) {
+            for (int label : readInts(labelsPosition, row, Math.min(chunkRows, to - row))) {
+                classes = Math.max(classes, label);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @return the number of rows of the range
+     */
+    public int getRows() {
+        return to - from;
+    }
+
+    /**
+     * @return the most rows in a chunk
+     */
+    public int getChunkRows() {
+        return Math.min(chunkRows, Math.max(1, to - from));
+    }
+
+    /**
+     * @return the number of word columns (the vocabulary size)
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * This method reads length ints of an array of the file, starting at element offset
+     */
+    private int[] readInts(long arrayPosition, int offset, int length) throws IOException {
+        int[] values = new int[length];
+        long position = arrayPosition + (long) offset * Integer.BYTES;
+        int read = 0;
+        while (read < length) {
+            int block = Math.min(length - read, BUFFER_BYTES / Integer.BYTES);
+            buffer.clear().limit(block * Integer.BYTES);
+            readFully(buffer, position);
+            buffer.flip();
+            buffer.asIntBuffer().get(values, read, block);
+            read += block;
+            position += (long) block * Integer.BYTES;
+        }
+        return values;
+    }
+
+    /**
+     * This method fills the remaining bytes of a buffer from a position of the file
+     */
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the dataset cache");
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads the dense 20newsgroups csv files (training.csv and testing.csv)
+ * and turns every row straight into a sparse representation of the document.
+ * Each row looks like: document id, one word count per vocabulary word, and
+ * (only for the training file) the class of the document.
+ * Splitting a 61190 column line with String.split creates a String for every column,
+ * so instead this reader parses the bytes of the file directly from a buffered FileChannel
+ * and only keeps the words with a count greater than zero.
+ * The reader is used like a cursor, next() moves to the next row and the getters
+ * return the values of the current row. The index and count arrays are reused between
+ * rows, so they should be copied if they are needed after the next call to next().
+ * Word indices are 0 based, index i is the word on line i+1 of the vocabulary file.
+ */
+public class SparseCsvReader implements Closeable {
+    //size of the buffer the file channel reads into
+    private static final int BUFFER_SIZE = 1 << 20;
+    //the largest value that another digit can be appended to without passing Integer.MAX_VALUE
+    private static final int MAX_BEFORE_DIGIT = Integer.MAX_VALUE / 10;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    //true if the last column of every row is the class of the document
+    private final boolean hasLabel;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfFile = false;
+    //values of the current row
+    private int documentId;
+    private int label;
+    private int[] indices = new int[1024];
+    private int[] counts = new int[1024];
+    private int size;
+    private int columns;
+    private int rowNumber = 0;
+
+    /**
+     * Constructor for the SparseCsvReader class
+     * @param fileName the csv file to read
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file can not be opened
+     */
+    public SparseCsvReader(String fileName, boolean hasLabel) throws IOException {
+        try {
+            this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(fileName);
+        }
+        this.hasLabel = hasLabel;
+    }
+
+    /**
+     * This method reads the next row of the file
+     * @return true if a row was read, false if the end of the file was reached
+     * @throws IOException if the file can not be read or a row is malformed
+     */
+    public boolean next() throws IOException {
+        size = 0;
+        label = 0;
+        int column = 0;
+        int value = 0;
+        boolean inValue = false;
+        boolean rowStarted = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                if (!rowStarted) {
+                    return false;
+                }
+                //the last row of the file does not end with a new line
+                finishRow(column, value, inValue);
+                return true;
+            }
+            byte b = bytes[position++];
+            if (b >= '0' && b <= '9') {
+                int digit = b - '0';
+                if (value > MAX_BEFORE_DIGIT || value == MAX_BEFORE_DIGIT && digit > Integer.MAX_VALUE % 10) {
+                    throw malformed("column " + column + " is larger than " + Integer.MAX_VALUE);
+                }
+                value = value * 10 + digit;
+                inValue = true;
+                rowStarted = true;
+            }
+            else if (b == ',') {
+                if (!inValue) {
+                    throw malformed("empty column " + column);
+                }
+                //the first column is the document id, the rest are word counts
+                if (column == 0) {
+                    documentId = value;
+                }
+                else {
+                    addWord(column - 1, value);
+                }
+                column++;
+                value = 0;
+                inValue = false;
+            }
+            else if (b == '\n') {
+                if (rowStarted) {
+                    finishRow(column, value, inValue);
+                    return true;
+                }
+            }
+            else if (b == '\r') {
+                //a carriage return is only allowed at the end of a line (Windows line endings)
+                if ((position < limit || fill()) && bytes[position] != '\n') {
+                    throw malformed("carriage return inside column " + column);
+                }
+            }
+            else {
+                throw malformed("unexpected character '" + (char) b + "'");
+            }
+        }
+    }
+
+    /**
+     * This method stores the last column of a row, which is either the class or the last word count
+     * @param column the index of the last column
+     * @param value the value of the last column
+     * @param inValue false if the row ends with a comma, so its last column is empty
+     * @throws IOException if the row only contains the document id or its last column is empty
+     */
+    private void finishRow(int column, int value, boolean inValue) throws IOException {
+        if (!inValue) {
+            throw malformed("empty column " + column);
+        }
+        if (column == 0) {
+            throw malformed("row only contains one column");
+        }
+        //counted once the row is known to be whole, malformed reports rowNumber + 1
+        rowNumber++;
+        if (hasLabel) {
+            label = value;
+            columns = column - 1;
+        }
+        else {
+            addWord(column - 1, value);
+            columns = column;
+        }
+    }
+
+    /**
+     * This method adds a word to the current row if its count is greater than zero
+     * @param index the index of the word
+     * @param count the count of the word in the document
+     */
+    private void addWord(int index, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (size == indices.length) {
+            indices = Arrays.copyOf(indices, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        indices[size] = index;
+        counts[size] = count;
+        size++;
+    }
+
+    /**
+     * This method reads the next block of the file into the buffer
+     * @return false if there is nothing left to read
+     * @throws IOException if the file can not be read
+     */
+    private boolean fill() throws IOException {
+        if (endOfFile) {
+            return false;
+        }
+        buffer.clear();
+        int read = channel.read(buffer);
+        while (read == 0) {
+            read = channel.read(buffer);
+        }
+        if (read < 0) {
+            endOfFile = true;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private IOException malformed(String message) {
+        return new IOException("Malformed csv row " + (rowNumber + 1) + ": " + message);
+    }
+
+    /**
+     * @return the document id of the current row
+     */
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * @return the class of the current row, 0 if the file has no labels
+     */
+    public int getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the indices of the words with a count greater than zero, only the first size() are valid
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return the counts of the words in getIndices(), only the first size() are valid
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return the number of words with a count greater than zero in the current row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of word columns of the current row (the vocabulary size)
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class holds a whole csv file in compressed sparse row (CSR) format.
+ * Only the words with a count greater than zero are stored. The words of row r
+ * are stored in indices/counts from rowPointers[r] (inclusive) to rowPointers[r+1] (exclusive).
+ * Every row also keeps its document id and its class (0 if the file has no classes).
+ * Word indices are 0 based like in SparseCsvReader.
+ */
+public class SparseDataset {
+    private final int rows;
+    private final int columns;
+    private final int[] rowPointers;
+    private final int[] indices;
+    private final int[] counts;
+    private final int[] labels;
+    private final int[] documentIds;
+
+    /**
+     * Constructor for the SparseDataset class
+     * @param rows the number of documents
+     * @param columns the number of word columns (the vocabulary size)
+     * @param rowPointers the start of every row in indices/counts, has rows+1 elements
+     * @param indices the word indices of every row
+     * @param counts the word counts of every row
+     * @param labels the class of every row
+     * @param documentIds the document id of every row
+     */
+    public SparseDataset(int rows, int columns, int[] rowPointers, int[] indices, int[] counts,
+                         int[] labels, int[] documentIds) {
+        this.rows = rows;
+        this.columns = columns;
+        this.rowPointers = rowPointers;
+        this.indices = indices;
+        this.counts = counts;
+        this.labels = labels;
+        this.documentIds = documentIds;
+    }
+
+    /**
+     * This method reads a whole csv file into a SparseDataset
+     * @param fileName the csv file to read
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @return the dataset
+     * @throws IOException if the file can not be read
+     */
+    public static SparseDataset fromCsv(String fileName, boolean hasLabel) throws IOException {
+        int rows = 0;
+        int columns = 0;
+        int nonZeros = 0;
+        int[] rowPointers = new int[1025];
+        int[] labels = new int[1024];
+        int[] documentIds = new int[1024];
+        int[] indices = new int[1 << 20];
+        int[] counts = new int[1 << 20];
+        try (SparseCsvReader reader = new SparseCsvReader(fileName, hasLabel)) {
+            while (reader.next()) {
+                if (rows == labels.length) {
+                    labels = Arrays.copyOf(labels, rows * 2);
+                    documentIds = Arrays.copyOf(documentIds, rows * 2);
+                    rowPointers = Arrays.copyOf(rowPointers, rows * 2 + 1);
+                }
+                int size = reader.size();
+                if (nonZeros + size > indices.length) {
+                    int length = Math.max(indices.length * 2, nonZeros + size);
+                    indices = Arrays.copyOf(indices, length);
+                    counts = Arrays.copyOf(counts, length);
+                }
+                System.arraycopy(reader.getIndices(), 0, indices, nonZeros, size);
+                System.arraycopy(reader.getCounts(), 0, counts, nonZeros, size);
+                nonZeros += size;
+                labels[rows] = reader.getLabel();
+                documentIds[rows] = reader.getDocumentId();
+                columns = Math.max(columns, reader.getColumns());
+                rows++;
+                rowPointers[rows] = nonZeros;
+            }
+        }
+        return new SparseDataset(rows, columns, Arrays.copyOf(rowPointers, rows + 1),
+                Arrays.copyOf(indices, nonZeros), Arrays.copyOf(counts, nonZeros),
+                Arrays.copyOf(labels, rows), Arrays.copyOf(documentIds, rows));
+    }
+
+    /**
+     * @return the number of documents
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of word columns (the vocabulary size)
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the number of classes, the largest class of any row (classes are 1 based), 0 without classes
+     */
+    public int getNumClasses() {
+        int classes = 0;
+        for (int r = 0; r < rows; r++) {
+            classes = Math.max(classes, labels[r]);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the total number of stored (non-zero) word counts
+     */
+    public int getNonZeros() {
+        return rowPointers[rows];
+    }
+
+    /**
+     * @param row the row
+     * @return the position in getIndices()/getCounts() of the first word of the row
+     */
+    public int rowStart(int row) {
+        return rowPointers[row];
+    }
+
+    /**
+     * @param row the row
+     * @return the position in getIndices()/getCounts() after the last word of the row
+     */
+    public int rowEnd(int row) {
+        return rowPointers[row + 1];
+    }
+
+    /**
+     * @param row the row
+     * @return the class of the document in the row
+     */
+    public int getLabel(int row) {
+        return labels[row];
+    }
+
+    /**
+     * @param row the row
+     * @return the document id of the document in the row
+     */
+    public int getDocumentId(int row) {
+        return documentIds[row];
+    }
+
+    public int[] getRowPointers() {
+        return rowPointers;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public int[] getDocumentIds() {
+        return documentIds;
+    }
+
+    /**
+     * This class builds a SparseDataset a row at a time, for documents that are not read from a csv file.
+     * The columns of a row can be given in any order and can repeat, for example the columns of the
+     * tokens of a document one token at a time: they are sorted and the counts of a column are added up.
+     */
+    public static final class Builder {
+        private final int columns;
+        private int rows;
+        private int nonZeros;
+        private int[] rowPointers = new int[1025];
+        private int[] labels = new int[1024];
+        private int[] documentIds = new int[1024];
+        private int[] indices = new int[1 << 16];
+        private int[] counts = new int[1 << 16];
+        //the columns and counts of the row being added, packed as column << 32 | count
+        private long[] row = new long[256];
+
+        /**
+         * Constructor for the Builder class
+         * @param columns the number of word columns of the dataset
+         */
+        public Builder(int columns) {
+            this.columns = columns;
+        }
+
+        /**
+         * This method adds a row
+         * @param rowColumns the columns of the row, in any order, a column can repeat
+         * @param rowCounts the count of every column, null to count every column once
+         * @param length the number of columns
+         * @param label the class of the document, 0 if it has none
+         * @param documentId the document id
+         * @throws IllegalArgumentException if a column is not a column of the dataset or a count is negative
+         */
+        public void addRow(int[] rowColumns, int[] rowCounts, int length, int label, int documentId) {
+            if (row.length < length) {
+                row = new long[Math.max(length, row.length * 2)];
+            }
+            for (int k = 0; k < length; k++) {
+                int column = rowColumns[k];
+                int count = rowCounts == null ? 1 : rowCounts[k];
+                if (column < 0 || column >= columns || count < 0) {
+                    throw new IllegalArgumentException("column " + column + " with count " + count
+                            + " does not fit a dataset of " + columns + " columns");
+                }
+                row[k] = (long) column << 32 | count;
+            }
+            Arrays.sort(row, 0, length);
+            if (rows == labels.length) {
+                labels = Arrays.copyOf(labels, rows * 2);
+                documentIds = Arrays.copyOf(documentIds, rows * 2);
+                rowPointers = Arrays.copyOf(rowPointers, rows * 2 + 1);
+            }
+            if (nonZeros + length > indices.length) {
+                int size = Math.max(indices.length * 2, nonZeros + length);
+                indices = Arrays.copyOf(indices, size);
+                counts = Arrays.copyOf(counts, size);
+            }
+            int start = nonZeros;
+            for (int k = 0; k < length; k++) {
+                int column = (int) (row[k] >>> 32);
+                int count = (int) row[k];
+                if (count == 0) {
+                    continue;
+                }
+                if (nonZeros > start && indices[nonZeros - 1] == column) {
+                    counts[nonZeros - 1] += count;
+                }
+                else {
+                    indices[nonZeros] = column;
+                    counts[nonZeros] = count;
+                    nonZeros++;
+                }
+            }
+            labels[rows] = label;
+            documentIds[rows] = documentId;
+            rows++;
+            rowPointers[rows] = nonZeros;
+        }
+
+        /**
+         * This method adds every row of a dataset that was already built, for example a chunk of documents.
+         * Its rows are already sorted, so they are copied as they are.
+         * @param part the rows to add
+         * @throws IllegalArgumentException if the part has more columns than the dataset
+         */
+        public void addRows(SparseDataset part) {
+            if (part.columns > columns) {
+                throw new IllegalArgumentException("a dataset of " + part.columns
+                        + " columns does not fit a dataset of " + columns + " columns");
+            }
+            int first = part.rowPointers[0];
+            int size = part.rowPointers[part.rows] - first;
+            if (rows + part.rows > labels.length) {
+                int length = Math.max(labels.length * 2, rows + part.rows);
+                labels = Arrays.copyOf(labels, length);
+                documentIds = Arrays.copyOf(documentIds, length);
+                rowPointers = Arrays.copyOf(rowPointers, length + 1);
+            }
+            if (nonZeros + size > indices.length) {
+                int length = Math.max(indices.length * 2, nonZeros + size);
+                indices = Arrays.copyOf(indices, length);
+                counts = Arrays.copyOf(counts, length);
+            }
+            System.arraycopy(part.indices, first, indices, nonZeros, size);
+            System.arraycopy(part.counts, first, counts, nonZeros, size);
+            System.arraycopy(part.labels, 0, labels, rows, part.rows);
+            System.arraycopy(part.documentIds, 0, documentIds, rows, part.rows);
+            for (int r = 1; r <= part.rows; r++) {
+                rowPointers[rows + r] = nonZeros + part.rowPointers[r] - first;
+            }
+            rows += part.rows;
+            nonZeros += size;
+        }
+
+        /**
+         * @return the number of rows added so far
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the dataset of every row added so far
+         */
+        public SparseDataset build() {
+            return new SparseDataset(rows, columns, Arrays.copyOf(rowPointers, rows + 1),
+                    Arrays.copyOf(indices, nonZeros), Arrays.copyOf(counts, nonZeros),
+                    Arrays.copyOf(labels, rows), Arrays.copyOf(documentIds, rows));
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class converts the csv files into a binary CSR file and loads it back with a memory map.
+ * Parsing training.csv takes minutes while copying the arrays out of the binary file takes milliseconds,
+ * so the csv file is only parsed the first time it is used.
+ * The cache is written next to the csv file with the extension ".csr". It stores the size and the
+ * last modified time of the csv file, and it is rebuilt if either of them changed.
+ * For files that do not fit in memory, ensure builds the cache one row at a time and
+ * SparseChunkReader reads it back a chunk of rows at a time.
+ * File layout (little endian):
+ *      int magic, int version, long source size, long source last modified,
+ *      int has label, int rows, int columns, int non zeros,
+ *      int[rows] document ids, int[rows] labels, int[rows+1] row pointers,
+ *      int[non zeros] indices, int[non zeros] counts
+ */
+public class SparseDatasetCache {
+    static final int MAGIC = 0x31525343;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 40;
+    private static final String EXTENSION = ".csr";
+
+    /**
+     * This method loads a csv file through its binary cache, building the cache if
+     * it does not exist or is out of date
+     * @param csvFile the csv file
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @return the dataset
+     * @throws FileNotFoundException if the csv file does not exist
+     * @throws IOException if the csv file or the cache can not be read
+     */
+    public static SparseDataset load(String csvFile, boolean hasLabel) throws IOException {
+        File source = new File(csvFile);
+        if (!source.isFile()) {
+            throw new FileNotFoundException(csvFile);
+        }
+        Path cache = cachePath(csvFile);
+        if (isFresh(cache, source, hasLabel)) {
+            System.out.println("Reading " + csvFile + " from cache " + cache + "...");
+            return read(cache);
+        }
+        System.out.println("Building cache " + cache + " from " + csvFile + "...");
+        SparseDataset dataset = SparseDataset.fromCsv(csvFile, hasLabel);
+        try {
+            write(dataset, cache, source.length(), source.lastModified(), hasLabel);
+        } catch (IOException e) {
+            //the csv file was parsed, the dataset is still usable without a cache (e.g. a read-only directory)
+            System.err.println("Warning: could not write cache " + cache + ": " + e);
+        }
+        return dataset;
+    }
+
+    /**
+     * This method makes sure the cache of a csv file exists and is up to date without loading the dataset.
+     * If the cache has to be built, the csv file is streamed one row at a time (see build),
+     * so this works for files larger than memory.
+     * @param csvFile the csv file
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @return the cache file
+     * @throws FileNotFoundException if the csv file does not exist
+     * @throws IOException if the csv file or the cache can not be read or written
+     */
+    public static Path ensure(String csvFile, boolean hasLabel) throws IOException {
+        File source = new File(csvFile);
+        if (!source.isFile()) {
+            throw new FileNotFoundException(csvFile);
+        }
+        Path cache = cachePath(csvFile);
+        if (!isFresh(cache, source, hasLabel)) {
+            System.out.println("Building cache " + cache + " from " + csvFile + " one row at a time...");
+            build(source, cache, hasLabel);
+        }
+        return cache;
+    }
+
+    /**
+     * @param csvFile the csv file
+     * @return the path of the cache of the csv file
+     */
+    public static Path cachePath(String csvFile) {
+        return Paths.get(csvFile + EXTENSION);
+    }
+
+    /**
+     * This method creates an empty temporary file next to a file, with a name no other process uses,
+     * so processes that write the same file at the same time never write into the same temporary file
+     * @param file the file the temporary file will be moved to
+     * @param suffix the end of the temporary file's name
+     * @return the temporary file
+     * @throws IOException if the file can not be created
+     */
+    static Path createTemporary(Path file, String suffix) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        return Files.createTempFile(directory, file.getFileName() + ".", suffix);
+    }
+
+    /**
+     * This method checks that the cache exists and was built from the current version of the csv file
+     * @param cache the cache file
+     * @param source the csv file
+     * @param hasLabel true if the cache should contain classes
+     * @return true if the cache can be used
+     * @throws IOException if the cache can not be read
+     */
+    private static boolean isFresh(Path cache, File source, boolean hasLabel) throws IOException {
+        if (!Files.isRegularFile(cache) || Files.size(cache) < HEADER_BYTES) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            return header.getInt() == MAGIC
+                    && header.getInt() == VERSION
+                    && header.getLong() == source.length()
+                    && header.getLong() == source.lastModified()
+                    && header.getInt() == (hasLabel ? 1 : 0);
+        }
+    }
+
+    /**
+     * This method writes a dataset to a cache file. The file is written to a temporary file first
+     * so a crash never leaves a half written cache behind, the temporary file is deleted if writing fails.
+     * @param dataset the dataset to write
+     * @param cache the cache file
+     * @param sourceSize the size of the csv file
+     * @param sourceModified the last modified time of the csv file
+     * @param hasLabel true if the dataset contains classes
+     * @throws IOException if the cache can not be written
+     */
+    public static void write(SparseDataset dataset, Path cache, long sourceSize, long sourceModified,
+                             boolean hasLabel) throws IOException {
+        Path temporary = createTemporary(cache, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putLong(sourceSize);
+                buffer.putLong(sourceModified);
+                buffer.putInt(hasLabel ? 1 : 0);
+                buffer.putInt(dataset.getRows());
+                buffer.putInt(dataset.getColumns());
+                buffer.putInt(dataset.getNonZeros());
+                writeInts(channel, buffer, dataset.getDocumentIds(), dataset.getRows());
+                writeInts(channel, buffer, dataset.getLabels(), dataset.getRows());
+                writeInts(channel, buffer, dataset.getRowPointers(), dataset.getRows() + 1);
+                writeInts(channel, buffer, dataset.getIndices(), dataset.getNonZeros());
+                writeInts(channel, buffer, dataset.getCounts(), dataset.getNonZeros());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * This method builds a cache file while reading the csv file, without holding the dataset in memory.
+     * Every array of the file layout is written to its own temporary file as the rows are read,
+     * then the header and the arrays are joined into the cache.
+     * @param source the csv file
+     * @param cache the cache file
+     * @param hasLabel true if the last column of every row is the class of the document
+     * @throws IOException if the csv file can not be read or the cache can not be written
+     */
+    private static void build(File source, Path cache, boolean hasLabel) throws IOException {
+        String[] names = {"ids", "labels", "pointers", "indices", "counts"};
+        Path[] parts = new Path[names.length];
+        Path temporary = null;
+        try {
+            for (int p = 0; p < parts.length; p++) {
+                parts[p] = createTemporary(cache, "." + names[p] + ".tmp");
+            }
+            temporary = createTemporary(cache, ".tmp");
+            int rows = 0;
+            int columns = 0;
+            long nonZeros = 0;
+            try (SparseCsvReader reader = new SparseCsvReader(source.getPath(), hasLabel);
+                 IntWriter documentIds = new IntWriter(parts[0]);
+                 IntWriter labels = new IntWriter(parts[1]);
+                 IntWriter rowPointers = new IntWriter(parts[2]);
+                 IntWriter indices = new IntWriter(parts[3]);
+                 IntWriter counts = new IntWriter(parts[4])) {
+                rowPointers.put(0);
+                while (reader.next()) {
+                    documentIds.put(reader.getDocumentId());
+                    labels.put(reader.getLabel());
+                    for (int n = 0; n < reader.size(); n++) {
+                        indices.put(reader.getIndices()[n]);
+                        counts.put(reader.getCounts()[n]);
+                    }
+                    nonZeros += reader.size();
+                    if (nonZeros > Integer.MAX_VALUE) {
+                        throw new IOException(source + " has more than " + Integer.MAX_VALUE + " word counts");
+                    }
+                    rowPointers.put((int) nonZeros);
+                    columns = Math.max(columns, reader.getColumns());
+                    rows++;
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putLong(source.length());
+                header.putLong(source.lastModified());
+                header.putInt(hasLabel ? 1 : 0);
+                header.putInt(rows);
+                header.putInt(columns);
+                header.putInt((int) nonZeros);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                for (Path part : parts) {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long copied = 0;
+                        while (copied < size) {
+                            copied += in.transferTo(copied, size - copied, channel);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            for (Path part : parts) {
+                if (part != null) {
+                    Files.deleteIfExists(part);
+                }
+            }
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Writes ints to a file through a buffer, for building a cache one value at a time
+     */
+    private static final class IntWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private IntWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private void put(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * This method writes the first length values of an array through the buffer,
+     * flushing the buffer to the channel every time it is full
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length)
+            throws IOException {
+        int written = 0;
+        while (written < length) {
+            int block = Math.min(buffer.remaining() / Integer.BYTES, length - written);
+            buffer.asIntBuffer().put(values, written, block);
+            buffer.position(buffer.position() + block * Integer.BYTES);
+            written += block;
+            if (buffer.remaining() < Integer.BYTES) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * This method memory maps a cache file and copies its arrays out of the map
+     * @param cache the cache file
+     * @return the dataset
+     * @throws IOException if the cache can not be read
+     */
+    public static SparseDataset read(Path cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a dataset cache: " + cache);
+            }
+            header.position(28);
+            int rows = header.getInt();
+            int columns = header.getInt();
+            int nonZeros = header.getInt();
+            long position = HEADER_BYTES;
+            int[] documentIds = readInts(channel, position, rows);
+            position += (long) rows * Integer.BYTES;
+            int[] labels = readInts(channel, position, rows);
+            position += (long) rows * Integer.BYTES;
+            int[] rowPointers = readInts(channel, position, rows + 1);
+            position += (long) (rows + 1) * Integer.BYTES;
+            int[] indices = readInts(channel, position, nonZeros);
+            position += (long) nonZeros * Integer.BYTES;
+            int[] counts = readInts(channel, position, nonZeros);
+            return new SparseDataset(rows, columns, rowPointers, indices, counts, labels, documentIds);
+        }
+    }
+
+    /**
+     * This method maps one array of the cache file and copies it into a java array
+     */
+    private static int[] readInts(FileChannel channel, long position, int length) throws IOException {
+        int[] values = new int[length];
+        if (length > 0) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) length * Integer.BYTES);
+            map.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+        }
+        return values;
+    }
+}
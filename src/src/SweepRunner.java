@@ -0,0 +1,312 @@
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class tries many hyperparameter settings of one algorithm and reports how well each one does.
+ * The data set is read (and for LR scaled) once, then every setting is a job on a fork-join pool:
+ *      NB: a job shares the word counts and only calculates P(Y) and P(X|Y) for its beta
+ *      LR: a job shares the scaled training and validation matrices and trains its own weights
+ *          (one thread per job, the jobs themselves run in parallel)
+ * Every job is scored on the validation set through the Classifier interface, so both algorithms report
+ * the same things: the accuracy, the log conditional likelihood Sigma ln P(y|x) and the time the job took.
+ * The settings are given as a list of jobs, built by grid (every combination of some values) or
+ * random (settings drawn from ranges).
+ */
+public class SweepRunner {
+    private static final List<String> NB_PARAMETERS = Arrays.asList("beta");
+    private static final List<String> LR_PARAMETERS = Arrays.asList("lambda", "eta", "iterations", "optimizer",
+            "batch-size", "seed", "tolerance", "patience", "max-millis");
+
+    private final RunConfig base;
+    private NaiveBayes naiveBayes;
+    private LogisticRegression logisticRegression;
+    private SparseDataset trainingSet;
+
+    /**
+     * The result of one job
+     */
+    public static final class Result {
+        private final Map<String, String> settings;
+        private final double accuracy;
+        private final double logLikelihood;
+        private final long millis;
+
+        private Result(Map<String, String> settings, double accuracy, double logLikelihood, long millis) {
+            this.settings = settings;
+            this.accuracy = accuracy;
+            this.logLikelihood = logLikelihood;
+            this.millis = millis;
+        }
+
+        public Map<String, String> getSettings() {
+            return settings;
+        }
+
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        public double getLogLikelihood() {
+            return logLikelihood;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /**
+     * Constructor for the SweepRunner class
+     * @param base the settings of the algorithm, file names and threads, every job changes some of them
+     */
+    public SweepRunner(RunConfig base) {
+        this.base = base;
+    }
+
+    /**
+     * This method reads the training file, for NB into the word counts and for LR into the scaled matrices.
+     * It is called by run if it was not called before.
+     * @throws FileNotFoundException if the training file does not exist
+     */
+    public void load() throws FileNotFoundException {
+        if (base.getAlgorithm().equals("nb")) {
+            naiveBayes = new NaiveBayes(base);
+            naiveBayes.createDataSet();
+            trainingSet = naiveBayes.getTrainingSet();
+        }
+        else {
+            logisticRegression = new LogisticRegression(base);
+            logisticRegression.createDataSet();
+            trainingSet = logisticRegression.getTrainingSet();
+        }
+    }
+
+    /**
+     * This method runs every job on a pool with the number of threads of the base settings
+     * @param jobs the settings every job changes, the name of a setting and its value
+     * @return the result of every job, in the same order as the jobs
+     * @throws FileNotFoundException if the training file does not exist
+     * @throws IllegalArgumentException if a job changes a setting the algorithm does not sweep or a value is invalid
+     */
+    public List<Result> run(List<Map<String, String>> jobs) throws FileNotFoundException {
+        //check every job before loading anything so a typo fails fast
+        List<String> parameters = base.getAlgorithm().equals("nb") ? NB_PARAMETERS : LR_PARAMETERS;
+        List<RunConfig> configs = new ArrayList<>(jobs.size());
+        for (Map<String, String> job : jobs) {
+            RunConfig config = base.copy();
+            for (Map.Entry<String, String> setting : job.entrySet()) {
+                if (!parameters.contains(setting.getKey())) {
+                    throw new IllegalArgumentException("can not sweep " + setting.getKey() + " for "
+                            + base.getAlgorithm() + ", use one of " + parameters);
+                }
+                config.set(setting.getKey(), setting.getValue());
+            }
+            //the jobs run in parallel, so every job trains on one thread
+            config.set("threads", "1");
+            configs.add(config);
+        }
+        if (trainingSet == null) {
+            load();
+        }
+        ForkJoinPool pool = Parallel.newPool(base.getThreads());
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(jobs.size());
+            for (int j = 0; j < jobs.size(); j++) {
+                Map<String, String> settings = jobs.get(j);
+                RunConfig config = configs.get(j);
+                tasks.add(pool.submit(() -> runJob(settings, config)));
+            }
+            List<Result> results = new ArrayList<>(jobs.size());
+            for (ForkJoinTask<Result> task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method trains and scores the model of one job
+     */
+    private Result runJob(Map<String, String> settings, RunConfig config) {
+        long startMillis = System.currentTimeMillis();
+        Classifier model;
+        if (naiveBayes != null) {
+            model = new NaiveBayes(naiveBayes, config.getBeta());
+        }
+        else {
+            LogisticRegression job = new LogisticRegression(logisticRegression, config);
+            job.setVerbose(false);
+            job.train();
+            model = job;
+        }
+        int start = RunConfig.validationStart(trainingSet.getRows(), base.getValidation());
+        int end = trainingSet.getRows();
+        int[] indices = trainingSet.getIndices();
+        int[] counts = trainingSet.getCounts();
+        double[] logProbabilities = new double[model.getNumClasses()];
+        int correct = 0;
+        double logLikelihood = 0;
+        for (int row = start; row < end; row++) {
+            //log probabilities from the scores, the probability of a confident miss underflows to 0
+            model.classLogProbabilities(indices, counts, trainingSet.rowStart(row), trainingSet.rowEnd(row),
+                    logProbabilities);
+            int label = trainingSet.getLabel(row) - 1;
+            int prediction = 0;
+            for (int j = 1; j < logProbabilities.length; j++) {
+                if (logProbabilities[j] > logProbabilities[prediction]) {
+                    prediction = j;
+                }
+            }
+            if (prediction == label) {
+                correct++;
+            }
+            logLikelihood += logProbabilities[label];
+        }
+        double accuracy = end > start ? (double) correct / (end - start) : 0;
+        return new Result(settings, accuracy, logLikelihood, System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * This method parses the values of a sweep, "name=value,value;name=value,...".
+     * For random, a value can also be a range "low:high".
+     * @param spec the values
+     * @return the values of every setting, in the order they were given
+     * @throws IllegalArgumentException if the values are malformed
+     */
+    public static Map<String, List<String>> parse(String spec) {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (String part : spec.split(";")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int equals = part.indexOf('=');
+            if (equals <= 0 || equals == part.length() - 1) {
+                throw new IllegalArgumentException("expected name=value,value but got " + part);
+            }
+            List<String> list = new ArrayList<>();
+            for (String value : part.substring(equals + 1).split(",")) {
+                list.add(value.trim());
+            }
+            values.put(part.substring(0, equals).trim(), list);
+        }
+        return values;
+    }
+
+    /**
+     * This method builds one job for every combination of the values
+     * @param values the values of every setting
+     * @return the jobs
+     */
+    public static List<Map<String, String>> grid(Map<String, List<String>> values) {
+        List<Map<String, String>> jobs = new ArrayList<>();
+        jobs.add(new LinkedHashMap<>());
+        for (Map.Entry<String, List<String>> setting : values.entrySet()) {
+            List<Map<String, String>> next = new ArrayList<>(jobs.size() * setting.getValue().size());
+            for (Map<String, String> job : jobs) {
+                for (String value : setting.getValue()) {
+                    Map<String, String> combination = new LinkedHashMap<>(job);
+                    combination.put(setting.getKey(), value);
+                    next.add(combination);
+                }
+            }
+            jobs = next;
+        }
+        return jobs;
+    }
+
+    /**
+     * This method builds jobs with random settings. A setting given as "low:high" is drawn from the range:
+     * whole numbers uniformly, positive numbers uniformly on a log scale (so 0.0001:0.1 tries every
+     * order of magnitude as often) and other numbers uniformly. A setting given as a list of values
+     * is one of the values chosen uniformly.
+     * @param values the ranges or values of every setting
+     * @param samples the number of jobs
+     * @param seed the seed of the random numbers, so a sweep can be repeated
+     * @return the jobs
+     */
+    public static List<Map<String, String>> random(Map<String, List<String>> values, int samples, long seed) {
+        Random random = new Random(seed);
+        List<Map<String, String>> jobs = new ArrayList<>(samples);
+        for (int s = 0; s < samples; s++) {
+            Map<String, String> job = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> setting : values.entrySet()) {
+                List<String> options = setting.getValue();
+                String value = options.get(random.nextInt(options.size()));
+                int colon = value.indexOf(':');
+                if (colon >= 0) {
+                    value = draw(value.substring(0, colon), value.substring(colon + 1), random);
+                }
+                job.put(setting.getKey(), value);
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * This method draws a number from the range low-high, see random
+     */
+    private static String draw(String low, String high, Random random) {
+        try {
+            long first = Long.parseLong(low);
+            long last = Long.parseLong(high);
+            return Long.toString(first + (long) (random.nextDouble() * (last - first + 1)));
+        } catch (NumberFormatException e) {
+            //not whole numbers
+        }
+        try {
+            double first = Double.parseDouble(low);
+            double last = Double.parseDouble(high);
+            if (first > 0 && last > 0) {
+                //Locale.ROOT so the value always has a decimal point that RunConfig can parse
+                return String.format(Locale.ROOT, "%.4g",
+                        Math.exp(Math.log(first) + random.nextDouble() * (Math.log(last) - Math.log(first))));
+            }
+            return String.format(Locale.ROOT, "%.4g", first + random.nextDouble() * (last - first));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("expected a range of numbers but got " + low + ":" + high);
+        }
+    }
+
+    /**
+     * This method prints the results as a table, one row per job
+     * @param results the results
+     * @param out the stream to print to
+     */
+    public static void printTable(List<Result> results, PrintStream out) {
+        List<String> names = new ArrayList<>();
+        for (Result result : results) {
+            for (String name : result.settings.keySet()) {
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        StringBuilder header = new StringBuilder();
+        for (String name : names) {
+            header.append(String.format("%-14s ", name));
+        }
+        out.println(header.append(String.format("%-10s %-16s %s", "accuracy", "log likelihood", "ms")));
+        for (Result result : results) {
+            StringBuilder row = new StringBuilder();
+            for (String name : names) {
+                row.append(String.format("%-14s ", result.settings.getOrDefault(name, "")));
+            }
+            //Locale.ROOT so the table has decimal points whatever the default locale is
+            out.println(row.append(String.format(Locale.ROOT, "%-10.4f %-16.2f %d", result.accuracy,
+                    result.logLikelihood, result.millis)));
+        }
+    }
+}
@@ -0,0 +1,631 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class reads raw text documents and turns them into word counts, so the models can train on and predict
+ * text without a pre-vectorized csv file. A corpus is either
+ *      a directory: every file is a document and the files of a subdirectory are the documents of the class
+ *          named like the subdirectory (its line in the labels file), a file named by a number has that document id
+ *      a JSONL file (".jsonl"): one JSON object per line with the "text" of the document and optionally its "id"
+ *          and its "label", the class as a number or as the name on its line of the labels file
+ * When the classes are read, every document must have one: a file directly in the directory or a line without
+ * a "label" is an error, and so is a class that is not a line of the labels file.
+ * The text is lowercased and split into words at every character that is not a letter or a digit (see tokenize).
+ * A word is counted at its line of the vocabulary file (words that are not in the vocabulary are skipped), or
+ * at its hashed column with feature hashing (see FeatureHasher).
+ * The documents go through a producer/consumer pipeline: one thread reads the files in order and hands batches
+ * of documents to a pool that tokenizes and counts them in parallel. The batches come out as SparseDataset chunks
+ * in the order of the files and the queue between them is bounded, so the text of a large corpus is never all
+ * in memory and no dense csv row is ever written. The models train on the counts of the whole corpus in memory
+ * (see readAll), only a csv file can be trained on a chunk at a time (--chunk-rows).
+ */
+public class TextCorpus {
+    private static final String JSONL = ".jsonl";
+    //the number of documents in a chunk
+    private static final int BATCH_ROWS = 256;
+
+    private final String path;
+    private final boolean hasLabel;
+    private final String labelsFile;
+    private final int threads;
+    //the index of every word of the vocabulary, null with feature hashing
+    private Map<String, Integer> vocabulary;
+    private int vocabularySize;
+    private FeatureHasher hasher;
+    //the class of every name of the labels file and the number of classes, read when the first label is read
+    private Map<String, Integer> labels;
+    private int classes;
+
+    /**
+     * A document that was read but not counted yet
+     */
+    private static final class RawDocument {
+        private final String text;
+        private final int label;
+        private final int documentId;
+
+        private RawDocument(String text, int label, int documentId) {
+            this.text = text;
+            this.label = label;
+            this.documentId = documentId;
+        }
+    }
+
+    /**
+     * Constructor for the TextCorpus class, setVocabulary or setHasher must be called before it is read
+     * @param path the directory or the JSONL file
+     * @param hasLabel true to read the class of every document, otherwise every document has class 0
+     * @param labelsFile the class names, one per line, for documents that are labeled by name
+     * @param threads the number of threads counting the words, 0 means one per core
+     * @throws FileNotFoundException if the corpus does not exist
+     */
+    public TextCorpus(String path, boolean hasLabel, String labelsFile, int threads) throws FileNotFoundException {
+        if (!new File(path).exists()) {
+            throw new FileNotFoundException(path);
+        }
+        this.path = path;
+        this.hasLabel = hasLabel;
+        this.labelsFile = labelsFile;
+        this.threads = threads;
+    }
+
+    /**
+     * @param path a training or testing file setting
+     * @return true if it is a raw text corpus, a directory or a JSONL file, instead of a csv file
+     */
+    public static boolean isText(String path) {
+        return path.endsWith(JSONL) || new File(path).isDirectory();
+    }
+
+    /**
+     * This method reads every document of a corpus
+     * @param path the directory or the JSONL file
+     * @param hasLabel true to read the class of every document
+     * @param vocabularyFile the vocabulary, not read with feature hashing
+     * @param labelsFile the class names
+     * @param hasher the hashing of the words, null to count the words of the vocabulary
+     * @param threads the number of threads counting the words, 0 means one per core
+     * @return the documents
+     * @throws FileNotFoundException if the corpus or the vocabulary does not exist
+     * @throws IOException if a file can not be read
+     */
+    public static SparseDataset load(String path, boolean hasLabel, String vocabularyFile, String labelsFile,
+                                     FeatureHasher hasher, int threads) throws IOException {
+        TextCorpus corpus = new TextCorpus(path, hasLabel, labelsFile, threads);
+        if (hasher == null) {
+            corpus.setVocabulary(vocabularyFile);
+        }
+        else {
+            corpus.setHasher(hasher);
+        }
+        System.out.println("Reading and tokenizing the text documents of " + path + "...");
+        return corpus.readAll();
+    }
+
+    /**
+     * This method reads the vocabulary the words are counted with, the line of a word is its index
+     * @param vocabularyFile the vocabulary file, one word per line
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file can not be read
+     */
+    public void setVocabulary(String vocabularyFile) throws IOException {
+        String[] words = MutualInformation.readVocabulary(vocabularyFile, Integer.MAX_VALUE);
+        Map<String, Integer> indices = new HashMap<>(words.length * 2);
+        for (int i = 0; i < words.length; i++) {
+            indices.putIfAbsent(words[i].trim().toLowerCase(Locale.ROOT), i);
+        }
+        vocabulary = indices;
+        vocabularySize = words.length;
+        hasher = null;
+    }
+
+    /**
+     * This method hashes the words instead of looking them up in a vocabulary
+     * @param hasher the hashing of the words
+     */
+    public void setHasher(FeatureHasher hasher) {
+        this.hasher = hasher;
+        vocabulary = null;
+    }
+
+    /**
+     * This method splits a text into lowercase words, a word is a run of letters and digits
+     * @param text the text
+     * @return the words in the order of the text
+     */
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            }
+            else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * This method reads every document of the corpus into one dataset. Every chunk is added to the dataset as
+     * soon as it is counted and then dropped, so the chunks are never all held next to the dataset.
+     * @return the documents, in the order of the files
+     */
+    public SparseDataset readAll() {
+        SparseDataset.Builder builder = new SparseDataset.Builder(getColumns());
+        try (Pipeline pipeline = read()) {
+            while (pipeline.hasNext()) {
+                builder.addRows(pipeline.next());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method starts a pass over the corpus that reads it a chunk of documents at a time. A reading thread and
+     * a pool of counting threads run until the pass is closed, so it must be closed (with try-with-resources) even
+     * if the caller stops before the last chunk.
+     * @return the chunks, in the order of the files
+     */
+    public Pipeline read() {
+        if (vocabulary == null && hasher == null) {
+            throw new IllegalStateException("the vocabulary or the hashing must be set before the corpus is read");
+        }
+        return new Pipeline();
+    }
+
+    /**
+     * @return the number of columns of the chunks, the vocabulary size or the number of hashed columns
+     */
+    public int getColumns() {
+        return hasher == null ? vocabularySize : hasher.getColumns();
+    }
+
+    /**
+     * The producer/consumer pipeline of one pass over the corpus. The reading thread puts the future chunk of
+     * every batch in a bounded queue in order, so it waits when the counting threads or the consumer fall behind.
+     * The last element of the queue is a chunk of null, or a failed chunk if reading failed.
+     * Closing the pipeline stops the reading thread and the pool, it is closed by itself after the last chunk
+     * or a failure.
+     */
+    public final class Pipeline implements Iterator<SparseDataset>, AutoCloseable {
+        private final ForkJoinPool pool = Parallel.newPool(threads);
+        private final BlockingQueue<Future<SparseDataset>> queue =
+                new ArrayBlockingQueue<>(pool.getParallelism() * 2);
+        private final Thread reader;
+        private volatile boolean closed;
+        private SparseDataset next;
+        private boolean done;
+
+        private Pipeline() {
+            reader = new Thread(this::produce, "text-corpus-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * This method is run by the reading thread
+         */
+        private void produce() {
+            try {
+                List<RawDocument> batch = new ArrayList<>(BATCH_ROWS);
+                readDocuments(document -> {
+                    batch.add(document);
+                    if (batch.size() == BATCH_ROWS) {
+                        submit(new ArrayList<>(batch));
+                        batch.clear();
+                    }
+                });
+                if (!batch.isEmpty()) {
+                    submit(batch);
+                }
+                queue.put(CompletableFuture.completedFuture(null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                if (closed) {
+                    //the pool was shut down by close, nobody reads the queue anymore
+                    return;
+                }
+                try {
+                    queue.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * This method hands a batch to the pool and queues its future chunk, waiting if the queue is full
+         */
+        private void submit(List<RawDocument> batch) throws InterruptedException {
+            queue.put(pool.submit(() -> count(batch)));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = queue.take().get();
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    close();
+                    Throwable cause = e.getCause();
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public SparseDataset next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SparseDataset chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        /**
+         * This method stops the pass: the reading thread is interrupted (it may be waiting for room in the queue),
+         * the batches that are not counted yet are dropped and the pool is shut down
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            done = true;
+            next = null;
+            reader.interrupt();
+            pool.shutdownNow();
+            queue.clear();
+        }
+    }
+
+    /**
+     * The work done for every document that is read
+     */
+    private interface DocumentConsumer {
+        void accept(RawDocument document) throws InterruptedException;
+    }
+
+    /**
+     * This method reads the documents of the corpus in order
+     */
+    private void readDocuments(DocumentConsumer consumer) throws IOException, InterruptedException {
+        if (path.endsWith(JSONL)) {
+            readJsonLines(consumer);
+            return;
+        }
+        int row = 0;
+        for (Path entry : list(Paths.get(path))) {
+            if (Files.isDirectory(entry)) {
+                int label = hasLabel ? label(entry.getFileName().toString()) : 0;
+                for (Path file : list(entry)) {
+                    if (Files.isRegularFile(file)) {
+                        consumer.accept(new RawDocument(readText(file), label, documentId(file, ++row)));
+                    }
+                }
+            }
+            else if (Files.isRegularFile(entry)) {
+                if (hasLabel) {
+                    throw new IllegalArgumentException(entry + " has no class, the documents of a class must be in"
+                            + " a directory named like the class");
+                }
+                consumer.accept(new RawDocument(readText(entry), 0, documentId(entry, ++row)));
+            }
+        }
+    }
+
+    /**
+     * @return the entries of a directory sorted by name, so the documents are always read in the same order
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @return the text of a file, bytes that are not UTF-8 are replaced
+     */
+    private static String readText(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number a file is named by, or the row of the document if the name is not a number
+     */
+    private static int documentId(Path file, int row) {
+        try {
+            return Integer.parseInt(file.getFileName().toString());
+        } catch (NumberFormatException e) {
+            return row;
+        }
+    }
+
+    /**
+     * This method reads the documents of a JSONL file, one JSON object per line
+     */
+    private void readJsonLines(DocumentConsumer consumer) throws IOException, InterruptedException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            int row = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, Object> fields;
+                try {
+                    fields = parseObject(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(path + " line " + lineNumber + ": " + e.getMessage());
+                }
+                row++;
+                if (!(fields.get("text") instanceof String)) {
+                    throw new IllegalArgumentException(path + " line " + lineNumber + " has no \"text\"");
+                }
+                int label = 0;
+                if (hasLabel) {
+                    try {
+                        label = label(fields.get("label"));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(path + " line " + lineNumber + ": " + e.getMessage());
+                    }
+                }
+                Object id = fields.get("id");
+                int documentId = id instanceof Double ? ((Double) id).intValue() : row;
+                consumer.accept(new RawDocument((String) fields.get("text"), label, documentId));
+            }
+        }
+    }
+
+    /**
+     * This method looks up the class of a class name in the labels file
+     * @param name the class name, for example a newsgroup
+     * @return the class (1 based, the line of the name)
+     * @throws IllegalArgumentException if the name is not in the labels file
+     */
+    private int label(String name) throws IOException {
+        readLabels();
+        Integer label = labels.get(name);
+        if (label == null) {
+            throw new IllegalArgumentException("class " + name + " is not in " + labelsFile);
+        }
+        return label;
+    }
+
+    /**
+     * This method reads the class of a JSONL document
+     * @param value the "label" of the document, a class name or a class number
+     * @return the class (1 based)
+     * @throws IllegalArgumentException if there is no label, or it is not a class of the labels file
+     */
+    private int label(Object value) throws IOException {
+        if (value instanceof String) {
+            return label((String) value);
+        }
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("the document has no \"label\"");
+        }
+        double number = (Double) value;
+        readLabels();
+        if (number != Math.rint(number) || number < 1 || number > classes) {
+            String text = number == Math.rint(number) ? Long.toString((long) number) : value.toString();
+            throw new IllegalArgumentException("class " + text + " is not a class of " + labelsFile + ", which has "
+                    + classes + " classes");
+        }
+        return (int) number;
+    }
+
+    /**
+     * This method reads the labels file if it was not read yet
+     */
+    private void readLabels() throws IOException {
+        if (labels != null) {
+            return;
+        }
+        String[] names = MutualInformation.readVocabulary(labelsFile, Integer.MAX_VALUE);
+        Map<String, Integer> byName = new HashMap<>();
+        for (int j = 0; j < names.length; j++) {
+            byName.putIfAbsent(names[j].trim(), j + 1);
+        }
+        classes = names.length;
+        labels = byName;
+    }
+
+    /**
+     * This method counts the words of a batch of documents, it runs on the pool
+     * @return the chunk of the documents
+     */
+    private SparseDataset count(List<RawDocument> batch) {
+        SparseDataset.Builder builder = new SparseDataset.Builder(getColumns());
+        int[] columns = new int[256];
+        for (RawDocument document : batch) {
+            List<String> tokens = tokenize(document.text);
+            if (hasher != null) {
+                hasher.addDocument(builder, tokens, document.label, document.documentId);
+                continue;
+            }
+            if (columns.length < tokens.size()) {
+                columns = new int[tokens.size()];
+            }
+            int length = 0;
+            for (String token : tokens) {
+                Integer index = vocabulary.get(token);
+                if (index != null) {
+                    columns[length++] = index;
+                }
+            }
+            builder.addRow(columns, null, length, document.label, document.documentId);
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method parses a flat JSON object, the values can be strings, numbers, booleans or null
+     * @param json the object
+     * @return the values by name, numbers are Doubles and booleans Booleans
+     * @throws IllegalArgumentException if the text is not a flat JSON object
+     */
+    static Map<String, Object> parseObject(String json) {
+        Map<String, Object> fields = new HashMap<>();
+        int[] position = {skipSpace(json, 0)};
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            position[0]++;
+            return fields;
+        }
+        while (true) {
+            String name = parseString(json, position);
+            expect(json, position, ':');
+            char c = peek(json, position);
+            Object value;
+            if (c == '"') {
+                value = parseString(json, position);
+            }
+            else {
+                int start = position[0];
+                while (position[0] < json.length() && ",} \t\r".indexOf(json.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                String literal = json.substring(start, position[0]);
+                value = switch (literal) {
+                    case "true" -> Boolean.TRUE;
+                    case "false" -> Boolean.FALSE;
+                    case "null" -> null;
+                    default -> {
+                        try {
+                            yield Double.parseDouble(literal);
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("unsupported JSON value " + literal);
+                        }
+                    }
+                };
+            }
+            fields.put(name, value);
+            c = peek(json, position);
+            position[0]++;
+            if (c == '}') {
+                break;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("expected , or } at " + (position[0] - 1));
+            }
+        }
+        if (skipSpace(json, position[0]) != json.length()) {
+            throw new IllegalArgumentException("unexpected text after the object");
+        }
+        return fields;
+    }
+
+    private static String parseString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (true) {
+            if (i >= json.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char c = json.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= json.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 't' -> value.append('\t');
+                case 'r' -> value.append('\r');
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'u' -> {
+                    if (i + 4 > json.length()) {
+                        throw new IllegalArgumentException("unterminated string");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad escape \\u" + json.substring(i, i + 4));
+                    }
+                    i += 4;
+                }
+                default -> value.append(escaped);
+            }
+        }
+        position[0] = i;
+        return value.toString();
+    }
+
+    /**
+     * @return the next character that is not a space, the position is moved to it
+     */
+    private static char peek(String json, int[] position) {
+        position[0] = skipSpace(json, position[0]);
+        if (position[0] >= json.length()) {
+            throw new IllegalArgumentException("unexpected end of the object");
+        }
+        return json.charAt(position[0]);
+    }
+
+    private static void expect(String json, int[] position, char c) {
+        if (peek(json, position) != c) {
+            throw new IllegalArgumentException("expected " + c + " at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    private static int skipSpace(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
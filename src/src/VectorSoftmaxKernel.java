@@ -0,0 +1,94 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class is the SIMD version of SoftmaxKernel using the Panama Vector API (jdk.incubator.vector).
+ * Every row is processed in chunks of as many doubles as the CPU's vector registers hold, in two passes:
+ * the first keeps the max and its class per lane, the second writes e^(value - max) and keeps the sum per lane.
+ * The lanes are only reduced once per pass at the end of the row, then the row (which is still in the cache)
+ * is multiplied by 1 / sum. The values left over at the end of a row (20 is not always a multiple of the vector
+ * length) are processed one at a time.
+ * It gives the same predictions as ScalarSoftmaxKernel for rows without NaN.
+ * It is only loaded by SoftmaxKernel.create() when the vector module is available.
+ */
+public class VectorSoftmaxKernel implements SoftmaxKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    //the lane numbers 0, 1, 2, ... added to the start of a chunk to get the class of every lane
+    private static final DoubleVector LANES = DoubleVector.fromArray(SPECIES, lanes(), 0);
+
+    private static double[] lanes() {
+        double[] lanes = new double[SPECIES.length()];
+        for (int lane = 0; lane < lanes.length; lane++) {
+            lanes[lane] = lane;
+        }
+        return lanes;
+    }
+
+    @Override
+    public double softmax(double[] data, int width, int from, int to, int[] labels, int[] predictions) {
+        int length = SPECIES.length();
+        int bound = width - width % length;
+        double likelihood = 0;
+        for (int i = from; i < to; i++) {
+            int offset = i * width;
+            //pass 1: the max of every lane and the first class it was seen in
+            DoubleVector laneMax = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+            DoubleVector laneArgmax = DoubleVector.zero(SPECIES);
+            int j = 0;
+            for (; j < bound; j += length) {
+                DoubleVector v = DoubleVector.fromArray(SPECIES, data, offset + j);
+                VectorMask<Double> greater = v.compare(VectorOperators.GT, laneMax);
+                laneMax = laneMax.blend(v, greater);
+                laneArgmax = laneArgmax.blend(LANES.add(j), greater);
+            }
+            double max = laneMax.reduceLanes(VectorOperators.MAX);
+            //the lowest class among the lanes that hold the max, like the scalar kernel picks the first one
+            int argmax = (int) laneArgmax.blend(Double.POSITIVE_INFINITY, laneMax.compare(VectorOperators.NE, max))
+                    .reduceLanes(VectorOperators.MIN);
+            if (argmax >= width) {
+                //no lane holds a value above -Infinity (or the row is shorter than a vector)
+                argmax = 0;
+            }
+            for (; j < width; j++) {
+                //the classes of the tail come after every lane, so only a larger value replaces the max
+                if (data[offset + j] > max) {
+                    max = data[offset + j];
+                    argmax = j;
+                }
+            }
+            if (labels != null) {
+                likelihood += data[offset + labels[i]] - max;
+            }
+            //pass 2: e^(value - max) and the sum of every lane
+            DoubleVector laneTotal = DoubleVector.zero(SPECIES);
+            for (j = 0; j < bound; j += length) {
+                DoubleVector e = DoubleVector.fromArray(SPECIES, data, offset + j).sub(max).lanewise(VectorOperators.EXP);
+                e.intoArray(data, offset + j);
+                laneTotal = laneTotal.add(e);
+            }
+            double total = laneTotal.reduceLanes(VectorOperators.ADD);
+            for (; j < width; j++) {
+                double e = Math.exp(data[offset + j] - max);
+                data[offset + j] = e;
+                total += e;
+            }
+            //divide by the sum
+            double scale = 1 / total;
+            for (j = 0; j < bound; j += length) {
+                DoubleVector.fromArray(SPECIES, data, offset + j).mul(scale).intoArray(data, offset + j);
+            }
+            for (; j < width; j++) {
+                data[offset + j] *= scale;
+            }
+            if (labels != null) {
+                likelihood -= Math.log(total);
+            }
+            if (predictions != null) {
+                predictions[i] = argmax;
+            }
+        }
+        return likelihood;
+    }
+}
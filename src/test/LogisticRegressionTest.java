@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class tests LogisticRegression training on a small dataset built by TestData.
+ * Run it with java -cp out LogisticRegressionTest after compiling src/src and src/test into out.
+ */
+public class LogisticRegressionTest {
+    //the sums of the blocks are added up in a different order than on one thread, nothing else may differ
+    private static final double TOLERANCE = 1e-9;
+
+    public static void main(String[] args) throws IOException {
+        parallelSameAsSequential();
+        miniBatchSmallerThanThreads();
+        chunksSmallerThanThreads();
+        System.out.println("LogisticRegressionTest passed");
+    }
+
+    /**
+     * Full batch training splits the documents into one block per thread, the weights, likelihood and accuracy
+     * must be the ones of one thread for every number of threads
+     */
+    static void parallelSameAsSequential() {
+        LogisticRegression sequential = trainModel(1);
+        for (int threads : new int[] {2, 3, 4, 8}) {
+            LogisticRegression parallel = trainModel(threads);
+            TestData.checkClose(sequential.getWeights(), parallel.getWeights(), TOLERANCE,
+                    "full batch weights with " + threads + " threads");
+            TestData.checkClose(new double[] {sequential.getLogLikelihood(), sequential.getValidationAccuracy()},
+                    new double[] {parallel.getLogLikelihood(), parallel.getValidationAccuracy()}, TOLERANCE,
+                    "full batch likelihood and validation accuracy with " + threads + " threads");
+        }
+    }
+
+    /**
+     * Mini-batches with fewer documents than threads only use some of the blocks, the gradient of every step
+     * must still be the gradient of the batch and the weights the same as on one thread
+     */
+    static void miniBatchSmallerThanThreads() {
+        //40 training documents in batches of 3 with 4 threads, the last batch of every epoch has 1 document
+        double[] sequential = train(1, "batch-size", "3");
+        double[] parallel = train(4, "batch-size", "3");
+        TestData.checkClose(sequential, parallel, TOLERANCE, "mini-batch weights with 4 threads");
+    }
+
+    /**
+     * Out-of-core training reads chunks with fewer documents than threads, the likelihood and the gradient
+     * of an epoch must only add up the blocks of every chunk that ran
+     */
+    static void chunksSmallerThanThreads() throws IOException {
+        Path directory = Files.createTempDirectory("lrtest");
+        Path csv = directory.resolve("training.csv");
+        TestData.writeCsv(TestData.dataset(50, 3, 4, 7), csv);
+        //42 training documents in chunks of 10, the last chunk has 2 documents
+        for (String batchSize : new String[] {"0", "4"}) {
+            LogisticRegression sequential = trainOutOfCore(csv, 1, batchSize);
+            LogisticRegression parallel = trainOutOfCore(csv, 4, batchSize);
+            TestData.checkClose(sequential.getWeights(), parallel.getWeights(), TOLERANCE,
+                    "out-of-core weights with 4 threads and batch-size " + batchSize);
+            TestData.checkClose(new double[] {sequential.getLogLikelihood()},
+                    new double[] {parallel.getLogLikelihood()}, TOLERANCE,
+                    "out-of-core likelihood with 4 threads and batch-size " + batchSize);
+        }
+    }
+
+    /**
+     * This method trains a model out-of-core on a csv file, 10 documents at a time
+     * @param csv the training file, the last documents are the validation set
+     * @param threads the number of threads
+     * @param batchSize the batch size, 0 for one step per epoch
+     * @return the trained model
+     */
+    static LogisticRegression trainOutOfCore(Path csv, int threads, String batchSize) throws IOException {
+        RunConfig config = new RunConfig();
+        config.set("algorithm", "lr");
+        config.set("threads", Integer.toString(threads));
+        config.set("iterations", "5");
+        config.set("eta", "0.1");
+        config.set("batch-size", batchSize);
+        Path cache = SparseDatasetCache.ensure(csv.toString(), true);
+        int rows;
+        try (SparseChunkReader all = new SparseChunkReader(cache, 0, -1, 10)) {
+            rows = all.getRows();
+        }
+        int validationStart = RunConfig.validationStart(rows, config.getValidation());
+        try (SparseChunkReader training = new SparseChunkReader(cache, 0, validationStart, 10);
+             SparseChunkReader validation = new SparseChunkReader(cache, validationStart, rows, 10)) {
+            LogisticRegression model = new LogisticRegression(config);
+            model.setVerbose(false);
+            model.createDataSet(training, validation);
+            model.train();
+            return model;
+        }
+    }
+
+    /**
+     * This method trains a model on the first 40 documents of the test dataset and validates it on the last 10
+     * @param threads the number of threads
+     * @param settings more settings, name and value pairs
+     * @return the trained weights
+     */
+    static double[] train(int threads, String... settings) {
+        return trainModel(threads, settings).getWeights().clone();
+    }
+
+    /**
+     * This method trains a model on the first 40 documents of the test dataset and validates it on the last 10
+     * @param threads the number of threads
+     * @param settings more settings, name and value pairs
+     * @return the trained model
+     */
+    static LogisticRegression trainModel(int threads, String... settings) {
+        RunConfig config = new RunConfig();
+        config.set("algorithm", "lr");
+        config.set("threads", Integer.toString(threads));
+        config.set("iterations", "5");
+        config.set("eta", "0.1");
+        for (int s = 0; s < settings.length; s += 2) {
+            config.set(settings[s], settings[s + 1]);
+        }
+        LogisticRegression data = new LogisticRegression(config);
+        data.createDataSet(TestData.dataset(50, 3, 4, 7));
+        int[] trainingRows = new int[40];
+        for (int r = 0; r < trainingRows.length; r++) {
+            trainingRows[r] = r;
+        }
+        int[] validationRows = new int[10];
+        for (int r = 0; r < validationRows.length; r++) {
+            validationRows[r] = 40 + r;
+        }
+        LogisticRegression model = new LogisticRegression(data, config, trainingRows, validationRows);
+        model.setVerbose(false);
+        model.train();
+        return model;
+    }
+}
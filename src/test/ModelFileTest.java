@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class saves a Logistic Regression model in every weight precision, opens the files again and checks that
+ * the weights in the memory map are the weights that were saved and that the smaller weights keep the accuracy
+ * of the double weights.
+ */
+public class ModelFileTest {
+    //the scores of the double file are added up in the same order as the trained model's
+    private static final double TOLERANCE = 1e-12;
+
+    public static void main(String[] args) throws IOException {
+        roundTrip();
+        System.out.println("ModelFileTest passed");
+    }
+
+    /**
+     * Every precision is saved and opened: the weights must be the converted weights of the model and the
+     * validation accuracy at most MAX_ACCURACY_LOSS lower than with the double weights
+     */
+    static void roundTrip() throws IOException {
+        SparseDataset dataset = TestData.dataset(2000, 5, 10, 11);
+        int[] trainingRows = new int[1600];
+        for (int r = 0; r < trainingRows.length; r++) {
+            trainingRows[r] = r;
+        }
+        int[] validationRows = new int[400];
+        for (int r = 0; r < validationRows.length; r++) {
+            validationRows[r] = 1600 + r;
+        }
+        Path directory = Files.createTempDirectory("modelfiletest");
+        double doubleAccuracy = -1;
+        for (InferenceWeights.Precision precision : InferenceWeights.Precision.values()) {
+            RunConfig config = new RunConfig();
+            config.set("algorithm", "lr");
+            config.set("iterations", "20");
+            config.set("eta", "0.1");
+            config.set("weights", precision.name().toLowerCase());
+            LogisticRegression data = new LogisticRegression(config);
+            data.createDataSet(dataset);
+            LogisticRegression model = new LogisticRegression(data, config, trainingRows, validationRows);
+            model.setVerbose(false);
+            model.train();
+            Path file = directory.resolve(precision + ".model");
+            model.saveModel(file.toString());
+            ModelFile opened = ModelFile.open(file);
+            TestData.check(opened.getWeightPrecision() == precision,
+                    precision + " model opened as " + opened.getWeightPrecision());
+            double[] weights = model.getWeights();
+            int classes = opened.getNumClasses();
+            int columns = weights.length / classes;
+            InferenceWeights expected = InferenceWeights.convert(weights, classes, columns, precision);
+            InferenceWeights actual = opened.getWeights();
+            //the weights are scored from views of the map, not from copies on the heap
+            boolean mapped = switch (precision) {
+                case DOUBLE -> actual.getDoubles().isDirect();
+                case FLOAT -> actual.getFloats().isDirect();
+                case INT8 -> actual.getBytes().isDirect();
+            };
+            TestData.check(mapped, "the " + precision + " weights were copied out of the map");
+            switch (precision) {
+                case DOUBLE -> TestData.check(expected.getDoubles().equals(actual.getDoubles()),
+                        "the double weights changed in the file");
+                case FLOAT -> TestData.check(expected.getFloats().equals(actual.getFloats()),
+                        "the float weights changed in the file");
+                case INT8 -> {
+                    TestData.check(expected.getBytes().equals(actual.getBytes()),
+                            "the int8 weights changed in the file");
+                    TestData.checkClose(expected.getScales(), actual.getScales(), 0, "int8 scales");
+                }
+            }
+            double[] modelScores = new double[classes];
+            double[] fileScores = new double[classes];
+            int correct = 0;
+            for (int r : validationRows) {
+                int start = dataset.rowStart(r);
+                int end = dataset.rowEnd(r);
+                if (precision == InferenceWeights.Precision.DOUBLE) {
+                    model.classScores(dataset.getIndices(), dataset.getCounts(), start, end, modelScores);
+                    opened.classScores(dataset.getIndices(), dataset.getCounts(), start, end, fileScores);
+                    TestData.checkClose(modelScores, fileScores, TOLERANCE, "double scores of row " + r);
+                }
+                if (opened.predictClass(dataset.getIndices(), dataset.getCounts(), start, end)
+                        == dataset.getLabel(r)) {
+                    correct++;
+                }
+            }
+            double accuracy = (double) correct / validationRows.length;
+            if (precision == InferenceWeights.Precision.DOUBLE) {
+                doubleAccuracy = accuracy;
+            }
+            else {
+                TestData.check(doubleAccuracy - accuracy <= LogisticRegression.MAX_ACCURACY_LOSS, precision
+                        + " validation accuracy is " + accuracy + ", double weights have " + doubleAccuracy);
+            }
+        }
+    }
+}
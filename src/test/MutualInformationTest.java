@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class tests MutualInformation: the O(V*C) scores against the O(V*C^2) formula NaiveBayes used before,
+ * and the order of the top words.
+ * Run it with java -cp out MutualInformationTest after compiling src/src and src/test into out.
+ */
+public class MutualInformationTest {
+    //the counts of the other classes are added up in another order than in the old formula
+    private static final double TOLERANCE = 1e-12;
+
+    public static void main(String[] args) {
+        sameAsOldFormula();
+        topOrder();
+        topBounds();
+        System.out.println("MutualInformationTest passed");
+    }
+
+    /**
+     * The scores of small random count tables, with words that occur in no document and in every document
+     */
+    static void sameAsOldFormula() {
+        Random random = new Random(17);
+        for (int classes = 2; classes <= 5; classes++) {
+            int words = 30;
+            int[] classTotals = new int[classes];
+            for (int j = 0; j < classes; j++) {
+                classTotals[j] = 5 + random.nextInt(20);
+            }
+            int[] documentCounts = new int[words * classes];
+            for (int i = 0; i < words; i++) {
+                for (int j = 0; j < classes; j++) {
+                    //word 0 occurs in no document, word 1 in every document
+                    documentCounts[i * classes + j] = i == 0 ? 0 : i == 1 ? classTotals[j]
+                            : random.nextInt(classTotals[j] + 1);
+                }
+            }
+            for (double beta : new double[] {1.0 / words, 0.5}) {
+                double[] expected = oldScores(classTotals, documentCounts, beta);
+                for (int threads : new int[] {1, 3}) {
+                    TestData.checkClose(expected, MutualInformation.scores(classTotals, documentCounts, beta, threads),
+                            TOLERANCE, classes + " classes, beta " + beta + ", " + threads + " threads");
+                }
+            }
+        }
+    }
+
+    /**
+     * The best words come first, words with the same score are ranked by their index
+     */
+    static void topOrder() {
+        double[] scores = {0.5, 2.0, 0.5, -1.0, 2.0, 3.0, 0.5, 0.0};
+        checkTop(scores, 8, new int[] {5, 1, 4, 0, 2, 6, 7, 3});
+        checkTop(scores, 3, new int[] {5, 1, 4});
+        //the tie at 0.5 is cut by index
+        checkTop(scores, 5, new int[] {5, 1, 4, 0, 2});
+        Random random = new Random(5);
+        double[] many = new double[500];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = random.nextInt(40);
+        }
+        Integer[] sorted = new Integer[many.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> many[a] != many[b] ? Double.compare(many[b], many[a]) : Integer.compare(a, b));
+        int[] expected = new int[50];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = sorted[i];
+        }
+        checkTop(many, 50, expected);
+    }
+
+    /**
+     * k larger than the words returns every word, k = 0 (or less) none
+     */
+    static void topBounds() {
+        double[] scores = {1.0, 3.0, 2.0};
+        checkTop(scores, 10, new int[] {1, 2, 0});
+        checkTop(scores, 0, new int[0]);
+        checkTop(scores, -1, new int[0]);
+        checkTop(new double[0], 5, new int[0]);
+    }
+
+    private static void checkTop(double[] scores, int k, int[] expected) {
+        int[] best = MutualInformation.top(scores, k);
+        TestData.check(Arrays.equals(expected, best), "top " + k + " of " + scores.length + " words is "
+                + Arrays.toString(best) + ", expected " + Arrays.toString(expected));
+    }
+
+    /**
+     * The mutual information of every word as NaiveBayes.mutualInformation calculated it, with every class
+     * adding up the counts of the other classes
+     */
+    private static double[] oldScores(int[] classTotals, int[] documentCounts, double beta) {
+        int classes = classTotals.length;
+        int words = documentCounts.length / classes;
+        double totalDocuments = 0;
+        for (int total : classTotals) {
+            totalDocuments += total;
+        }
+        double[] scores = new double[words];
+        for (int k = 0; k < words; k++) {
+            double wordMI = 0;
+            double px = 0;
+            for (int i = 0; i < classes; i++) {
+                px += documentCounts[k * classes + i];
+            }
+            for (int j = 0; j < classes; j++) {
+                double py = classTotals[j] / totalDocuments;
+                double notOccurInOtherClasses = 0;
+                double occurInOtherClasses = 0;
+                for (int q = 0; q < classes; q++) {
+                    if (q != j) {
+                        notOccurInOtherClasses += classTotals[q] - documentCounts[k * classes + q];
+                        occurInOtherClasses += documentCounts[k * classes + q];
+                    }
+                }
+                double missing = (totalDocuments - px) / totalDocuments;
+                double occurs = px / totalDocuments;
+                double inClass = documentCounts[k * classes + j];
+                double tempMI = term(notOccurInOtherClasses / totalDocuments, missing * (1 - py), beta)
+                        + term((classTotals[j] - inClass) / totalDocuments, missing * py, beta)
+                        + term(occurInOtherClasses / totalDocuments, occurs * (1 - py), beta)
+                        + term(inClass / totalDocuments, occurs * py, beta);
+                wordMI += py * tempMI;
+            }
+            scores[k] = wordMI;
+        }
+        return scores;
+    }
+
+    private static double term(double pij, double independent, double beta) {
+        return pij * Math.log((pij + beta) / (independent + beta)) / Math.log(2);
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class tests that updating a NaiveBayes model gives the model trained on all of its documents,
+ * that models sharing counts do not see each other's updates and that parallel predictions are the
+ * sequential ones.
+ * Run it with java -cp out NaiveBayesTest after compiling src/src and src/test into out.
+ */
+public class NaiveBayesTest {
+    //an update calculates the same logs from the same counts as training, only the order of P(Y) sums differs
+    private static final double TOLERANCE = 1e-9;
+    private static final SparseDataset DATASET = TestData.dataset(120, 4, 6, 3);
+    //the documents the models are trained on, the next ADDED documents are added by updates
+    private static final int TRAINED = 80;
+    private static final int ADDED = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        updateSameAsRetraining();
+        sharedCountsNotUpdated();
+        predictionsDuringUpdates();
+        predictAllSameAsPredictClass();
+        System.out.println("NaiveBayesTest passed");
+    }
+
+    /**
+     * Adding documents one at a time and as a batch must give the scores of a model trained with them
+     */
+    static void updateSameAsRetraining() {
+        NaiveBayes retrained = train(TRAINED + ADDED);
+        NaiveBayes single = train(TRAINED);
+        for (int row = TRAINED; row < TRAINED + ADDED; row++) {
+            single.update(DATASET.getIndices(), DATASET.getCounts(), DATASET.rowStart(row), DATASET.rowEnd(row),
+                    DATASET.getLabel(row));
+        }
+        NaiveBayes batch = train(TRAINED);
+        batch.update(DATASET, TRAINED, TRAINED + ADDED);
+        checkSameScores(retrained, single, "single updates");
+        checkSameScores(retrained, batch, "batch update");
+        checkSameScores(single, batch, "batch update against single updates");
+    }
+
+    /**
+     * A model built with another beta from the counts of a trained model shares them until either is updated,
+     * an update of one must not change the counts of the other, which its own updates start from
+     */
+    static void sharedCountsNotUpdated() {
+        NaiveBayes trained = train(TRAINED);
+        NaiveBayes shared = new NaiveBayes(trained, "0.5");
+        trained.update(DATASET, TRAINED, TRAINED + ADDED);
+        checkSameScores(train(rows(0, TRAINED), "0.5"), shared, "sharing model after the trained model was updated");
+        checkSameScores(train(TRAINED + ADDED), trained, "updated model that shared its counts");
+        //the sharing model still counts the documents it was built with when it is updated itself
+        int last = DATASET.getRows();
+        shared.update(DATASET, TRAINED + ADDED, last);
+        //the first TRAINED documents and the ones after the trained model's update
+        int[] sharedRows = new int[last - ADDED];
+        for (int r = 0; r < sharedRows.length; r++) {
+            sharedRows[r] = r < TRAINED ? r : r + ADDED;
+        }
+        checkSameScores(train(sharedRows, "0.5"), shared, "sharing model updated after the trained model");
+        //and the other way around
+        NaiveBayes other = new NaiveBayes(trained, "0.5");
+        other.update(DATASET, 0, ADDED);
+        trained.update(DATASET, TRAINED + ADDED, last);
+        checkSameScores(train(last), trained, "trained model updated after the sharing model");
+    }
+
+    /**
+     * A document scored while updates are published must always get the scores of a whole model,
+     * the model before or after one of the updates, never a mix of two
+     */
+    static void predictionsDuringUpdates() throws InterruptedException {
+        NaiveBayes model = train(TRAINED);
+        int row = DATASET.getRows() - 1;
+        int start = DATASET.rowStart(row);
+        int end = DATASET.rowEnd(row);
+        List<double[]> models = new ArrayList<>();
+        models.add(scores(model, row));
+        List<double[]> seen = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                double[] scores = new double[model.getNumClasses()];
+                model.classScores(DATASET.getIndices(), DATASET.getCounts(), start, end, scores);
+                seen.add(scores);
+            }
+        });
+        reader.start();
+        for (int added = TRAINED; added < TRAINED + ADDED; added++) {
+            model.update(DATASET.getIndices(), DATASET.getCounts(), DATASET.rowStart(added),
+                    DATASET.rowEnd(added), DATASET.getLabel(added));
+            models.add(scores(model, row));
+        }
+        reader.interrupt();
+        reader.join();
+        for (double[] scores : seen) {
+            boolean whole = false;
+            for (double[] expected : models) {
+                whole |= Arrays.equals(expected, scores);
+            }
+            TestData.check(whole, "scores " + Arrays.toString(scores) + " are not the scores of a model");
+        }
+    }
+
+    /**
+     * Predicting every document on several threads must give the predictions of predictClass, in order
+     */
+    static void predictAllSameAsPredictClass() {
+        NaiveBayes model = train(TRAINED);
+        for (int threads : new int[] {1, 4}) {
+            model.setThreads(threads);
+            int[] predictions = model.predictAll(DATASET, 10, DATASET.getRows());
+            for (int row = 10; row < DATASET.getRows(); row++) {
+                int expected = model.predictClass(DATASET.getIndices(), DATASET.getCounts(), DATASET.rowStart(row),
+                        DATASET.rowEnd(row));
+                TestData.check(predictions[row - 10] == expected, "predictAll with " + threads + " threads predicted "
+                        + predictions[row - 10] + " for row " + row + ", predictClass " + expected);
+            }
+        }
+    }
+
+    /**
+     * This method trains a model on the first documents of the test dataset
+     * @param rows the number of documents
+     * @return the trained model
+     */
+    static NaiveBayes train(int rows) {
+        return train(rows(0, rows), "0.1");
+    }
+
+    /**
+     * This method trains a model on some documents of the test dataset
+     * @param rows the rows of the documents
+     * @param beta the beta of the model
+     * @return the trained model
+     */
+    static NaiveBayes train(int[] rows, String beta) {
+        RunConfig config = new RunConfig();
+        config.set("beta", beta);
+        NaiveBayes model = new NaiveBayes(config);
+        model.createDataSet(DATASET, rows);
+        model.calculateProbabilities();
+        return model;
+    }
+
+    /**
+     * @return the rows from-to
+     */
+    static int[] rows(int from, int to) {
+        int[] rows = new int[to - from];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = from + r;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the scores of every class of one document of the test dataset
+     */
+    static double[] scores(NaiveBayes model, int row) {
+        double[] scores = new double[model.getNumClasses()];
+        model.classScores(DATASET.getIndices(), DATASET.getCounts(), DATASET.rowStart(row), DATASET.rowEnd(row),
+                scores);
+        return scores;
+    }
+
+    /**
+     * This method checks that two models score every document of the test dataset the same
+     */
+    static void checkSameScores(NaiveBayes expected, NaiveBayes actual, String message) {
+        for (int row = 0; row < DATASET.getRows(); row++) {
+            TestData.checkClose(scores(expected, row), scores(actual, row), TOLERANCE, message + ", row " + row);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class checks that VectorSoftmaxKernel gives the same probabilities, predictions and likelihood as
+ * ScalarSoftmaxKernel, and prints how long both take for rows of 20 classes.
+ * It needs java --add-modules jdk.incubator.vector.
+ */
+public class SoftmaxKernelTest {
+    //EXP of the vector API and Math.exp may round the last bits differently
+    private static final double TOLERANCE = 1e-12;
+
+    public static void main(String[] args) {
+        sameAsScalar();
+        benchmark();
+        System.out.println("SoftmaxKernelTest passed");
+    }
+
+    /**
+     * Every width up to a few vector lengths, so rows with and without a tail are checked,
+     * with ties for the max and rows of -Infinity
+     */
+    static void sameAsScalar() {
+        Random random = new Random(3);
+        SoftmaxKernel scalar = new ScalarSoftmaxKernel();
+        SoftmaxKernel vector = new VectorSoftmaxKernel();
+        int rows = 200;
+        for (int width = 1; width <= 33; width++) {
+            double[] logits = new double[rows * width];
+            int[] labels = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                labels[i] = random.nextInt(width);
+                for (int j = 0; j < width; j++) {
+                    //every third row has whole numbers from a small range, so the max is often tied
+                    logits[i * width + j] = i % 3 == 0 ? random.nextInt(4) : random.nextGaussian() * 50;
+                }
+            }
+            //a row where every class is impossible
+            Arrays.fill(logits, 0, width, Double.NEGATIVE_INFINITY);
+            double[] expected = logits.clone();
+            double[] actual = logits.clone();
+            int[] expectedPredictions = new int[rows];
+            int[] actualPredictions = new int[rows];
+            //the -Infinity row has no likelihood, it is left out of the likelihood
+            double expectedLikelihood = scalar.softmax(expected, width, 1, rows, labels, expectedPredictions);
+            double actualLikelihood = vector.softmax(actual, width, 1, rows, labels, actualPredictions);
+            scalar.softmax(expected, width, 0, 1, null, expectedPredictions);
+            vector.softmax(actual, width, 0, 1, null, actualPredictions);
+            for (int i = 0; i < rows; i++) {
+                TestData.check(expectedPredictions[i] == actualPredictions[i], "width " + width + " row " + i
+                        + ": predicted " + actualPredictions[i] + ", expected " + expectedPredictions[i]);
+            }
+            for (int k = width; k < expected.length; k++) {
+                TestData.check(Math.abs(expected[k] - actual[k]) <= TOLERANCE, "width " + width + " value " + k
+                        + " is " + actual[k] + ", expected " + expected[k]);
+            }
+            TestData.check(Math.abs(expectedLikelihood - actualLikelihood) <= TOLERANCE * rows * 100,
+                    "width " + width + " likelihood is " + actualLikelihood + ", expected " + expectedLikelihood);
+        }
+    }
+
+    /**
+     * This method prints the time per row of both kernels for 20 classes, the 20newsgroups width
+     */
+    static void benchmark() {
+        int width = 20;
+        int rows = 10000;
+        Random random = new Random(5);
+        double[] logits = new double[rows * width];
+        for (int k = 0; k < logits.length; k++) {
+            logits[k] = random.nextGaussian() * 10;
+        }
+        int[] labels = new int[rows];
+        int[] predictions = new int[rows];
+        for (SoftmaxKernel kernel : new SoftmaxKernel[] {new ScalarSoftmaxKernel(), new VectorSoftmaxKernel()}) {
+            double[] data = new double[logits.length];
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 200; round++) {
+                System.arraycopy(logits, 0, data, 0, data.length);
+                long start = System.nanoTime();
+                kernel.softmax(data, width, 0, rows, labels, predictions);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%s: %.1f ns per row of %d classes%n", kernel.getClass().getSimpleName(),
+                    (double) best / rows, width);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class builds small labeled datasets for the tests, so they do not need the 20newsgroups files.
+ * Every class has its own group of words that its documents mostly use, so the models can learn it.
+ */
+public class TestData {
+
+    /**
+     * This method builds a dataset whose documents use the words of their class most of the time
+     * @param rows the number of documents
+     * @param classes the number of classes
+     * @param wordsPerClass the number of words of every class, the dataset has classes * wordsPerClass words
+     * @param seed the seed of the words and counts
+     * @return the dataset, classes are 1 based and document ids start at 1
+     */
+    public static SparseDataset dataset(int rows, int classes, int wordsPerClass, long seed) {
+        Random random = new Random(seed);
+        int words = classes * wordsPerClass;
+        SparseDataset.Builder builder = new SparseDataset.Builder(words);
+        int[] columns = new int[8];
+        int[] counts = new int[8];
+        for (int r = 0; r < rows; r++) {
+            int label = r % classes + 1;
+            for (int k = 0; k < columns.length; k++) {
+                //three words in four are words of the class
+                columns[k] = random.nextInt(4) == 0 ? random.nextInt(words)
+                        : (label - 1) * wordsPerClass + random.nextInt(wordsPerClass);
+                counts[k] = 1 + random.nextInt(3);
+            }
+            builder.addRow(columns, counts, columns.length, label, r + 1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * This method writes a dataset as a dense csv file like training.csv: the document id, one count per word
+     * and the class of the document
+     * @param dataset the dataset
+     * @param file the csv file
+     * @throws IOException if the file can not be written
+     */
+    public static void writeCsv(SparseDataset dataset, Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            int[] row = new int[dataset.getColumns()];
+            for (int r = 0; r < dataset.getRows(); r++) {
+                Arrays.fill(row, 0);
+                for (int n = dataset.rowStart(r); n < dataset.rowEnd(r); n++) {
+                    row[dataset.getIndices()[n]] = dataset.getCounts()[n];
+                }
+                StringBuilder line = new StringBuilder().append(dataset.getDocumentId(r));
+                for (int count : row) {
+                    line.append(',').append(count);
+                }
+                writer.println(line.append(',').append(dataset.getLabel(r)));
+            }
+        }
+    }
+
+    /**
+     * This method fails a test
+     * @param condition the condition that must hold
+     * @param message what went wrong
+     * @throws AssertionError if the condition does not hold
+     */
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * This method checks that two arrays are equal up to rounding
+     * @param expected the expected values
+     * @param actual the values to check
+     * @param tolerance the largest difference allowed
+     * @param message what is being compared
+     * @throws AssertionError if the arrays differ
+     */
+    public static void checkClose(double[] expected, double[] actual, double tolerance, String message) {
+        check(expected.length == actual.length, message + ": " + expected.length + " values, got " + actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            check(Math.abs(expected[i] - actual[i]) <= tolerance,
+                    message + ": value " + i + " is " + actual[i] + ", expected " + expected[i]);
+        }
+    }
+}
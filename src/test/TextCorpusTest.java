@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class tests the hand-written parsing of TextCorpus: the JSON objects of a JSONL file, the words of a text
+ * and the classes of the documents, by name and by number.
+ * Run it with java -cp out TextCorpusTest after compiling src/src and src/test into out.
+ */
+public class TextCorpusTest {
+
+    public static void main(String[] args) throws IOException {
+        parseObject();
+        malformedObjects();
+        tokenize();
+        labels();
+        manyChunks();
+        badLabels();
+        turkishLocale();
+        System.out.println("TextCorpusTest passed");
+    }
+
+    /**
+     * Strings with escapes, numbers, booleans and null, with and without spaces
+     */
+    static void parseObject() {
+        Map<String, Object> fields = TextCorpus.parseObject(
+                " { \"id\" : 12 , \"text\":\"a \\\"quoted\\\" line\\nand a tab\\t\\u00e9\\\\\","
+                        + " \"label\": \"sci.space\", \"score\":-1.5e2,\"ok\":true,\"no\":false,\"none\":null}  ");
+        TestData.check(fields.size() == 7, "7 fields, got " + fields);
+        TestData.check(Double.valueOf(12).equals(fields.get("id")), "id is " + fields.get("id"));
+        TestData.check("a \"quoted\" line\nand a tab\t\u00e9\\".equals(fields.get("text")),
+                "text is " + fields.get("text"));
+        TestData.check("sci.space".equals(fields.get("label")), "label is " + fields.get("label"));
+        TestData.check(Double.valueOf(-150).equals(fields.get("score")), "score is " + fields.get("score"));
+        TestData.check(Boolean.TRUE.equals(fields.get("ok")) && Boolean.FALSE.equals(fields.get("no")),
+                "booleans are " + fields.get("ok") + " and " + fields.get("no"));
+        TestData.check(fields.containsKey("none") && fields.get("none") == null, "none is " + fields.get("none"));
+        TestData.check(TextCorpus.parseObject("{}").isEmpty(), "{} has fields");
+        TestData.check(TextCorpus.parseObject("{ }").isEmpty(), "{ } has fields");
+    }
+
+    /**
+     * Text that is not a flat JSON object is rejected with an IllegalArgumentException
+     */
+    static void malformedObjects() {
+        String[] malformed = {"", "[1, 2]", "{\"text\": \"open", "{\"text\" \"no colon\"}", "{\"a\": 1",
+                "{\"a\": 1} trailing", "{\"a\": 1 \"b\": 2}", "{\"a\": nope}", "{\"a\": }", "{\"a\": \"\\u12\"}",
+                "{\"a\": \"\\uzzzz\"}", "{a: 1}"};
+        for (String json : malformed) {
+            try {
+                TextCorpus.parseObject(json);
+                TestData.check(false, "parsed malformed object " + json);
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        }
+    }
+
+    /**
+     * Words are runs of letters and digits, lowercased
+     */
+    static void tokenize() {
+        checkTokens("", List.of());
+        checkTokens("  ,.!  ", List.of());
+        checkTokens("Hello, World!", List.of("hello", "world"));
+        checkTokens("NASA's 2nd launch-pad\tE=mc2", List.of("nasa", "s", "2nd", "launch", "pad", "e", "mc2"));
+        checkTokens("Caf\u00e9 \u00dcBER na\u00efve", List.of("caf\u00e9", "\u00fcber", "na\u00efve"));
+        checkTokens("end", List.of("end"));
+    }
+
+    private static void checkTokens(String text, List<String> expected) {
+        List<String> tokens = TextCorpus.tokenize(text);
+        TestData.check(expected.equals(tokens), "tokens of \"" + text + "\" are " + tokens + ", expected " + expected);
+    }
+
+    /**
+     * A JSONL label can be the name of a class or its number, a directory is the class of its name
+     */
+    static void labels() throws IOException {
+        Path directory = corpusFiles();
+        Path jsonl = directory.resolve("documents.jsonl");
+        Files.write(jsonl, Arrays.asList(
+                "{\"id\": 7, \"text\": \"rocket orbit\", \"label\": \"sci.space\"}",
+                "",
+                "{\"text\": \"goal match\", \"label\": 2}",
+                "{\"text\": \"orbit goal goal\", \"label\": \"rec.sport\"}"));
+        SparseDataset documents = load(jsonl, directory);
+        TestData.check(documents.getRows() == 3, "3 documents, got " + documents.getRows());
+        TestData.check(Arrays.equals(new int[] {1, 2, 2}, documents.getLabels()),
+                "labels are " + Arrays.toString(documents.getLabels()));
+        //the id of a document without one is its row
+        TestData.check(Arrays.equals(new int[] {7, 2, 3}, documents.getDocumentIds()),
+                "document ids are " + Arrays.toString(documents.getDocumentIds()));
+        //rocket=0 orbit=1 goal=2 match=3
+        checkRow(documents, 2, new int[] {1, 2}, new int[] {1, 2});
+
+        Path corpus = directory.resolve("corpus");
+        Files.createDirectories(corpus.resolve("sci.space"));
+        Files.createDirectories(corpus.resolve("rec.sport"));
+        Files.writeString(corpus.resolve("sci.space").resolve("41"), "Rocket, rocket and an unknown word");
+        Files.writeString(corpus.resolve("rec.sport").resolve("40"), "match");
+        SparseDataset files = load(corpus, directory);
+        //the directories are read in the order of their names
+        TestData.check(Arrays.equals(new int[] {2, 1}, files.getLabels()),
+                "directory labels are " + Arrays.toString(files.getLabels()));
+        TestData.check(Arrays.equals(new int[] {40, 41}, files.getDocumentIds()),
+                "directory document ids are " + Arrays.toString(files.getDocumentIds()));
+        checkRow(files, 1, new int[] {0}, new int[] {2});
+    }
+
+    /**
+     * A corpus of more documents than a chunk is added to one dataset chunk by chunk, in the order of the lines
+     */
+    static void manyChunks() throws IOException {
+        Path directory = corpusFiles();
+        Path jsonl = directory.resolve("many.jsonl");
+        List<String> lines = new ArrayList<>();
+        for (int row = 0; row < 1000; row++) {
+            //row r has the word "goal" r % 7 times, so every row can be told apart
+            lines.add("{\"id\": " + (row + 1) + ", \"text\": \"match" + " goal".repeat(row % 7) + "\", \"label\": "
+                    + (row % 2 + 1) + "}");
+        }
+        Files.write(jsonl, lines);
+        SparseDataset documents = load(jsonl, directory);
+        TestData.check(documents.getRows() == 1000, "1000 documents, got " + documents.getRows());
+        for (int row = 0; row < 1000; row++) {
+            TestData.check(documents.getDocumentId(row) == row + 1 && documents.getLabel(row) == row % 2 + 1,
+                    "row " + row + " is document " + documents.getDocumentId(row) + " of class "
+                            + documents.getLabel(row));
+            if (row % 7 == 0) {
+                checkRow(documents, row, new int[] {3}, new int[] {1});
+            }
+            else {
+                checkRow(documents, row, new int[] {2, 3}, new int[] {row % 7, 1});
+            }
+        }
+    }
+
+    /**
+     * Documents without a class of the labels file are rejected with the file and the line
+     */
+    static void badLabels() throws IOException {
+        Path directory = corpusFiles();
+        String[] lines = {"{\"text\": \"goal\"}", "{\"text\": \"goal\", \"label\": 0}",
+                "{\"text\": \"goal\", \"label\": 3}", "{\"text\": \"goal\", \"label\": 1.5}",
+                "{\"text\": \"goal\", \"label\": \"comp.graphics\"}", "{\"text\": \"goal\", \"label\": true}"};
+        for (String line : lines) {
+            Path jsonl = directory.resolve("bad.jsonl");
+            Files.write(jsonl, Arrays.asList("{\"text\": \"orbit\", \"label\": 1}", line));
+            try {
+                load(jsonl, directory);
+                TestData.check(false, "read a document without a valid class: " + line);
+            } catch (IllegalArgumentException e) {
+                TestData.check(e.getMessage().contains("line 2"), "the error does not name line 2: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The words of the vocabulary are lowercased like the words of a text under any default locale,
+     * in Turkish "ORBIT".toLowerCase() has a dotless i
+     */
+    static void turkishLocale() throws IOException {
+        Path directory = corpusFiles();
+        Files.write(directory.resolve("vocabulary.txt"), Arrays.asList("ROCKET", "ORBIT", "GOAL", "MATCH"));
+        Path jsonl = directory.resolve("turkish.jsonl");
+        Files.write(jsonl, Arrays.asList("{\"text\": \"Orbit orbit goal\", \"label\": 1}"));
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            checkRow(load(jsonl, directory), 0, new int[] {1, 2}, new int[] {2, 1});
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /**
+     * @return a directory with a vocabulary of 4 words and a labels file of 2 classes
+     */
+    private static Path corpusFiles() throws IOException {
+        Path directory = Files.createTempDirectory("textcorpustest");
+        Files.write(directory.resolve("vocabulary.txt"), Arrays.asList("rocket", "orbit", "goal", "match"));
+        Files.write(directory.resolve("labels.txt"), Arrays.asList("sci.space", "rec.sport"));
+        return directory;
+    }
+
+    private static SparseDataset load(Path corpus, Path directory) throws IOException {
+        return TextCorpus.load(corpus.toString(), true, directory.resolve("vocabulary.txt").toString(),
+                directory.resolve("labels.txt").toString(), null, 2);
+    }
+
+    /**
+     * This method checks the words and counts of a row
+     */
+    private static void checkRow(SparseDataset dataset, int row, int[] indices, int[] counts) {
+        int start = dataset.rowStart(row);
+        int end = dataset.rowEnd(row);
+        TestData.check(Arrays.equals(indices, Arrays.copyOfRange(dataset.getIndices(), start, end))
+                        && Arrays.equals(counts, Arrays.copyOfRange(dataset.getCounts(), start, end)),
+                "row " + row + " has words " + Arrays.toString(Arrays.copyOfRange(dataset.getIndices(), start, end))
+                        + " counted " + Arrays.toString(Arrays.copyOfRange(dataset.getCounts(), start, end)));
+    }
+}